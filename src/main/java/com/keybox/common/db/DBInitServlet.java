@@ -22,7 +22,8 @@ import com.keybox.manage.model.Auth;
 import com.keybox.manage.model.Fingerprint;
 import com.keybox.manage.model.SessionOutput;
 import com.keybox.manage.util.DBUtils;
-import com.keybox.manage.util.EncryptionUtil;
+import com.keybox.manage.util.DSPool;
+import com.keybox.manage.util.PasswordHashUtil;
 import com.keybox.manage.util.RefreshApplicationKeyUtil;
 import com.keybox.manage.util.RefreshAuthKeyUtil;
 import com.keybox.manage.util.SSHUtil;
@@ -197,18 +198,42 @@ public class DBInitServlet extends javax.servlet.http.HttpServlet {
 								+ "foreign key (system_id) references system(id) on delete cascade)");
 
 				//insert default admin user
-				String salt = EncryptionUtil.generateSalt();
-				PreparedStatement pStmt = connection.prepareStatement("insert into users (username, password, user_type, salt) values(?,?,?,?)");
+				PreparedStatement pStmt = connection.prepareStatement("insert into users (username, password, user_type) values(?,?,?)");
 				pStmt.setString(1, "admin");
-				pStmt.setString(2, EncryptionUtil.hash("changeme" + salt));
+				pStmt.setString(2, PasswordHashUtil.hash("changeme"));
 				pStmt.setString(3, Auth.MANAGER);
-				pStmt.setString(4, salt);
 				pStmt.execute();
 				DBUtils.closeStmt(pStmt);
 
 			}
 			DBUtils.closeRs(rs);
 
+			//indexes added after the initial schema, created on existing DBs as well
+			statement.executeUpdate("create index if not exists status_user_status_idx on status(user_id, status_cd)");
+			statement.executeUpdate("create index if not exists fingerprint_idx on fingerprint(fingerprint)");
+
+			//key distribution run timings, older runs are deleted after distributionRunRetention days
+			statement.executeUpdate("create table if not exists distribution_run ("
+					+ "id BIGINT PRIMARY KEY AUTO_INCREMENT, "
+					+ "run_type varchar not null, "
+					+ "start_tm timestamp default CURRENT_TIMESTAMP, "
+					+ "duration_ms BIGINT, "
+					+ "host_count INTEGER, "
+					+ "fail_count INTEGER)");
+			statement.executeUpdate("create table if not exists distribution_host ("
+					+ "run_id BIGINT, "
+					+ "system_id INTEGER, "
+					+ "status_cd varchar not null, "
+					+ "error_msg varchar, "
+					+ "connect_ms INTEGER, "
+					+ "auth_ms INTEGER, "
+					+ "transfer_ms INTEGER, "
+					+ "verify_ms INTEGER, "
+					+ "total_ms INTEGER, "
+					+ "foreign key (run_id) references distribution_run(id) on delete cascade, "
+					+ "foreign key (system_id) references system(id) on delete cascade)");
+			statement.executeUpdate("create index if not exists distribution_run_start_idx on distribution_run(start_tm)");
+
 			//if reset ssh application key then generate new key
 			if (resetSSHKey) {
 
@@ -271,4 +296,14 @@ public class DBInitServlet extends javax.servlet.http.HttpServlet {
 		RefreshApplicationKeyUtil.startRefreshAllSystemsTimerTask();
 	}
 
+	/**
+	 * closes the DB pool and stops the H2 TCP server if one was started
+	 */
+	@Override
+	public void destroy() {
+		DSPool.shutdown();
+		AppConfig.shutdown();
+		super.destroy();
+	}
+
 }
@@ -17,24 +17,91 @@ package com.keybox.common.util;
 
 import org.apache.commons.configuration.PropertiesConfiguration;
 import org.apache.commons.lang3.StringUtils;
+import java.io.File;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Utility to look up configurable commands and resources
+ * Utility to look up configurable commands and resources. Properties are read
+ * from an immutable snapshot that is replaced when a property is updated or
+ * the file is changed on disk, so lookups never wait on a lock.
  */
 public class AppConfig {
 
     private static Logger log = LoggerFactory.getLogger(AppConfig.class);
+    private static final String CONFIG_PATH = AppConfig.class.getClassLoader().getResource("KeyBoxConfig.properties").getPath();
+
+    //guarded by AppConfig.class
     private static PropertiesConfiguration prop;
+    private static long lastModified;
+
+    private static volatile ConfigSnapshot snapshot = new ConfigSnapshot(null);
+    private static List<AppConfigListener> listenerList = new CopyOnWriteArrayList<AppConfigListener>();
+    private static AtomicBoolean savePending = new AtomicBoolean(false);
+
+    //saves changes and checks the file for changes
+    private static ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "app-config");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
 
     static {
         try {
-        	prop = new PropertiesConfiguration(AppConfig.class.getClassLoader().getResource("KeyBoxConfig.properties").getPath());
+        	prop = new PropertiesConfiguration(CONFIG_PATH);
+            lastModified = new File(CONFIG_PATH).lastModified();
+            snapshot = new ConfigSnapshot(prop);
         } catch (Exception ex) {
             log.error(ex.toString(), ex);
         }
+
+        //seconds between checks of the file for changes
+        int reloadInterval = snapshot.getInt("configReloadInterval", 10);
+        if (reloadInterval > 0) {
+            executor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    reload();
+                }
+            }, reloadInterval, reloadInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * returns the current configuration
+     *
+     * @return configuration snapshot
+     */
+    public static ConfigSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * adds a listener to be notified when properties change
+     *
+     * @param listener config listener
+     */
+    public static void addListener(AppConfigListener listener) {
+        listenerList.add(listener);
+    }
+
+    /**
+     * removes a config listener
+     *
+     * @param listener config listener
+     */
+    public static void removeListener(AppConfigListener listener) {
+        listenerList.remove(listener);
     }
 
     /**
@@ -45,7 +112,7 @@ public class AppConfig {
      */
     public static String getProperty(String name) {
 
-        return prop.getString(name);
+        return snapshot.getString(name);
     }
 
     /**
@@ -57,7 +124,7 @@ public class AppConfig {
      */
     public static String getProperty(String name, Map<String, String> replacementMap) {
 
-        String value = prop.getString(name);
+        String value = snapshot.getString(name);
         if (StringUtils.isNotEmpty(value)) {
             //iterate through map to replace text
             Set<String> keySet = replacementMap.keySet();
@@ -79,8 +146,11 @@ public class AppConfig {
 
         //remove property
         try {
-            prop.clearProperty(name);
-            prop.save();
+            synchronized (AppConfig.class) {
+                prop.clearProperty(name);
+                updateSnapshot();
+            }
+            save();
         } catch (Exception ex) {
             log.error(ex.toString(), ex);
         }
@@ -96,8 +166,11 @@ public class AppConfig {
 
         //remove property
         try {
-            prop.setProperty(name, value);
-            prop.save();
+            synchronized (AppConfig.class) {
+                prop.setProperty(name, value);
+                updateSnapshot();
+            }
+            save();
         } catch (Exception ex) {
             log.error(ex.toString(), ex);
         }
@@ -111,7 +184,7 @@ public class AppConfig {
      */
     public static Map<String,String> getMapProperties(String name) {
 
-        String[] values= prop.getStringArray(name);
+        String[] values= snapshot.getStringArray(name);
         Map<String,String> map= new LinkedHashMap<String, String>();
 
         for(String set:values){
@@ -123,4 +196,78 @@ public class AppConfig {
         return map;
     }
 
+    /**
+     * writes pending changes to the file and stops checking it for changes
+     */
+    public static void shutdown() {
+        executor.shutdownNow();
+        if (savePending.getAndSet(false)) {
+            writeFile();
+        }
+    }
+
+    /**
+     * queues the config to be written to the file, changes made before the
+     * write starts are saved together
+     */
+    private static void save() {
+        if (savePending.compareAndSet(false, true)) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    savePending.set(false);
+                    writeFile();
+                }
+            });
+        }
+    }
+
+    /**
+     * writes the config to the file
+     */
+    private static synchronized void writeFile() {
+        try {
+            prop.save();
+            lastModified = new File(CONFIG_PATH).lastModified();
+        } catch (Exception ex) {
+            log.error(ex.toString(), ex);
+        }
+    }
+
+    /**
+     * reloads the config if the file was changed since it was last read or written
+     */
+    private static synchronized void reload() {
+        try {
+            long modified = new File(CONFIG_PATH).lastModified();
+            if (modified != lastModified && !savePending.get()) {
+                prop = new PropertiesConfiguration(CONFIG_PATH);
+                lastModified = modified;
+                log.info("Reloaded " + CONFIG_PATH);
+                updateSnapshot();
+            }
+        } catch (Exception ex) {
+            log.error(ex.toString(), ex);
+        }
+    }
+
+    /**
+     * replaces the snapshot and notifies listeners of changed properties,
+     * called holding the AppConfig lock
+     */
+    private static void updateSnapshot() {
+        ConfigSnapshot previous = snapshot;
+        snapshot = new ConfigSnapshot(prop);
+        Set<String> names = previous.getChangedNames(snapshot);
+        if (!names.isEmpty()) {
+            for (AppConfigListener listener : listenerList) {
+                try {
+                    listener.configChanged(snapshot, names);
+                } catch (Exception ex) {
+                    log.error(ex.toString(), ex);
+                }
+            }
+        }
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,32 @@
+/**
+ * Copyright 2013 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.common.util;
+
+import java.util.Set;
+
+/**
+ * Listener notified when configuration properties change
+ */
+public interface AppConfigListener {
+
+    /**
+     * called after properties were updated or the configuration file was reloaded
+     *
+     * @param snapshot new configuration
+     * @param names    names of the changed properties
+     */
+    void configChanged(ConfigSnapshot snapshot, Set<String> names);
+}
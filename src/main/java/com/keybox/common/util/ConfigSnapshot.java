@@ -0,0 +1,126 @@
+/**
+ * Copyright 2013 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.common.util;
+
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable copy of the configuration properties. A new snapshot replaces the
+ * current one whenever a property is changed or the file is reloaded.
+ */
+public class ConfigSnapshot {
+
+    private final Map<String, String[]> valueMap;
+
+    /**
+     * copies the properties of the configuration
+     *
+     * @param prop properties configuration
+     */
+    ConfigSnapshot(PropertiesConfiguration prop) {
+        Map<String, String[]> map = new HashMap<String, String[]>();
+        if (prop != null) {
+            Iterator<String> keys = prop.getKeys();
+            while (keys.hasNext()) {
+                String name = keys.next();
+                map.put(name, prop.getStringArray(name));
+            }
+        }
+        valueMap = Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * @return names of all properties
+     */
+    public Set<String> getNames() {
+        return valueMap.keySet();
+    }
+
+    /**
+     * @param name property name
+     * @return property value, the first value for a list or null if not set
+     */
+    public String getString(String name) {
+        String[] values = valueMap.get(name);
+        return values != null && values.length > 0 ? values[0] : null;
+    }
+
+    /**
+     * @param name property name
+     * @return all values of a list property
+     */
+    public String[] getStringArray(String name) {
+        String[] values = valueMap.get(name);
+        return values != null ? values.clone() : new String[0];
+    }
+
+    /**
+     * @param name         property name
+     * @param defaultValue value if not set or not a number
+     * @return property value as an int
+     */
+    public int getInt(String name, int defaultValue) {
+        String value = getString(name);
+        return StringUtils.isNumeric(value) ? Integer.parseInt(value) : defaultValue;
+    }
+
+    /**
+     * @param name         property name
+     * @param defaultValue value if not set or not a number
+     * @return property value as a long
+     */
+    public long getLong(String name, long defaultValue) {
+        String value = getString(name);
+        return StringUtils.isNumeric(value) ? Long.parseLong(value) : defaultValue;
+    }
+
+    /**
+     * @param name property name
+     * @return true if the property is set to true
+     */
+    public boolean getBoolean(String name) {
+        return "true".equals(getString(name));
+    }
+
+    /**
+     * returns the names of properties that were added, removed or changed
+     *
+     * @param other newer snapshot
+     * @return changed property names
+     */
+    Set<String> getChangedNames(ConfigSnapshot other) {
+        Set<String> names = new HashSet<String>(valueMap.keySet());
+        names.addAll(other.valueMap.keySet());
+        Set<String> changed = new HashSet<String>();
+        for (String name : names) {
+            String[] values = valueMap.get(name);
+            String[] otherValues = other.valueMap.get(name);
+            if (values == null || otherValues == null || !Arrays.equals(values, otherValues)) {
+                changed.add(name);
+            }
+        }
+        return changed;
+    }
+}
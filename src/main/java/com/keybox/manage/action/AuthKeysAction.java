@@ -23,10 +23,15 @@ import com.keybox.manage.db.*;
 import com.keybox.manage.model.*;
 import com.keybox.manage.util.EncryptionUtil;
 import com.keybox.manage.util.PasswordUtil;
+import com.keybox.manage.util.PublicKeyImportUtil;
 import com.keybox.manage.util.RefreshAuthKeyUtil;
 import com.keybox.manage.util.SSHUtil;
+import com.keybox.manage.util.PageUtil;
+import com.google.gson.Gson;
 import com.opensymphony.xwork2.ActionSupport;
 
+import org.apache.commons.io.FileUtils;
+
 import org.apache.commons.lang3.StringUtils;
 import org.apache.struts2.convention.annotation.Action;
 import org.apache.struts2.convention.annotation.Result;
@@ -37,8 +42,12 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -55,7 +64,7 @@ public class AuthKeysAction extends ActionSupport implements ServletRequestAware
 	List<Profile> profileList;
 	List<User> userList;
 	PublicKey publicKey;
-	SortedSet sortedSet = new SortedSet();
+	SortedSet sortedSet = new SortedSet(PageUtil.PAGE_SIZE);
 	List<Long> systemSelectId;
 	boolean forceUserKeyGenEnabled="true".equals(AppConfig.getProperty("forceUserKeyGeneration"));
 
@@ -63,6 +72,10 @@ public class AuthKeysAction extends ActionSupport implements ServletRequestAware
 	HostSystem hostSystem = new HostSystem();
 	List<PublicKey> userPublicKeyList;
 	Long existingKeyId;	
+	String importKeys;
+	File upload;
+	String uploadContentType;
+	String uploadFileName;
 
 
 	/**
@@ -197,6 +210,78 @@ public class AuthKeysAction extends ActionSupport implements ServletRequestAware
 		return SUCCESS;
 	}
 
+	/**
+	 * Import PublicKeys from an authorized_keys file or a JSON array of keys. The keys
+	 * are inserted in one transaction and distributed once after the import
+	 * @return
+	 */
+	@Action(value = "/admin/importPublicKeys")
+	public String importPublicKeys() {
+
+		Long userId = AuthUtil.getUserId(servletRequest.getSession());
+		String userType = AuthUtil.getUserType(servletRequest.getSession());
+		Long profileId = null;
+		if (publicKey != null && publicKey.getProfile() != null) {
+			profileId = publicKey.getProfile().getId();
+		}
+
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		List<Map<String, String>> keyResultList = new ArrayList<Map<String, String>>();
+		int importCount = 0;
+		try {
+			String content = importKeys;
+			if (upload != null) {
+				content = FileUtils.readFileToString(upload, "UTF-8");
+			}
+			List<PublicKey> importList = PublicKeyImportUtil.readPublicKeys(content);
+
+			if (forceUserKeyGenEnabled) {
+				result.put("error", "Public keys must be generated");
+			} else if (!Auth.MANAGER.equals(userType) && (profileId == null || !UserProfileDB.checkIsUsersProfile(userId, profileId))) {
+				result.put("error", "Profile is not assigned to user");
+			} else if (importList.isEmpty()) {
+				result.put("error", "No public keys found");
+			} else if (importList.size() > PublicKeyImportUtil.MAX_IMPORT_KEYS) {
+				result.put("error", "Import is limited to " + PublicKeyImportUtil.MAX_IMPORT_KEYS + " keys");
+			} else {
+				PublicKeyImportUtil.parsePublicKeys(importList);
+				List<String> errorList = PublicKeyDB.importPublicKeys(userId, profileId, importList);
+				for (int i = 0; i < importList.size(); i++) {
+					Map<String, String> keyResult = new LinkedHashMap<String, String>();
+					keyResult.put("keyNm", importList.get(i).getKeyNm());
+					keyResult.put("fingerprint", SSHUtil.getFingerprint(importList.get(i).getPublicKey()));
+					if (errorList.get(i) == null) {
+						keyResult.put("status", "imported");
+						importCount++;
+					} else {
+						keyResult.put("status", errorList.get(i));
+					}
+					keyResultList.add(keyResult);
+				}
+			}
+		} catch (Exception ex) {
+			log.error(ex.toString(), ex);
+			result.put("error", "Invalid import");
+		}
+		result.put("imported", importCount);
+		result.put("keys", keyResultList);
+
+		//one distribution for the whole import
+		if (importCount > 0) {
+			PublicKey importKey = new PublicKey();
+			importKey.setProfile(publicKey != null ? publicKey.getProfile() : null);
+			distributePublicKeys(importKey);
+		}
+
+		String json = new Gson().toJson(result);
+		try {
+			servletResponse.getOutputStream().write(json.getBytes("UTF-8"));
+		} catch (Exception ex) {
+			log.error(ex.toString(), ex);
+		}
+		return null;
+	}
+
 	/**
 	 * Delete PublicKey
 	 * @return
@@ -473,6 +558,38 @@ public class AuthKeysAction extends ActionSupport implements ServletRequestAware
 		this.userPublicKeyList = userPublicKeyList;
 	}
 
+	public String getImportKeys() {
+		return importKeys;
+	}
+
+	public void setImportKeys(String importKeys) {
+		this.importKeys = importKeys;
+	}
+
+	public File getUpload() {
+		return upload;
+	}
+
+	public void setUpload(File upload) {
+		this.upload = upload;
+	}
+
+	public String getUploadContentType() {
+		return uploadContentType;
+	}
+
+	public void setUploadContentType(String uploadContentType) {
+		this.uploadContentType = uploadContentType;
+	}
+
+	public String getUploadFileName() {
+		return uploadFileName;
+	}
+
+	public void setUploadFileName(String uploadFileName) {
+		this.uploadFileName = uploadFileName;
+	}
+
 	public Long getExistingKeyId() {
 		return existingKeyId;
 	}
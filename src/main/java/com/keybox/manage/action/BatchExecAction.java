@@ -0,0 +1,192 @@
+/**
+ * Copyright 2013 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.action;
+
+import com.google.gson.Gson;
+import com.keybox.common.util.AuthUtil;
+import com.keybox.manage.db.ScriptDB;
+import com.keybox.manage.db.SystemDB;
+import com.keybox.manage.model.Auth;
+import com.keybox.manage.model.BatchResult;
+import com.keybox.manage.model.BatchRun;
+import com.keybox.manage.model.HostSystem;
+import com.keybox.manage.model.Script;
+import com.keybox.manage.util.BatchExecUtil;
+import com.opensymphony.xwork2.ActionSupport;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.struts2.convention.annotation.Action;
+import org.apache.struts2.convention.annotation.Result;
+import org.apache.struts2.interceptor.ServletRequestAware;
+import org.apache.struts2.interceptor.ServletResponseAware;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Action to run a command or script on systems without terminals
+ */
+public class BatchExecAction extends ActionSupport implements ServletRequestAware, ServletResponseAware {
+
+    private static Logger log = LoggerFactory.getLogger(BatchExecAction.class);
+
+    HttpServletRequest servletRequest;
+    HttpServletResponse servletResponse;
+    List<Long> systemSelectId;
+    String command;
+    Script script = new Script();
+    Long runId;
+    Integer offset = 0;
+    BatchRun batchRun;
+
+    @Action(value = "/admin/runBatch",
+            results = {
+                    @Result(name = "input", location = "/admin/batch_exec.jsp"),
+                    @Result(name = "success", location = "/admin/batch_exec.jsp")
+            }
+    )
+    public String runBatch() {
+
+        Long userId = AuthUtil.getUserId(servletRequest.getSession());
+
+        //load the script once for all systems
+        if (script != null && script.getId() != null && script.getId() > 0) {
+            script = ScriptDB.getScript(script.getId(), userId);
+            if (script != null) {
+                command = script.getScript();
+            }
+        }
+        if (StringUtils.isBlank(command)) {
+            addActionError("Command or script is required");
+            return INPUT;
+        }
+        if (systemSelectId == null || systemSelectId.isEmpty()) {
+            addActionError("No systems selected");
+            return INPUT;
+        }
+
+        //checks perms if to see if in assigned profiles
+        List<Long> systemIdList = systemSelectId;
+        if (!Auth.MANAGER.equals(AuthUtil.getUserType(servletRequest.getSession()))) {
+            systemIdList = SystemDB.checkSystemPerms(systemIdList, userId);
+        }
+        List<HostSystem> hostSystemList = SystemDB.getSystems(systemIdList);
+
+        batchRun = BatchExecUtil.runBatch(userId, command, hostSystemList);
+        if (batchRun == null) {
+            addActionError("Batch run could not be started");
+            return INPUT;
+        }
+        return SUCCESS;
+    }
+
+    /**
+     * returns the results of a batch run finished since the offset
+     */
+    @Action(value = "/admin/getBatchResults")
+    public String getBatchResults() {
+
+        Long userId = AuthUtil.getUserId(servletRequest.getSession());
+        Map<String, Object> results = new LinkedHashMap<String, Object>();
+
+        BatchRun run = BatchExecUtil.getBatchRun(runId);
+        if (run != null && run.getUserId().equals(userId)) {
+            List<BatchResult> resultList;
+            int from;
+            synchronized (run.getResultList()) {
+                from = offset != null ? Math.max(0, Math.min(offset, run.getResultList().size())) : 0;
+                resultList = new ArrayList<BatchResult>(run.getResultList().subList(from, run.getResultList().size()));
+            }
+            results.put("id", run.getId());
+            results.put("total", run.getTotal());
+            results.put("completed", from + resultList.size());
+            results.put("resultList", resultList);
+        } else {
+            results.put("error", "Batch run not found");
+        }
+
+        String json = new Gson().toJson(results);
+        try {
+            servletResponse.getOutputStream().write(json.getBytes("UTF-8"));
+        } catch (Exception ex) {
+            log.error(ex.toString(), ex);
+        }
+        return null;
+    }
+
+    public List<Long> getSystemSelectId() {
+        return systemSelectId;
+    }
+
+    public void setSystemSelectId(List<Long> systemSelectId) {
+        this.systemSelectId = systemSelectId;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    public void setCommand(String command) {
+        this.command = command;
+    }
+
+    public Script getScript() {
+        return script;
+    }
+
+    public void setScript(Script script) {
+        this.script = script;
+    }
+
+    public Long getRunId() {
+        return runId;
+    }
+
+    public void setRunId(Long runId) {
+        this.runId = runId;
+    }
+
+    public Integer getOffset() {
+        return offset;
+    }
+
+    public void setOffset(Integer offset) {
+        this.offset = offset;
+    }
+
+    public BatchRun getBatchRun() {
+        return batchRun;
+    }
+
+    public void setBatchRun(BatchRun batchRun) {
+        this.batchRun = batchRun;
+    }
+
+    @Override
+    public void setServletRequest(HttpServletRequest servletRequest) {
+        this.servletRequest = servletRequest;
+    }
+
+    @Override
+    public void setServletResponse(HttpServletResponse servletResponse) {
+        this.servletResponse = servletResponse;
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright 2013 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.action;
+
+import com.google.gson.Gson;
+import com.keybox.manage.db.DistributionRunDB;
+import com.keybox.manage.util.DistributionRecorder;
+import com.opensymphony.xwork2.ActionSupport;
+import org.apache.struts2.convention.annotation.Action;
+import org.apache.struts2.interceptor.ServletResponseAware;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Action to report on key distribution runs
+ */
+public class DistributionStatsAction extends ActionSupport implements ServletResponseAware {
+
+    private static Logger log = LoggerFactory.getLogger(DistributionStatsAction.class);
+
+    HttpServletResponse servletResponse;
+    Integer days = 7;
+
+    /**
+     * returns phase timings, failure rates and the slowest hosts of recent distribution runs
+     */
+    @Action(value = "/manage/getDistributionStats")
+    public String getDistributionStats() {
+
+        if (days == null || days <= 0 || days > DistributionRecorder.RUN_RETENTION) {
+            days = DistributionRecorder.RUN_RETENTION;
+        }
+        String json = new Gson().toJson(DistributionRunDB.getRunStats(days));
+        try {
+            servletResponse.getOutputStream().write(json.getBytes());
+        } catch (Exception ex) {
+            log.error(ex.toString(), ex);
+        }
+        return null;
+    }
+
+    public Integer getDays() {
+        return days;
+    }
+
+    public void setDays(Integer days) {
+        this.days = days;
+    }
+
+    @Override
+    public void setServletResponse(HttpServletResponse servletResponse) {
+        this.servletResponse = servletResponse;
+    }
+}
@@ -79,8 +79,6 @@ public class LoginAction extends ActionSupport implements ServletRequestAware, S
     public String loginSubmit() {
         String retVal = SUCCESS;
 
-        String authToken = AuthDB.login(auth);
-
         //get client IP
         String clientIP = null;
         if (StringUtils.isNotEmpty(AppConfig.getProperty("clientIPHeader"))) {
@@ -89,6 +87,8 @@ public class LoginAction extends ActionSupport implements ServletRequestAware, S
         if (StringUtils.isEmpty(clientIP)) {
             clientIP = servletRequest.getRemoteAddr();
         }
+
+        String authToken = AuthDB.login(auth, clientIP);
         if (authToken != null) {
 
             User user = AuthDB.getUserByAuthToken(authToken);
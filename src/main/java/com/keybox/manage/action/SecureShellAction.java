@@ -15,12 +15,14 @@
  */
 package com.keybox.manage.action;
 
+import com.google.gson.Gson;
 import com.jcraft.jsch.ChannelShell;
 import com.keybox.common.util.AuthUtil;
 import com.keybox.manage.db.*;
 import com.keybox.manage.model.*;
 import com.keybox.manage.model.SortedSet;
 import com.keybox.manage.util.SSHUtil;
+import com.keybox.manage.util.ScriptDispatchUtil;
 import com.opensymphony.xwork2.ActionSupport;
 import org.apache.struts2.convention.annotation.Action;
 import org.apache.struts2.convention.annotation.Result;
@@ -29,8 +31,7 @@ import org.apache.struts2.interceptor.ServletResponseAware;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.BufferedReader;
-import java.io.StringReader;
+import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import org.slf4j.Logger;
@@ -94,11 +95,21 @@ public class SecureShellAction extends ActionSupport implements ServletRequestAw
 
                 pendingSystemStatus = currentSystemStatus;
             } else {
-                pendingSystemStatus = SystemStatusDB.getNextPendingSystem(userId);
+                //load the remaining systems once instead of querying after every connection
+                List<HostSystem> pendingSystemList = SystemStatusDB.getPendingSystems(userId);
+                Iterator<HostSystem> pendingSystemIterator = pendingSystemList.iterator();
+                pendingSystemStatus = pendingSystemIterator.hasNext() ? pendingSystemIterator.next() : null;
                 //if success loop through systems until finished or need password
                 while (pendingSystemStatus != null && currentSystemStatus != null && HostSystem.SUCCESS_STATUS.equals(currentSystemStatus.getStatusCd())) {
                     currentSystemStatus = SSHUtil.openSSHTermOnSystem(passphrase, password, userId, sessionId, pendingSystemStatus, userSchSessionMap);
-                    pendingSystemStatus = SystemStatusDB.getNextPendingSystem(userId);
+                    if (currentSystemStatus != null
+                            && (HostSystem.AUTH_FAIL_STATUS.equals(currentSystemStatus.getStatusCd())
+                            || HostSystem.PUBLIC_KEY_FAIL_STATUS.equals(currentSystemStatus.getStatusCd()))) {
+                        //system is still pending until a password or passphrase is entered
+                        pendingSystemStatus = currentSystemStatus;
+                    } else {
+                        pendingSystemStatus = pendingSystemIterator.hasNext() ? pendingSystemIterator.next() : null;
+                    }
                 }
             }
         }
@@ -236,6 +247,21 @@ public class SecureShellAction extends ActionSupport implements ServletRequestAw
         return null;
     }
 
+    /**
+     * returns the dispatch status of the last script run on the terminals
+     */
+    @Action(value = "/admin/getScriptStatus")
+    public String getScriptStatus() {
+        Long sessionId = AuthUtil.getSessionId(servletRequest.getSession());
+        String json = new Gson().toJson(ScriptDispatchUtil.getStatus(sessionId));
+        try {
+            servletResponse.getOutputStream().write(json.getBytes());
+        } catch (IOException ex) {
+            log.error(ex.toString(), ex);
+        }
+        return null;
+    }
+
     /**
      * set system list once all connections have been attempted
      *
@@ -252,18 +278,12 @@ public class SecureShellAction extends ActionSupport implements ServletRequestAw
             for (SchSession schSession : schSessionMap.values()) {
                 //add to host system list
                 systemList.add(schSession.getHostSystem());
-                //run script it exists
-                if (script != null && script.getId() != null && script.getId() > 0) {
-                    script = ScriptDB.getScript(script.getId(), userId);
-                    BufferedReader reader = new BufferedReader(new StringReader(script.getScript()));
-                    String line;
-                    try {
-                        while ((line = reader.readLine()) != null) {
-                            schSession.getCommander().println(line);
-                        }
-                    } catch (Exception e) {
-                        log.error(e.toString(), e);
-                    }
+            }
+            //run script it exists, loaded once and written to all terminals in the background
+            if (script != null && script.getId() != null && script.getId() > 0) {
+                script = ScriptDB.getScript(script.getId(), userId);
+                if (script != null) {
+                    ScriptDispatchUtil.dispatch(sessionId, script.getScript(), schSessionMap);
                 }
             }
         }
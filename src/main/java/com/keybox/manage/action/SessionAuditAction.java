@@ -23,6 +23,7 @@ import com.keybox.manage.model.SessionAudit;
 import com.keybox.manage.model.SortedSet;
 import com.google.gson.Gson;
 import com.keybox.manage.model.User;
+import com.keybox.manage.util.PageUtil;
 import com.opensymphony.xwork2.ActionSupport;
 import org.apache.struts2.convention.annotation.Action;
 import org.apache.struts2.convention.annotation.Result;
@@ -39,7 +40,7 @@ public class SessionAuditAction extends ActionSupport implements ServletResponse
 
     private static Logger log = LoggerFactory.getLogger(SessionAuditAction.class);
 
-    SortedSet sortedSet=new SortedSet();
+    SortedSet sortedSet=new SortedSet(PageUtil.PAGE_SIZE);
     Long sessionId;
     Integer instanceId;
     SessionAudit sessionAudit;
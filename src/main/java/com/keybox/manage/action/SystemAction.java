@@ -30,6 +30,7 @@ import com.keybox.manage.model.*;
 import com.keybox.manage.util.EncryptionUtil;
 import com.keybox.manage.util.RefreshApplicationKeyUtil;
 import com.keybox.manage.util.SSHUtil;
+import com.keybox.manage.util.PageUtil;
 import com.opensymphony.xwork2.ActionSupport;
 
 import org.apache.commons.lang3.StringUtils;
@@ -64,7 +65,7 @@ public class SystemAction extends ActionSupport implements ServletRequestAware,
 
 	HttpServletRequest servletRequest;
 	HttpServletResponse servletResponse;
-    SortedSet sortedSet = new SortedSet();
+    SortedSet sortedSet = new SortedSet(PageUtil.PAGE_SIZE);
     HostSystem hostSystem = new HostSystem();
     List<ApplicationKey> initAppList;	//List for Inital System Keys 
 	Script script = null;
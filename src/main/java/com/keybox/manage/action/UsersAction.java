@@ -26,6 +26,7 @@ import com.keybox.manage.model.SortedSet;
 import com.keybox.manage.model.User;
 import com.keybox.manage.util.PasswordUtil;
 import com.keybox.manage.util.RefreshAuthKeyUtil;
+import com.keybox.manage.util.PageUtil;
 import com.opensymphony.xwork2.ActionSupport;
 import org.apache.struts2.convention.annotation.Action;
 import org.apache.struts2.convention.annotation.Result;
@@ -38,7 +39,7 @@ import javax.servlet.http.HttpServletRequest;
  */
 public class UsersAction extends ActionSupport  implements ServletRequestAware {
 
-    SortedSet sortedSet=new SortedSet();
+    SortedSet sortedSet=new SortedSet(PageUtil.PAGE_SIZE);
     User user = new User();
     Script script=null;
     HttpServletRequest servletRequest;
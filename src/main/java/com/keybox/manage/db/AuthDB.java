@@ -20,6 +20,7 @@ import com.keybox.manage.model.User;
 import com.keybox.manage.util.DBUtils;
 import com.keybox.manage.util.EncryptionUtil;
 import com.keybox.manage.util.ExternalAuthUtil;
+import com.keybox.manage.util.PasswordHashUtil;
 import org.apache.commons.lang3.StringUtils;
 
 import java.sql.Connection;
@@ -43,37 +44,100 @@ public class AuthDB {
      * @return auth token if success
      */
     public static String login(Auth auth) {
+        return login(auth, null);
+    }
+
+    /**
+     * auth user and return auth token if valid auth
+     *
+     * @param auth     username and password object
+     * @param clientIP IP address of the client
+     * @return auth token if success
+     */
+    public static String login(Auth auth, String clientIP) {
         //check ldap first
-        String authToken = ExternalAuthUtil.login(auth);
+        String authToken = ExternalAuthUtil.login(auth, clientIP);
         if (StringUtils.isEmpty(authToken)) {
+            Long id = null;
+            String storedHash = null;
+            String salt = null;
             Connection con = null;
             try {
                 con = DBUtils.getConn();
-                //get salt for user
-                String salt = getSaltByUsername(con, auth.getUsername());
-                //login
-                PreparedStatement stmt = con.prepareStatement("select * from users where enabled=true and username=? and password=?");
+                PreparedStatement stmt = con.prepareStatement("select * from users where enabled=true and username=?");
                 stmt.setString(1, auth.getUsername());
-                stmt.setString(2, EncryptionUtil.hash(auth.getPassword() + salt));
                 ResultSet rs = stmt.executeQuery();
                 if (rs.next()) {
-                    auth.setId(rs.getLong("id"));
-                    authToken = UUID.randomUUID().toString();
-                    auth.setAuthToken(authToken);
-                    auth.setAuthType(Auth.AUTH_BASIC);
-                    updateLogin(con, auth);
+                    id = rs.getLong("id");
+                    storedHash = rs.getString("password");
+                    salt = rs.getString("salt");
                 }
                 DBUtils.closeRs(rs);
                 DBUtils.closeStmt(stmt);
             } catch (Exception e) {
-                log.error(e.toString(), e);
+                log.error(e.toString(), e);
             }
+            //connection is not held while the password is verified
             DBUtils.closeConn(con);
+            con = null;
+
+            //login
+            if (PasswordHashUtil.verify(auth.getPassword(), storedHash, salt)) {
+                //move the password to the configured hash engine and cost
+                String newHash = PasswordHashUtil.needsRehash(storedHash) ? PasswordHashUtil.hash(auth.getPassword()) : null;
+                try {
+                    con = DBUtils.getConn();
+                    String token = UUID.randomUUID().toString();
+                    PreparedStatement stmt = con.prepareStatement("update users set auth_type=?, auth_token=? where id=?");
+                    stmt.setString(1, Auth.AUTH_BASIC);
+                    stmt.setString(2, token);
+                    stmt.setLong(3, id);
+                    stmt.execute();
+                    DBUtils.closeStmt(stmt);
+                    if (newHash != null) {
+                        updatePasswordHash(con, id, newHash);
+                    }
+                    authToken = token;
+                    auth.setId(id);
+                    auth.setAuthToken(authToken);
+                    auth.setAuthType(Auth.AUTH_BASIC);
+                } catch (Exception e) {
+                    log.error(e.toString(), e);
+                }
+                DBUtils.closeConn(con);
+            }
         }
         return authToken;
     }
 
 
+    /**
+     * checks if the username belongs to an enabled user with a local password
+     *
+     * @param username username
+     * @return true if local user
+     */
+    public static boolean isLocalUser(String username) {
+
+        boolean localUser = false;
+        Connection con = null;
+        try {
+            con = DBUtils.getConn();
+            PreparedStatement stmt = con.prepareStatement("select id from users where enabled=true and lower(username)=lower(?) and auth_type=? and password is not null");
+            stmt.setString(1, username);
+            stmt.setString(2, Auth.AUTH_BASIC);
+            ResultSet rs = stmt.executeQuery();
+            localUser = rs.next();
+            DBUtils.closeRs(rs);
+            DBUtils.closeStmt(stmt);
+        } catch (Exception e) {
+            log.error(e.toString(), e);
+        }
+        DBUtils.closeConn(con);
+        return localUser;
+    }
+
+
     /**
      * checks to see if user is an admin based on auth token
      *
@@ -119,9 +183,8 @@ public class AuthDB {
             stmt.setString(2, auth.getAuthType());
             stmt.setString(3, auth.getAuthToken());
             if (StringUtils.isNotEmpty(auth.getPassword())) {
-                String salt = EncryptionUtil.generateSalt();
-                stmt.setString(4, EncryptionUtil.hash(auth.getPassword() + salt));
-                stmt.setString(5, salt);
+                stmt.setString(4, PasswordHashUtil.hash(auth.getPassword()));
+                stmt.setString(5, null);
             } else {
                 stmt.setString(4, null);
                 stmt.setString(5, null);
@@ -139,30 +202,46 @@ public class AuthDB {
      */
     public static boolean updatePassword(Auth auth) {
         boolean success = false;
+        boolean found = false;
+        String storedHash = null;
+        String salt = null;
         Connection con = null;
         try {
             con = DBUtils.getConn();
-            String prevSalt = getSaltByAuthToken(con, auth.getAuthToken());
-            PreparedStatement stmt = con.prepareStatement("select * from users where auth_token like ? and password like ?");
+            PreparedStatement stmt = con.prepareStatement("select * from users where enabled=true and auth_token like ?");
             stmt.setString(1, auth.getAuthToken());
-            stmt.setString(2, EncryptionUtil.hash(auth.getPrevPassword() + prevSalt));
             ResultSet rs = stmt.executeQuery();
             if (rs.next()) {
-                String salt = EncryptionUtil.generateSalt();
-                stmt = con.prepareStatement("update users set password=?, salt=?, pwreset=? where auth_token like ?");
-                stmt.setString(1, EncryptionUtil.hash(auth.getPassword() + salt));
-                stmt.setString(2, salt);
-                stmt.setBoolean(3, false);
-                stmt.setString(4, auth.getAuthToken());
-                stmt.execute();
-                success = true;
+                found = true;
+                storedHash = rs.getString("password");
+                salt = rs.getString("salt");
             }
             DBUtils.closeRs(rs);
             DBUtils.closeStmt(stmt);
         } catch (Exception e) {
             log.error(e.toString(), e);
         }
+        //connection is not held while the password is verified
         DBUtils.closeConn(con);
+        con = null;
+
+        if (found && PasswordHashUtil.verify(auth.getPrevPassword(), storedHash, salt)) {
+            String newHash = PasswordHashUtil.hash(auth.getPassword());
+            try {
+                con = DBUtils.getConn();
+                PreparedStatement stmt = con.prepareStatement("update users set password=?, salt=?, pwreset=? where auth_token like ?");
+                stmt.setString(1, newHash);
+                stmt.setString(2, null);
+                stmt.setBoolean(3, false);
+                stmt.setString(4, auth.getAuthToken());
+                stmt.execute();
+                DBUtils.closeStmt(stmt);
+                success = true;
+            } catch (Exception e) {
+                log.error(e.toString(), e);
+            }
+            DBUtils.closeConn(con);
+        }
         return success;
     }
 
@@ -263,54 +342,24 @@ public class AuthDB {
 
 
     /**
-     * get salt by user name
+     * replaces the password hash of a user with a hash from the configured engine
      *
-     * @param con      DB connection
-     * @param username username
-     * @return salt
+     * @param con          DB connection
+     * @param id           user id
+     * @param passwordHash new password hash
      */
-    private static String getSaltByUsername(Connection con, String username) {
+    private static void updatePasswordHash(Connection con, Long id, String passwordHash) {
 
-        String salt = "";
         try {
-            PreparedStatement stmt = con.prepareStatement("select salt from users where enabled=true and username=?");
-            stmt.setString(1, username);
-            ResultSet rs = stmt.executeQuery();
-            if (rs.next() && rs.getString("salt") != null) {
-                salt = rs.getString("salt");
-            }
-            DBUtils.closeRs(rs);
-            DBUtils.closeStmt(stmt);
-        } catch (Exception e) {
-            log.error(e.toString(), e);
-        }
-        return salt;
-    }
-
-
-    /**
-     * get salt by authentication token
-     *
-     * @param con       DB connection
-     * @param authToken auth token
-     * @return salt
-     */
-    private static String getSaltByAuthToken(Connection con, String authToken) {
-
-        String salt = "";
-        try {
-            PreparedStatement stmt = con.prepareStatement("select salt from users where enabled=true and auth_token=?");
-            stmt.setString(1, authToken);
-            ResultSet rs = stmt.executeQuery();
-            if (rs.next() && rs.getString("salt") != null) {
-                salt = rs.getString("salt");
-            }
-            DBUtils.closeRs(rs);
+            PreparedStatement stmt = con.prepareStatement("update users set password=?, salt=? where id=?");
+            stmt.setString(1, passwordHash);
+            stmt.setString(2, null);
+            stmt.setLong(3, id);
+            stmt.execute();
             DBUtils.closeStmt(stmt);
         } catch (Exception e) {
             log.error(e.toString(), e);
         }
-        return salt;
     }
 
 
@@ -0,0 +1,266 @@
+/**
+ * Copyright 2013 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.db;
+
+import com.keybox.manage.model.DistributionHost;
+import com.keybox.manage.model.DistributionRun;
+import com.keybox.manage.model.HostSystem;
+import com.keybox.manage.util.DBUtils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * DAO to record key distribution runs and report on their timings
+ */
+public class DistributionRunDB {
+
+    private static Logger log = LoggerFactory.getLogger(DistributionRunDB.class);
+
+    //timing columns of distribution_host by phase name
+    private static final String[][] PHASES = {
+            {"connect", "connect_ms"},
+            {"auth", "auth_ms"},
+            {"transfer", "transfer_ms"},
+            {"verify", "verify_ms"},
+            {"total", "total_ms"}
+    };
+
+    private static final int SLOWEST_HOSTS = 10;
+
+    private DistributionRunDB() {
+    }
+
+    /**
+     * inserts a finished run with its host timings and deletes runs older than the retention
+     *
+     * @param run           distribution run
+     * @param retentionDays days runs are kept
+     */
+    public static void insertRun(DistributionRun run, Integer retentionDays) {
+
+        Connection con = null;
+        try {
+            con = DBUtils.getConn();
+            con.setAutoCommit(false);
+
+            PreparedStatement stmt = con.prepareStatement("insert into distribution_run (run_type, start_tm, duration_ms, host_count, fail_count) values (?,?,?,?,?)", Statement.RETURN_GENERATED_KEYS);
+            stmt.setString(1, run.getRunType());
+            stmt.setTimestamp(2, new Timestamp(run.getStartTm().getTime()));
+            stmt.setLong(3, run.getDurationMs());
+            stmt.setInt(4, run.getHostCount());
+            stmt.setInt(5, run.getFailCount());
+            stmt.execute();
+            ResultSet rs = stmt.getGeneratedKeys();
+            if (rs != null && rs.next()) {
+                run.setId(rs.getLong(1));
+            }
+            DBUtils.closeRs(rs);
+            DBUtils.closeStmt(stmt);
+
+            if (!run.getHostList().isEmpty()) {
+                stmt = con.prepareStatement("insert into distribution_host (run_id, system_id, status_cd, error_msg, connect_ms, auth_ms, transfer_ms, verify_ms, total_ms) values (?,?,?,?,?,?,?,?,?)");
+                for (DistributionHost host : run.getHostList()) {
+                    stmt.setLong(1, run.getId());
+                    stmt.setLong(2, host.getSystemId());
+                    stmt.setString(3, host.getStatusCd());
+                    stmt.setString(4, host.getErrorMsg());
+                    setInteger(stmt, 5, host.getConnectMs());
+                    setInteger(stmt, 6, host.getAuthMs());
+                    setInteger(stmt, 7, host.getTransferMs());
+                    setInteger(stmt, 8, host.getVerifyMs());
+                    setInteger(stmt, 9, host.getTotalMs());
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+                DBUtils.closeStmt(stmt);
+            }
+
+            //host timings are removed with the run
+            if (retentionDays != null && retentionDays > 0) {
+                stmt = con.prepareStatement("delete from distribution_run where start_tm < ?");
+                stmt.setTimestamp(1, new Timestamp(System.currentTimeMillis() - retentionDays * 86400000L));
+                stmt.execute();
+                DBUtils.closeStmt(stmt);
+            }
+
+            con.commit();
+            con.setAutoCommit(true);
+
+        } catch (Exception e) {
+            log.error(e.toString(), e);
+            try {
+                if (con != null) {
+                    con.rollback();
+                    con.setAutoCommit(true);
+                }
+            } catch (SQLException ex) {
+                log.error(ex.toString(), ex);
+            }
+        }
+        DBUtils.closeConn(con);
+    }
+
+    private static void setInteger(PreparedStatement stmt, int index, Integer value) throws SQLException {
+        if (value != null) {
+            stmt.setInt(index, value);
+        } else {
+            stmt.setNull(index, Types.INTEGER);
+        }
+    }
+
+    /**
+     * returns aggregated stats of the runs since the given number of days. Phase
+     * timings are given as p50 / p95, failure rates by status and the slowest
+     * hosts by average total time.
+     *
+     * @param days days to report on
+     * @return map of stat name / value
+     */
+    public static Map<String, Object> getRunStats(Integer days) {
+
+        Map<String, Object> statMap = new LinkedHashMap<String, Object>();
+        Connection con = null;
+        try {
+            con = DBUtils.getConn();
+            Timestamp since = new Timestamp(System.currentTimeMillis() - days * 86400000L);
+
+            PreparedStatement stmt = con.prepareStatement("select count(*) as runs, avg(duration_ms) as avg_duration_ms, max(duration_ms) as max_duration_ms from distribution_run where start_tm >= ?");
+            stmt.setTimestamp(1, since);
+            ResultSet rs = stmt.executeQuery();
+            if (rs.next()) {
+                statMap.put("runs", rs.getLong("runs"));
+                statMap.put("avg_duration_ms", rs.getLong("avg_duration_ms"));
+                statMap.put("max_duration_ms", rs.getLong("max_duration_ms"));
+            }
+            DBUtils.closeRs(rs);
+            DBUtils.closeStmt(stmt);
+
+            //host results by status
+            long hosts = 0;
+            long fails = 0;
+            Map<String, Long> failMap = new LinkedHashMap<String, Long>();
+            stmt = con.prepareStatement("select h.status_cd, count(*) as hosts from distribution_host h, distribution_run r " +
+                    "where r.id = h.run_id and r.start_tm >= ? group by h.status_cd order by hosts desc");
+            stmt.setTimestamp(1, since);
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                long count = rs.getLong("hosts");
+                hosts += count;
+                String statusCd = rs.getString("status_cd");
+                if (!HostSystem.SUCCESS_STATUS.equals(statusCd)) {
+                    failMap.put(statusCd, count);
+                    fails += count;
+                }
+            }
+            DBUtils.closeRs(rs);
+            DBUtils.closeStmt(stmt);
+
+            //phase percentiles, each read by rank from the ordered timing column
+            Map<String, Map<String, Integer>> phaseMap = new LinkedHashMap<String, Map<String, Integer>>();
+            for (String[] phase : PHASES) {
+                long count = 0;
+                stmt = con.prepareStatement("select count(h." + phase[1] + ") from distribution_host h, distribution_run r where r.id = h.run_id and r.start_tm >= ?");
+                stmt.setTimestamp(1, since);
+                rs = stmt.executeQuery();
+                if (rs.next()) {
+                    count = rs.getLong(1);
+                }
+                DBUtils.closeRs(rs);
+                DBUtils.closeStmt(stmt);
+
+                Map<String, Integer> percentileMap = new LinkedHashMap<String, Integer>();
+                percentileMap.put("p50", percentile(con, phase[1], since, count, 0.5));
+                percentileMap.put("p95", percentile(con, phase[1], since, count, 0.95));
+                phaseMap.put(phase[0], percentileMap);
+            }
+            statMap.put("hosts", hosts);
+            statMap.put("phases_ms", phaseMap);
+            statMap.put("failure_rate", hosts > 0 ? (double) fails / hosts : 0d);
+            statMap.put("failures_by_status", failMap);
+
+            //hosts that drag the runs
+            List<Map<String, Object>> slowestList = new ArrayList<Map<String, Object>>();
+            stmt = con.prepareStatement("select h.system_id, s.display_nm, s.host, count(*) as runs, avg(h.total_ms) as avg_ms, max(h.total_ms) as max_ms, " +
+                    "sum(case when h.status_cd = ? then 0 else 1 end) as failures " +
+                    "from distribution_host h, distribution_run r, system s where r.id = h.run_id and s.id = h.system_id and r.start_tm >= ? " +
+                    "group by h.system_id, s.display_nm, s.host order by avg_ms desc limit ?");
+            stmt.setString(1, HostSystem.SUCCESS_STATUS);
+            stmt.setTimestamp(2, since);
+            stmt.setInt(3, SLOWEST_HOSTS);
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                Map<String, Object> hostMap = new LinkedHashMap<String, Object>();
+                hostMap.put("system_id", rs.getLong("system_id"));
+                hostMap.put("display_nm", rs.getString("display_nm"));
+                hostMap.put("host", rs.getString("host"));
+                hostMap.put("runs", rs.getLong("runs"));
+                hostMap.put("avg_ms", rs.getLong("avg_ms"));
+                hostMap.put("max_ms", rs.getLong("max_ms"));
+                hostMap.put("failures", rs.getLong("failures"));
+                slowestList.add(hostMap);
+            }
+            DBUtils.closeRs(rs);
+            DBUtils.closeStmt(stmt);
+            statMap.put("slowest_hosts", slowestList);
+
+        } catch (Exception e) {
+            log.error(e.toString(), e);
+        }
+        DBUtils.closeConn(con);
+        return statMap;
+    }
+
+    /**
+     * nearest rank percentile of a timing column, read as a single row of the ordered values
+     *
+     * @param con    DB connection
+     * @param column timing column of distribution_host
+     * @param since  start of the reporting period
+     * @param count  number of non null values in the period
+     * @param q      percentile as a fraction
+     * @return percentile value or null if there are no values
+     */
+    private static Integer percentile(Connection con, String column, Timestamp since, long count, double q) throws SQLException {
+        if (count <= 0) {
+            return null;
+        }
+        long rank = (long) Math.ceil(q * count);
+        Integer value = null;
+        PreparedStatement stmt = con.prepareStatement("select h." + column + " from distribution_host h, distribution_run r " +
+                "where r.id = h.run_id and r.start_tm >= ? and h." + column + " is not null order by h." + column + " limit 1 offset ?");
+        stmt.setTimestamp(1, since);
+        stmt.setLong(2, Math.max(0, rank - 1));
+        ResultSet rs = stmt.executeQuery();
+        if (rs.next()) {
+            value = rs.getInt(1);
+        }
+        DBUtils.closeRs(rs);
+        DBUtils.closeStmt(stmt);
+        return value;
+    }
+}
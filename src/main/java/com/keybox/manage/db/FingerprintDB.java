@@ -44,7 +44,7 @@ public class FingerprintDB {
         Connection con = null;
         try{
         	con = DBUtils.getConn();
-            stmt = con.prepareStatement("select * from fingerprint where fingerprint like ?");
+            stmt = con.prepareStatement("select * from fingerprint where fingerprint = ?");
             stmt.setString(1, fingerprint);
             
             ResultSet rs = stmt.executeQuery();
@@ -74,7 +74,7 @@ public class FingerprintDB {
         Connection con = null;
         try{
         	con = DBUtils.getConn();
-            stmt = con.prepareStatement("select * from fingerprint fp JOIN application_key appk ON fp.id = appK.fingerprint_id where fp.fingerprint like ? and appK.ec2_region like ?");
+            stmt = con.prepareStatement("select * from fingerprint fp JOIN application_key appk ON fp.id = appK.fingerprint_id where fp.fingerprint = ? and appK.ec2_region like ?");
             stmt.setString(1, fingerprint);
             stmt.setString(2, region);
             
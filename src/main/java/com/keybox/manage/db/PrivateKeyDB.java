@@ -16,8 +16,10 @@
 package com.keybox.manage.db;
 
 import com.keybox.manage.model.ApplicationKey;
+import com.keybox.manage.model.Fingerprint;
+import com.keybox.manage.model.HostSystem;
 import com.keybox.manage.model.SortedSet;
-import com.keybox.manage.model.User;
+import com.keybox.manage.util.DBCache;
 import com.keybox.manage.util.DBUtils;
 import com.keybox.manage.util.EncryptionUtil;
 
@@ -40,6 +42,15 @@ public class PrivateKeyDB {
 
     public static final String FILTER_BY_ENABLED = "enabled";
 
+    //application key columns aliased with ak_ so they can be selected next to other tables
+    static final String APPLICATION_KEY_COLUMNS = "ak.id as ak_id, ak.keyname as ak_keyname, ak.public_key as ak_public_key, "
+            + "ak.private_key as ak_private_key, ak.passphrase as ak_passphrase, ak.initialKey as ak_initialkey, ak.user_id as ak_user_id, "
+            + "ak.type as ak_type, ak.fingerprint_id as ak_fingerprint_id, f.fingerprint as ak_fingerprint, ak.enabled as ak_enabled, "
+            + "ak.create_dt as ak_create_dt, ak.ec2_region as ak_ec2_region, u.username as ak_username";
+
+    //joins for the fingerprint and owner of application key ak
+    static final String APPLICATION_KEY_JOINS = " left join fingerprint f on f.id = ak.fingerprint_id left join users u on u.id = ak.user_id ";
+
 
     /**
      * Inserts new ApplicationKey
@@ -178,36 +189,23 @@ public class PrivateKeyDB {
 	 * @return ApplicationKey Object
 	 */
 	public static ApplicationKey getApplicationKeyByID(long applicationKeyID) {
-		ApplicationKey applicationKey = new ApplicationKey();
+		ApplicationKey applicationKey = DBCache.APPLICATION_KEYS.get(applicationKeyID);
+		if(applicationKey != null){
+			return copyApplicationKey(applicationKey);
+		}
+		applicationKey = new ApplicationKey();
 		
 		Connection con = null;
 		try {
+			long generation = DBCache.APPLICATION_KEYS.getGeneration();
 			con = DBUtils.getConn();
-			PreparedStatement stmt = con.prepareStatement("Select * From application_key where id = ?");
+			PreparedStatement stmt = con.prepareStatement("select " + APPLICATION_KEY_COLUMNS + " from application_key ak" + APPLICATION_KEY_JOINS + "where ak.id = ?");
 			stmt.setLong(1, applicationKeyID);
 			
 			ResultSet rs = stmt.executeQuery();
 			if(rs.next()){
-				applicationKey.setId(rs.getLong("id"));
-				applicationKey.setKeyname(rs.getString("keyname"));
-				applicationKey.setPublicKey(rs.getString("public_key"));
-				applicationKey.setPrivateKey(EncryptionUtil.decrypt(rs.getString("private_key")));
-				applicationKey.setPassphrase(EncryptionUtil.decrypt(rs.getString("passphrase")));
-				applicationKey.setInitialkey(rs.getBoolean("initialKey"));
-				Long userID = rs.getLong("user_id");
-				if(userID == null || userID == 0){
-					applicationKey.setUserId(null);
-					applicationKey.setUsername("SYSTEM");
-				}else{
-					applicationKey.setUserId(userID);
-					User user = UserDB.getUser(userID);
-					applicationKey.setUsername(user.getUsername());
-				}
-				applicationKey.setType(rs.getString("type"));
-				applicationKey.setFingerprint(FingerprintDB.getFingerprint(rs.getLong("fingerprint_id")));
-				applicationKey.setEnabled(rs.getBoolean("enabled"));
-				applicationKey.setCreateDt(rs.getTimestamp("create_dt"));
-				applicationKey.setEc2Region(rs.getString("ec2_region"));
+				applicationKey = getApplicationKey(rs);
+				DBCache.APPLICATION_KEYS.put(applicationKeyID, copyApplicationKey(applicationKey), generation);
 			}
 			DBUtils.closeRs(rs);
             DBUtils.closeStmt(stmt);
@@ -219,6 +217,85 @@ public class PrivateKeyDB {
 		return applicationKey;
 	}
 
+	/**
+	 * returns ApplicationKey from the current row of a query that selects
+	 * {@link #APPLICATION_KEY_COLUMNS} with {@link #APPLICATION_KEY_JOINS}
+	 * 
+	 * @param rs result set positioned on the row
+	 * @return ApplicationKey Object or null, if the row has no ApplicationKey
+	 * @throws SQLException
+	 */
+	static ApplicationKey getApplicationKey(ResultSet rs) throws SQLException {
+		long applicationKeyID = rs.getLong("ak_id");
+		if(rs.wasNull()){
+			return null;
+		}
+		ApplicationKey applicationKey = new ApplicationKey();
+		applicationKey.setId(applicationKeyID);
+		applicationKey.setKeyname(rs.getString("ak_keyname"));
+		applicationKey.setPublicKey(rs.getString("ak_public_key"));
+		applicationKey.setPrivateKey(EncryptionUtil.decrypt(rs.getString("ak_private_key")));
+		applicationKey.setPassphrase(EncryptionUtil.decrypt(rs.getString("ak_passphrase")));
+		applicationKey.setInitialkey(rs.getBoolean("ak_initialkey"));
+		long userID = rs.getLong("ak_user_id");
+		if(userID == 0){
+			applicationKey.setUserId(null);
+			applicationKey.setUsername("SYSTEM");
+		}else{
+			applicationKey.setUserId(userID);
+			applicationKey.setUsername(rs.getString("ak_username"));
+		}
+		applicationKey.setType(rs.getString("ak_type"));
+		long fingerprintID = rs.getLong("ak_fingerprint_id");
+		if(!rs.wasNull() && rs.getString("ak_fingerprint") != null){
+			Fingerprint fingerprint = new Fingerprint(rs.getString("ak_fingerprint"));
+			fingerprint.setId(fingerprintID);
+			applicationKey.setFingerprint(fingerprint);
+		}
+		applicationKey.setEnabled(rs.getBoolean("ak_enabled"));
+		applicationKey.setCreateDt(rs.getTimestamp("ak_create_dt"));
+		applicationKey.setEc2Region(rs.getString("ak_ec2_region"));
+		return applicationKey;
+	}
+
+	/**
+	 * returns a copy of an ApplicationKey so callers can't change the cached one
+	 * 
+	 * @param applicationKey ApplicationKey Object
+	 * @return copy of the ApplicationKey
+	 */
+	static ApplicationKey copyApplicationKey(ApplicationKey applicationKey) {
+		ApplicationKey copy = new ApplicationKey();
+		copy.setId(applicationKey.getId());
+		copy.setKeyname(applicationKey.getKeyname());
+		copy.setPublicKey(applicationKey.getPublicKey());
+		copy.setPrivateKey(applicationKey.getPrivateKey());
+		copy.setPassphrase(applicationKey.getPassphrase());
+		copy.setInitialkey(applicationKey.isInitialkey());
+		copy.setUserId(applicationKey.getUserId());
+		copy.setUsername(applicationKey.getUsername());
+		copy.setType(applicationKey.getType());
+		if(applicationKey.getFingerprint() != null){
+			Fingerprint fingerprint = new Fingerprint(applicationKey.getFingerprint().getFingerprint());
+			fingerprint.setId(applicationKey.getFingerprint().getId());
+			copy.setFingerprint(fingerprint);
+		}
+		copy.setEnabled(applicationKey.isEnabled());
+		copy.setCreateDt(applicationKey.getCreateDt());
+		copy.setEc2Region(applicationKey.getEc2Region());
+		return copy;
+	}
+
+	/**
+	 * clears a cached ApplicationKey and the cached systems, which carry their active key
+	 * 
+	 * @param appKeyID ApplicationKeyID
+	 */
+	private static void invalidateApplicationKey(Long appKeyID) {
+		DBCache.APPLICATION_KEYS.invalidate(appKeyID);
+		DBCache.SYSTEMS.invalidateAll();
+	}
+
 	/**
 	 * enable Application Key
 	 * 
@@ -258,6 +335,7 @@ public class PrivateKeyDB {
         } catch (Exception e) {
             e.printStackTrace();
         }
+        invalidateApplicationKey(id);
         DBUtils.closeConn(con);
 	}
 
@@ -272,21 +350,11 @@ public class PrivateKeyDB {
 	 */
 	public static ApplicationKey getApplicationKeyBySystemID(Long systemId) {
 		ApplicationKey appKey = null;
-        Connection con = null;
-        try {
-            con = DBUtils.getConn();
-            PreparedStatement stmt = con.prepareStatement("select aks.* from application_key_system aks join application_key ak on aks.application_key_id = ak.id where aks.system_id = ? and aks.active = true");
-            stmt.setLong(1, systemId);
-            ResultSet rs = stmt.executeQuery();
-            if(rs.next()) {
-                appKey = getApplicationKeyByID(rs.getLong("application_key_id"));
-            }
-            DBUtils.closeRs(rs);
-            DBUtils.closeStmt(stmt);
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-        DBUtils.closeConn(con);
+		//systems are loaded and cached with their active key
+		HostSystem hostSystem = SystemDB.getSystem(systemId);
+		if(hostSystem != null) {
+			appKey = hostSystem.getApplicationKey();
+		}
         return appKey;
 	}
 
@@ -358,6 +426,7 @@ public class PrivateKeyDB {
         } catch (SQLException e) {
             e.printStackTrace();
         }
+        DBCache.SYSTEMS.invalidate(systemID);
         DBUtils.closeConn(con);
 	}
 	
@@ -382,6 +451,7 @@ public class PrivateKeyDB {
 	        } catch (SQLException e) {
 	            e.printStackTrace();
 	        }
+	        DBCache.SYSTEMS.invalidate(systemID);
 	        DBUtils.closeConn(con);
 		}
 	}
@@ -435,6 +505,7 @@ public class PrivateKeyDB {
 		} catch (SQLException e) {
 		    e.printStackTrace();
 		}
+		invalidateApplicationKey(appKeyID);
 		DBUtils.closeConn(con);
 	}
 	
@@ -621,6 +692,7 @@ public class PrivateKeyDB {
 		} catch (SQLException e) {
 		    e.printStackTrace();
 		}
+		invalidateApplicationKey(ec2KeyID);
 		DBUtils.closeConn(con);
 	}
 	
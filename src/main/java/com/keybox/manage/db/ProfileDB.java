@@ -17,6 +17,7 @@ package com.keybox.manage.db;
 
 import com.keybox.manage.model.Profile;
 import com.keybox.manage.model.SortedSet;
+import com.keybox.manage.util.DBCache;
 import com.keybox.manage.util.DBUtils;
 
 import java.sql.Connection;
@@ -205,6 +206,8 @@ public class ProfileDB {
         } catch (Exception e) {
             log.error(e.toString(), e);
         }
+        //cached user profiles carry the profile name
+        DBCache.USER_PROFILES.invalidateAll();
         DBUtils.closeConn(con);
     }
 
@@ -226,6 +229,8 @@ public class ProfileDB {
         } catch (Exception e) {
             log.error(e.toString(), e);
         }
+        DBCache.USER_PROFILES.invalidateAll();
+        DBCache.PROFILE_SYSTEMS.invalidate(profileId);
         DBUtils.closeConn(con);
 
     }
@@ -15,30 +15,19 @@
  */
 package com.keybox.manage.db;
 
-import com.amazonaws.AmazonServiceException;
-import com.amazonaws.auth.BasicAWSCredentials;
-import com.amazonaws.services.ec2.AmazonEC2;
-import com.amazonaws.services.ec2.AmazonEC2Client;
-import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
-import com.amazonaws.services.ec2.model.DescribeInstancesResult;
-import com.amazonaws.services.ec2.model.Filter;
 import com.amazonaws.services.ec2.model.Instance;
-import com.amazonaws.services.ec2.model.Reservation;
-import com.amazonaws.services.ec2.model.Tag;
 import com.keybox.common.util.AppConfig;
-import com.keybox.manage.model.AWSCred;
-import com.keybox.manage.model.ApplicationKey;
 import com.keybox.manage.model.HostSystem;
 import com.keybox.manage.model.Profile;
-import com.keybox.manage.util.AWSClientConfig;
+import com.keybox.manage.util.DBCache;
 import com.keybox.manage.util.DBUtils;
+import com.keybox.manage.util.EC2TagIndex;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -73,6 +62,7 @@ public class ProfileSystemsDB {
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
+		DBCache.PROFILE_SYSTEMS.invalidate(profileId);
 		DBUtils.closeConn(con);
 	}
 
@@ -105,6 +95,7 @@ public class ProfileSystemsDB {
     } catch (Exception e) {
     log.error(e.toString(), e);
   }
+  DBCache.PROFILE_SYSTEMS.invalidate(profileId);
   DBUtils.closeConn(con);
 
 	}
@@ -126,6 +117,7 @@ public class ProfileSystemsDB {
 		} catch (Exception e) {
 			log.error(e.toString(), e);
 		}
+		DBCache.PROFILE_SYSTEMS.invalidate(profileId);
 		DBUtils.closeConn(con);
 	}
 
@@ -138,29 +130,7 @@ public class ProfileSystemsDB {
 	 */
 	public static List<HostSystem> getSystemsByProfile(Connection con, Long profileId) {
 
-		List<HostSystem> hostSystemList = new ArrayList<HostSystem>();
-		try {
-			PreparedStatement stmt = con.prepareStatement("select * from  system s, system_map m where s.id=m.system_id and m.profile_id=? order by display_nm asc");
-			stmt.setLong(1, profileId);
-			ResultSet rs = stmt.executeQuery();
-
-			while (rs.next()) {
-				HostSystem hostSystem = new HostSystem();
-				hostSystem.setId(rs.getLong("id"));
-				hostSystem.setDisplayNm(rs.getString("display_nm"));
-				hostSystem.setUser(rs.getString("user"));
-				hostSystem.setHost(rs.getString("host"));
-				hostSystem.setPort(rs.getInt("port"));
-				hostSystem.setAuthorizedKeys(rs.getString("authorized_keys"));
-				hostSystem.setEnabled(rs.getBoolean("enabled"));
-				hostSystemList.add(hostSystem);
-			}
-			DBUtils.closeRs(rs);
-			DBUtils.closeStmt(stmt);
-		} catch (Exception e) {
-			log.error(e.toString(), e);
-		}
-		return hostSystemList;
+		return SystemDB.getSystems(con, getSystemIdsByProfile(con, profileId));
 	}
 
 	/**
@@ -193,8 +163,13 @@ public class ProfileSystemsDB {
 	 */
 	public static List<Long> getSystemIdsByProfile(Connection con, Long profileId) {
 
-		List<Long> systemIdList = new ArrayList<Long>();
+		List<Long> systemIdList = DBCache.PROFILE_SYSTEMS.get(profileId);
+		if (systemIdList != null) {
+			return new ArrayList<Long>(systemIdList);
+		}
+		systemIdList = new ArrayList<Long>();
 		try {
+			long generation = DBCache.PROFILE_SYSTEMS.getGeneration();
 			PreparedStatement stmt = con.prepareStatement("select * from  system s, system_map m where s.id=m.system_id and m.profile_id=? order by display_nm asc");
 			stmt.setLong(1, profileId);
 			ResultSet rs = stmt.executeQuery();
@@ -203,6 +178,7 @@ public class ProfileSystemsDB {
 			}
 			DBUtils.closeRs(rs);
 			DBUtils.closeStmt(stmt);
+			DBCache.PROFILE_SYSTEMS.put(profileId, new ArrayList<Long>(systemIdList), generation);
 		} catch (Exception e) {
 			log.error(e.toString(), e);
 		}
@@ -241,20 +217,11 @@ public class ProfileSystemsDB {
 	public static List<Long> getSystemIdsByProfile(Connection con, Long profileId, Long userId) {
 
 		List<Long> systemIdList = new ArrayList<Long>();
-		try {
-			PreparedStatement stmt = con.prepareStatement("select sm.system_id from  system_map sm, user_map um where um.profile_id=sm.profile_id and sm.profile_id=? and um.user_id=?");
-			stmt.setLong(1, profileId);
-			stmt.setLong(2, userId);
-			ResultSet rs = stmt.executeQuery();
-
-			while (rs.next()) {
-				systemIdList.add(rs.getLong("system_id"));
+		//both mappings are cached, the systems are returned if the user is assigned to the profile
+		for (Profile profile : UserProfileDB.getProfilesByUser(con, userId)) {
+			if (profile.getId().equals(profileId)) {
+				systemIdList = getSystemIdsByProfile(con, profileId);
 			}
-			DBUtils.closeRs(rs);
-			DBUtils.closeStmt(stmt);
-
-		} catch (Exception e) {
-			log.error(e.toString(), e);
 		}
 		return systemIdList;
 	}
@@ -285,98 +252,71 @@ public class ProfileSystemsDB {
 	 * Update Profile and AWS Systems in DB
 	 * <br><br>
 	 * Call first updateAWSSystem() to Update EC2 systems<br>
-	 * Clean SystemProfileEntries from EC2 systems<br>
-	 * Rebuild SystemProfileEntries for EC2 systems
+	 * Index the tags of the discovered instances once<br>
+	 * Rebuild SystemProfileEntries for EC2 systems from the index in one batch,
+	 * only for regions that were fully discovered so systems of a failed region
+	 * keep their profiles
 	 */
 	public static void updateProfileAWSSysteme() {
 
-		SystemDB.updateAWSSystems();
-		deleteAWSSystemProfileEntries();
+		Map<String, List<Instance>> regionInstanceMap = SystemDB.updateAWSSystems();
+		if (regionInstanceMap.isEmpty()) {
+			return;
+		}
+		EC2TagIndex tagIndex = new EC2TagIndex(regionInstanceMap);
+		List<String> regionList = new ArrayList<String>(regionInstanceMap.keySet());
 
+		Connection con = null;
 		try {
-			List<Profile> profileList = ProfileDB.getAllProfiles();
-			for (Profile profile : profileList) {
-				if(profile.getTag().equals("")){
-					continue;
-				}
-
-				List<String> ec2RegionList = PrivateKeyDB.getEC2Regions();
-
-				//remove Formating Char
-				String tags = profile.getTag().replaceAll("\n", "").replaceAll("\r", "").replaceAll("\t", "");
-
-				String[] tagArr1 = tags.split(",");
-
-				Map<String, String> tagMap = new HashMap<>();
-	            List<String> tagList = new ArrayList<>();
-
-	            if (tagArr1.length > 0) {
-	                for (String tag1 : tagArr1) {
-	                    String[] tagArr2 = tag1.split("=");
-	                    if (tagArr2.length > 1) {
-	                        tagMap.put(tag1.split("=")[0], tag1.split("=")[1]);
-	                    } else {
-	                        tagList.add(tag1);
-	                    }
-	                }
-	            }
-
-	            //get AWS credentials from DB
-                for (AWSCred awsCred : AWSCredDB.getAWSCredList()) {
-
-                    if (awsCred != null && awsCred.isValid()) {
-                        //set  AWS credentials for service
-                        BasicAWSCredentials awsCredentials = new BasicAWSCredentials(awsCred.getAccessKey(), awsCred.getSecretKey());
-
-                        for (String ec2Region : ec2RegionList) {
-                            //create service
-
-                            AmazonEC2 service = new AmazonEC2Client(awsCredentials, AWSClientConfig.getClientConfig());
-                            service.setEndpoint(ec2Region);
-
-
-                            //only return systems that have keys set
-                            List<String> keyValueList = new ArrayList<String>();
-                            for (ApplicationKey ec2Key : PrivateKeyDB.getEC2KeyByRegion(ec2Region)) {
-                            	if(ec2Key.isEnabled())
-    	                    	{
-    	                    		keyValueList.add(ec2Key.getKeyname());
-    	                    	}
-    	                    }
-
-                            DescribeInstancesRequest describeInstancesRequest = new DescribeInstancesRequest();
-
-                            Filter keyNmFilter = new Filter("key-name", keyValueList);
-                            describeInstancesRequest.withFilters(keyNmFilter);
-
-                            if (tagList.size() > 0) {
-                                Filter tagFilter = new Filter("tag-key", tagList);
-                                describeInstancesRequest.withFilters(tagFilter);
-                            }
+			con = DBUtils.getConn();
+			con.setAutoCommit(false);
 
-                            //set name value pair for tag filter
-                            for (String tag : tagMap.keySet()) {
-                                Filter tagValueFilter = new Filter("tag:" + tag, Arrays.asList(tagMap.get(tag)));
-                                describeInstancesRequest.withFilters(tagValueFilter);
-                            }
+			Map<String, Long> instanceSystemMap = SystemDB.getEC2SystemIdMap(con);
 
-                            DescribeInstancesResult describeInstancesResult = service.describeInstances(describeInstancesRequest);
+			StringBuilder regionParams = new StringBuilder();
+			for (int i = 0; i < regionList.size(); i++) {
+				regionParams.append(i > 0 ? ",?" : "?");
+			}
+			PreparedStatement stmt = con.prepareStatement("DELETE FROM system_map sm WHERE sm.system_id IN (SELECT s.id FROM system s WHERE s.instance_id NOT LIKE '---' AND s.region IN (" + regionParams + "))");
+			for (int i = 0; i < regionList.size(); i++) {
+				stmt.setString(i + 1, regionList.get(i));
+			}
+			stmt.execute();
+			DBUtils.closeStmt(stmt);
 
+			stmt = con.prepareStatement("insert into system_map (profile_id, system_id) values (?,?)");
+			for (Profile profile : ProfileDB.getAllProfiles()) {
+				Map<String, String> tagExpr = EC2TagIndex.parseTags(profile.getTag());
+				if (tagExpr.isEmpty()) {
+					continue;
+				}
+				for (String instanceId : tagIndex.match(tagExpr)) {
+					Long systemId = instanceSystemMap.get(instanceId);
+					if (systemId != null) {
+						stmt.setLong(1, profile.getId());
+						stmt.setLong(2, systemId);
+						stmt.addBatch();
+					}
+				}
+			}
+			stmt.executeBatch();
+			DBUtils.closeStmt(stmt);
 
-                            for (Reservation res : describeInstancesResult.getReservations()) {
-                                for (Instance instance : res.getInstances()) {
-                                	HostSystem ec2System = SystemDB.getSystemByInstance(instance.getInstanceId());
-                                    addSystemToProfile(profile.getId(), ec2System.getId());
-                                }
-                            }
-                        }
-                    }
-                }
+			con.commit();
+			con.setAutoCommit(true);
+		} catch (Exception e) {
+			log.error(e.toString(), e);
+			try {
+				if (con != null) {
+					con.rollback();
+					con.setAutoCommit(true);
+				}
+			} catch (SQLException ex) {
+				log.error(ex.toString(), ex);
 			}
-		}catch (AmazonServiceException ex)
-        {
-            ex.printStackTrace();
-        }
+		}
+		DBCache.PROFILE_SYSTEMS.invalidateAll();
+		DBUtils.closeConn(con);
 	}
 
 	/**
@@ -394,6 +334,7 @@ public class ProfileSystemsDB {
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
+		DBCache.PROFILE_SYSTEMS.invalidateAll();
 		DBUtils.closeConn(con);
 	}
 }
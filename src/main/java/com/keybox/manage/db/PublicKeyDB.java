@@ -18,7 +18,9 @@ package com.keybox.manage.db;
 import com.keybox.manage.model.PublicKey;
 import com.keybox.manage.model.SortedSet;
 import com.keybox.manage.util.DBUtils;
+import com.keybox.manage.util.PageUtil;
 import com.keybox.manage.util.SSHUtil;
+import com.keybox.manage.util.SystemAccessIndex;
 
 import org.apache.commons.lang3.StringUtils;
 
@@ -30,9 +32,12 @@ import java.sql.Savepoint;
 import java.sql.Statement;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -55,6 +60,9 @@ public class PublicKeyDB {
     public static final String SORT_BY_USERNAME= "username";
     public static final String SORT_BY_ENABLED="enabled";
 
+    //max fingerprints per in clause when importing keys
+    private static final int IMPORT_BATCH_SIZE = 500;
+
     /**
      * Deletes all SSH keys for users that are not assigned in a profile
      *
@@ -148,7 +156,7 @@ public class PublicKeyDB {
         Connection con = null;
         try {
             con = DBUtils.getConn();
-            PreparedStatement stmt = con.prepareStatement("select pk.*, pkf.fingerprint from public_keys pk JOIN fingerprint pkf on pk.fingerprint_id = pkf.id where pkf.fingerprint like ? and pk.enabled=false");
+            PreparedStatement stmt = con.prepareStatement("select pk.*, pkf.fingerprint from public_keys pk JOIN fingerprint pkf on pk.fingerprint_id = pkf.id where pkf.fingerprint = ? and pk.enabled=false");
             stmt.setString(1, fingerprint);
             ResultSet rs = stmt.executeQuery();
             if (rs.next()) {
@@ -174,32 +182,31 @@ public class PublicKeyDB {
 
         ArrayList<PublicKey> publicKeysList = new ArrayList<PublicKey>();
 
-        String orderBy = "";
+        String orderBy = null;
         if (sortedSet.getOrderByField() != null && !sortedSet.getOrderByField().trim().equals("")) {
-            orderBy = " order by " + sortedSet.getOrderByField() + " " + sortedSet.getOrderByDirection();
+            //username is the only sort field from the joined users table
+            orderBy = (SORT_BY_USERNAME.equals(sortedSet.getOrderByField()) ? "u." : "p.") + sortedSet.getOrderByField();
+        }
+        String where = "1=1";
+        List<Object> params = new ArrayList<Object>();
+        //set filters in prepared statement
+        if(StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_USER_ID))){
+            where += " and p.user_id=?";
+            params.add(Long.valueOf(sortedSet.getFilterMap().get(FILTER_BY_USER_ID)));
+        }
+        if(StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_PROFILE_ID))){
+            where += " and p.profile_id=?";
+            params.add(Long.valueOf(sortedSet.getFilterMap().get(FILTER_BY_PROFILE_ID)));
+        }
+        if(StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_ENABLED))){
+            where += " and p.enabled=?";
+            params.add(Boolean.valueOf(sortedSet.getFilterMap().get(FILTER_BY_ENABLED)));
         }
-        String sql = "select p.*, u.username from public_keys p, users u where u.id=p.user_id  ";
-
-        sql+= StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_USER_ID)) ? " and p.user_id=? " : "";
-        sql+= StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_PROFILE_ID)) ? " and p.profile_id=? " : "";
-        sql+= StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_ENABLED)) ? " and p.enabled=? " : "";
-        sql=sql+orderBy;
 
         Connection con = null;
         try {
             con = DBUtils.getConn();
-            PreparedStatement stmt = con.prepareStatement(sql);
-            int i=1;
-            //set filters in prepared statement
-            if(StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_USER_ID))){
-                stmt.setLong(i++, Long.valueOf(sortedSet.getFilterMap().get(FILTER_BY_USER_ID)));
-            }
-            if(StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_PROFILE_ID))){
-                stmt.setLong(i++, Long.valueOf(sortedSet.getFilterMap().get(FILTER_BY_PROFILE_ID)));
-            }
-            if(StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_ENABLED))){
-                stmt.setBoolean(i++, Boolean.valueOf(sortedSet.getFilterMap().get(FILTER_BY_ENABLED)));
-            }
+            PreparedStatement stmt = PageUtil.prepareStatement(con, "select p.*, u.username", "from public_keys p join users u on u.id=p.user_id", where, "p.id", orderBy, sortedSet, params);
             ResultSet rs = stmt.executeQuery();
 
             while (rs.next()) {
@@ -219,6 +226,9 @@ public class PublicKeyDB {
             }
             DBUtils.closeRs(rs);
             DBUtils.closeStmt(stmt);
+            if (PageUtil.trimPage(sortedSet, publicKeysList)) {
+                sortedSet.setNextCursor(publicKeysList.get(publicKeysList.size() - 1).getId());
+            }
         } catch (Exception e) {
             log.error(e.toString(), e);
         }
@@ -238,17 +248,17 @@ public class PublicKeyDB {
 
         ArrayList<PublicKey> publicKeysList = new ArrayList<PublicKey>();
         
-        String orderBy = "";
+        String orderBy = null;
         if (sortedSet.getOrderByField() != null && !sortedSet.getOrderByField().trim().equals("")) {
-            orderBy = "order by " + sortedSet.getOrderByField() + " " + sortedSet.getOrderByDirection();
+            orderBy = sortedSet.getOrderByField();
         }
-        String sql = "select * from public_keys where user_id = ? and enabled=true " + orderBy;
+        List<Object> params = new ArrayList<Object>();
+        params.add(userId);
 
         Connection con = null;
         try {
             con = DBUtils.getConn();
-            PreparedStatement stmt = con.prepareStatement(sql);
-            stmt.setLong(1, userId);
+            PreparedStatement stmt = PageUtil.prepareStatement(con, "select *", "from public_keys", "user_id = ? and enabled=true", "id", orderBy, sortedSet, params);
             ResultSet rs = stmt.executeQuery();
 
             while (rs.next()) {
@@ -264,6 +274,9 @@ public class PublicKeyDB {
             }
             DBUtils.closeRs(rs);
             DBUtils.closeStmt(stmt);
+            if (PageUtil.trimPage(sortedSet, publicKeysList)) {
+                sortedSet.setNextCursor(publicKeysList.get(publicKeysList.size() - 1).getId());
+            }
         } catch (Exception e) {
             log.error(e.toString(), e);
         }
@@ -340,13 +353,15 @@ public class PublicKeyDB {
         	PreparedStatement stmt_pkf;
         	ResultSet rs_pkf;
         	long fingerprint_ID;
-        	if(isKeyExists(publicKey.getUserId(), publicKey)) { //fingerprint exists
-        		stmt_pkf = con.prepareStatement("select * from fingerprint where fingerprint");
-        		stmt_pkf.setString(1, SSHUtil.getFingerprint(publicKey.getPublicKey()));
-                rs_pkf = stmt_pkf.executeQuery();
-                rs_pkf.next();
+        	stmt_pkf = con.prepareStatement("select id from fingerprint where fingerprint = ?");
+        	stmt_pkf.setString(1, SSHUtil.getFingerprint(publicKey.getPublicKey()));
+        	rs_pkf = stmt_pkf.executeQuery();
+        	if(rs_pkf.next()) { //fingerprint exists
                 fingerprint_ID = rs_pkf.getLong("id");
+                DBUtils.closeRs(rs_pkf);
         	} else { //fingerprint not exists
+        		DBUtils.closeRs(rs_pkf);
+        		DBUtils.closeStmt(stmt_pkf);
         		stmt_pkf = con.prepareStatement("insert into fingerprint(fingerprint) values (?)", Statement.RETURN_GENERATED_KEYS);
                 con.setAutoCommit(false);
                 spt = con.setSavepoint("sp_Fingerprint");
@@ -405,7 +420,7 @@ public class PublicKeyDB {
             con = DBUtils.getConn();
             
             // Test whether the SSH-key has changed
-            PreparedStatement stmt_pk_pkf_test = con.prepareStatement("select pk.*, pkf.fingerprint from public_keys pk JOIN fingerprint pkf on pk.fingerprint_id = pkf.id where pk.id=? AND pkf.fingerprint like ?"); 
+            PreparedStatement stmt_pk_pkf_test = con.prepareStatement("select pk.*, pkf.fingerprint from public_keys pk JOIN fingerprint pkf on pk.fingerprint_id = pkf.id where pk.id=? AND pkf.fingerprint = ?"); 
             stmt_pk_pkf_test.setLong(1, publicKey.getId());
             stmt_pk_pkf_test.setString(2, SSHUtil.getFingerprint(publicKey.getPublicKey()));
             ResultSet rs = stmt_pk_pkf_test.executeQuery();
@@ -525,8 +540,9 @@ public class PublicKeyDB {
             systemId=-99L;
         }
         try {
-            PreparedStatement stmt = con.prepareStatement("select * from public_keys where (profile_id is null or profile_id in (select profile_id from system_map where system_id=?)) and enabled=true");
-            stmt.setLong(1, systemId);
+            List<Long> params = new ArrayList<Long>();
+            PreparedStatement stmt = con.prepareStatement("select * from public_keys where (profile_id is null or " + getSystemProfileCondition(con, systemId, params) + ") and enabled=true");
+            setParams(stmt, 1, params);
             ResultSet rs = stmt.executeQuery();
             while (rs.next()) {
                 publicKeyList.add(rs.getString("public_key"));
@@ -553,7 +569,7 @@ public class PublicKeyDB {
         try {
           con = DBUtils.getConn();
 
-          stmt = con.prepareStatement("select pk.*, pkf.fingerprint from public_keys pk JOIN fingerprint pkf on pk.fingerprint_id = pkf.id where pk.user_id=? and pkf.fingerprint like ? and pk.profile_id is ? and pk.id is not ?");
+          stmt = con.prepareStatement("select pk.*, pkf.fingerprint from public_keys pk JOIN fingerprint pkf on pk.fingerprint_id = pkf.id where pk.user_id=? and pkf.fingerprint = ? and pk.profile_id is ? and pk.id is not ?");
            
           stmt.setLong(1, userId);
           stmt.setString(2, SSHUtil.getFingerprint(publicKey.getPublicKey()));
@@ -633,19 +649,13 @@ public class PublicKeyDB {
         Connection con = null;
         try {
             con = DBUtils.getConn();
-            stmt = con.prepareStatement("select pkf.fingerprint from fingerprint pkf where pkf.fingerprint like ?");
-            stmt.setString(1, SSHUtil.getFingerprint(publicKey.getPublicKey()));
-            
+            // Test whether it is registered under another user
+            stmt = con.prepareStatement("select pk.id from public_keys pk JOIN fingerprint pkf on pk.fingerprint_id = pkf.id where pk.user_id!=? and pkf.fingerprint = ?");
+            stmt.setLong(1, userId);
+            stmt.setString(2, SSHUtil.getFingerprint(publicKey.getPublicKey()));
             ResultSet rs = stmt.executeQuery();
-            if (rs.next()) {
-            	// Test whether it is registered under another user
-            	PreparedStatement stmt_pk_pkf_test = con.prepareStatement("select pk.*, pkf.fingerprint from public_keys pk JOIN fingerprint pkf on pk.fingerprint_id = pkf.id where pk.user_id!=? and pkf.fingerprint like ?");
-            	stmt_pk_pkf_test.setLong(1, userId);
-                stmt_pk_pkf_test.setString(2, SSHUtil.getFingerprint(publicKey.getPublicKey()));
-                ResultSet rs_pk_pkf_test = stmt_pk_pkf_test.executeQuery();
-                if (rs_pk_pkf_test.next()){
-                	isexisted = true;
-                }
+            if (rs.next()){
+            	isexisted = true;
             }
             DBUtils.closeRs(rs);
             DBUtils.closeStmt(stmt);
@@ -666,12 +676,33 @@ public class PublicKeyDB {
     public static List<PublicKey> getPublicKeysForUserandSystem(Long userId, Long systemId) {
 		
     	Connection con = null;
-        Map<String, PublicKey> keyMap = new LinkedHashMap();
+        List<PublicKey> publicKeyList = new ArrayList<PublicKey>();
         try {
             con = DBUtils.getConn();
-            PreparedStatement stmt = con.prepareStatement("select * from public_keys where user_id=? and enabled=true and profile_id in (select profile_id from system_map where system_id=?)");
+            publicKeyList = getPublicKeysForUserandSystem(con, userId, systemId);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        DBUtils.closeConn(con);
+        return publicKeyList;
+	}
+
+	/**
+     * select public keys for user and system
+     *
+     * @param con DB connection
+     * @param userId user id
+     * @param systemId system id
+     * @return public  key list for user
+     */
+    public static List<PublicKey> getPublicKeysForUserandSystem(Connection con, Long userId, Long systemId) {
+
+        Map<String, PublicKey> keyMap = new LinkedHashMap<String, PublicKey>();
+        try {
+            List<Long> params = new ArrayList<Long>();
+            PreparedStatement stmt = con.prepareStatement("select * from public_keys where user_id=? and enabled=true and " + getSystemProfileCondition(con, systemId, params));
             stmt.setLong(1, userId);
-            stmt.setLong(2, systemId);
+            setParams(stmt, 2, params);
             ResultSet rs = stmt.executeQuery();
             while(rs.next()){
                 PublicKey publicKey = new PublicKey();
@@ -686,11 +717,9 @@ public class PublicKeyDB {
             }
             DBUtils.closeRs(rs);
             DBUtils.closeStmt(stmt);
-
         } catch (Exception e) {
             e.printStackTrace();
         }
-        DBUtils.closeConn(con);
         return new ArrayList<PublicKey>(keyMap.values());
 	}
     
@@ -704,12 +733,33 @@ public class PublicKeyDB {
     public static List<PublicKey> getPublicKeysForAdminandSystem(Long userId, Long systemId) {
 		
     	Connection con = null;
-        Map<String, PublicKey> keyMap = new LinkedHashMap();
+        List<PublicKey> publicKeyList = new ArrayList<PublicKey>();
         try {
             con = DBUtils.getConn();
-            PreparedStatement stmt = con.prepareStatement("select * from public_keys where user_id=? and enabled=true and (profile_id in (select profile_id from system_map where system_id=?) or profile_id is NULL)");
+            publicKeyList = getPublicKeysForAdminandSystem(con, userId, systemId);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        DBUtils.closeConn(con);
+        return publicKeyList;
+	}
+
+	/**
+     * select public keys for admin and system
+     *
+     * @param con DB connection
+     * @param userId user id
+     * @param systemId system id
+     * @return public  key list for admin
+     */
+    public static List<PublicKey> getPublicKeysForAdminandSystem(Connection con, Long userId, Long systemId) {
+
+        Map<String, PublicKey> keyMap = new LinkedHashMap<String, PublicKey>();
+        try {
+            List<Long> params = new ArrayList<Long>();
+            PreparedStatement stmt = con.prepareStatement("select * from public_keys where user_id=? and enabled=true and (" + getSystemProfileCondition(con, systemId, params) + " or profile_id is NULL)");
             stmt.setLong(1, userId);
-            stmt.setLong(2, systemId);
+            setParams(stmt, 2, params);
             ResultSet rs = stmt.executeQuery();
             while(rs.next()){
                 PublicKey publicKey = new PublicKey();
@@ -727,7 +777,213 @@ public class PublicKeyDB {
         } catch (Exception e) {
             e.printStackTrace();
         }
-        DBUtils.closeConn(con);
-        return new ArrayList(keyMap.values());
+        return new ArrayList<PublicKey>(keyMap.values());
 	}
+
+    /**
+     * inserts a list of public keys for a user and profile in one transaction
+     * <br><br>
+     * Fingerprints are read and inserted in batches instead of one key at a time.
+     * Keys that are invalid, disabled, registered under another user or already
+     * registered under the profile are skipped, as are duplicates within the list
+     *
+     * @param userId user id
+     * @param profileId profile id or null for all systems
+     * @param publicKeyList public keys to insert
+     * @return error for each key in list order, null if the key was inserted
+     */
+    public static List<String> importPublicKeys(Long userId, Long profileId, List<PublicKey> publicKeyList) {
+
+        List<String> errorList = new ArrayList<String>();
+        //fingerprint to index of the first key with the fingerprint
+        Map<String, Integer> fingerprintMap = new LinkedHashMap<String, Integer>();
+        for (PublicKey publicKey : publicKeyList) {
+            String fingerprint = SSHUtil.getFingerprint(publicKey.getPublicKey());
+            String error = null;
+            if (fingerprint == null || SSHUtil.getKeyType(publicKey.getPublicKey()) == null || SSHUtil.getKeyLength(publicKey.getPublicKey()) == null) {
+                error = "Invalid public key";
+            } else if (fingerprintMap.containsKey(fingerprint)) {
+                error = "Duplicate key in import";
+            } else {
+                fingerprintMap.put(fingerprint, errorList.size());
+            }
+            errorList.add(error);
+        }
+        if (fingerprintMap.isEmpty()) {
+            return errorList;
+        }
+
+        Connection con = null;
+        try {
+            con = DBUtils.getConn();
+            con.setAutoCommit(false);
+
+            List<String> fingerprintList = new ArrayList<String>(fingerprintMap.keySet());
+            Map<String, Long> fingerprintIdMap = new HashMap<String, Long>();
+            Set<Integer> disabledSet = new HashSet<Integer>();
+            Set<Integer> registeredSet = new HashSet<Integer>();
+            Set<Integer> otherUserSet = new HashSet<Integer>();
+            for (List<String> batch : partition(fingerprintList)) {
+                PreparedStatement stmt = con.prepareStatement("select pkf.id, pkf.fingerprint, pk.user_id, pk.profile_id, pk.enabled from fingerprint pkf left join public_keys pk on pk.fingerprint_id = pkf.id where pkf.fingerprint in (" + StringUtils.repeat("?", ",", batch.size()) + ")");
+                for (int i = 0; i < batch.size(); i++) {
+                    stmt.setString(i + 1, batch.get(i));
+                }
+                ResultSet rs = stmt.executeQuery();
+                while (rs.next()) {
+                    String fingerprint = rs.getString("fingerprint");
+                    fingerprintIdMap.put(fingerprint, rs.getLong("id"));
+                    Long keyUserId = rs.getLong("user_id");
+                    if (rs.wasNull()) {
+                        continue;
+                    }
+                    Integer index = fingerprintMap.get(fingerprint);
+                    Long keyProfileId = rs.getLong("profile_id");
+                    if (rs.wasNull()) {
+                        keyProfileId = null;
+                    }
+                    if (!rs.getBoolean("enabled")) {
+                        disabledSet.add(index);
+                    } else if (!keyUserId.equals(userId)) {
+                        otherUserSet.add(index);
+                    } else if (keyProfileId == null ? profileId == null : keyProfileId.equals(profileId)) {
+                        registeredSet.add(index);
+                    }
+                }
+                DBUtils.closeRs(rs);
+                DBUtils.closeStmt(stmt);
+            }
+
+            //same precedence as the checks for a single key
+            List<String> insertList = new ArrayList<String>();
+            for (Map.Entry<String, Integer> entry : fingerprintMap.entrySet()) {
+                Integer index = entry.getValue();
+                if (disabledSet.contains(index)) {
+                    errorList.set(index, "This key has been disabled");
+                } else if (registeredSet.contains(index)) {
+                    errorList.set(index, "This key has already been registered under selected profile");
+                } else if (otherUserSet.contains(index)) {
+                    errorList.set(index, "This key has already been registered under another user");
+                } else {
+                    insertList.add(entry.getKey());
+                }
+            }
+
+            List<String> newFingerprintList = new ArrayList<String>();
+            for (String fingerprint : insertList) {
+                if (!fingerprintIdMap.containsKey(fingerprint)) {
+                    newFingerprintList.add(fingerprint);
+                }
+            }
+            if (!newFingerprintList.isEmpty()) {
+                PreparedStatement stmt = con.prepareStatement("insert into fingerprint(fingerprint) values (?)");
+                for (String fingerprint : newFingerprintList) {
+                    stmt.setString(1, fingerprint);
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+                DBUtils.closeStmt(stmt);
+
+                //read back generated ids
+                for (List<String> batch : partition(newFingerprintList)) {
+                    stmt = con.prepareStatement("select id, fingerprint from fingerprint where fingerprint in (" + StringUtils.repeat("?", ",", batch.size()) + ")");
+                    for (int i = 0; i < batch.size(); i++) {
+                        stmt.setString(i + 1, batch.get(i));
+                    }
+                    ResultSet rs = stmt.executeQuery();
+                    while (rs.next()) {
+                        fingerprintIdMap.put(rs.getString("fingerprint"), rs.getLong("id"));
+                    }
+                    DBUtils.closeRs(rs);
+                    DBUtils.closeStmt(stmt);
+                }
+            }
+
+            if (!insertList.isEmpty()) {
+                PreparedStatement stmt = con.prepareStatement("insert into public_keys(key_nm, type, fingerprint_id, public_key, profile_id, user_id) values (?,?,?,?,?,?)");
+                for (String fingerprint : insertList) {
+                    PublicKey publicKey = publicKeyList.get(fingerprintMap.get(fingerprint));
+                    stmt.setString(1, publicKey.getKeyNm());
+                    stmt.setString(2, SSHUtil.getKeyType(publicKey.getPublicKey()));
+                    stmt.setLong(3, fingerprintIdMap.get(fingerprint));
+                    stmt.setString(4, publicKey.getPublicKey().trim());
+                    if (profileId == null) {
+                        stmt.setNull(5, Types.NULL);
+                    } else {
+                        stmt.setLong(5, profileId);
+                    }
+                    stmt.setLong(6, userId);
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+                DBUtils.closeStmt(stmt);
+            }
+
+            con.commit();
+            con.setAutoCommit(true);
+        } catch (Exception e) {
+            log.error(e.toString(), e);
+            for (int i = 0; i < errorList.size(); i++) {
+                if (errorList.get(i) == null) {
+                    errorList.set(i, "Import failed");
+                }
+            }
+            try {
+                if (con != null) {
+                    con.rollback();
+                    con.setAutoCommit(true);
+                }
+            } catch (SQLException ex) {
+                log.error(ex.toString(), ex);
+            }
+        }
+        DBUtils.closeConn(con);
+        return errorList;
+    }
+
+    /**
+     * returns the condition for keys of the profiles a system is assigned to, the
+     * profiles come from the access index and are added to the parameters
+     *
+     * @param con DB connection
+     * @param systemId system id
+     * @param params query parameters
+     * @return condition on the profile_id column
+     * @throws SQLException
+     */
+    private static String getSystemProfileCondition(Connection con, Long systemId, List<Long> params) throws SQLException {
+        Set<Long> profileIdSet = SystemAccessIndex.getProfileIds(con, systemId);
+        if (profileIdSet.isEmpty()) {
+            return "1=0";
+        }
+        params.addAll(profileIdSet);
+        return "profile_id in (" + StringUtils.repeat("?", ",", profileIdSet.size()) + ")";
+    }
+
+    /**
+     * sets id parameters starting at an index
+     *
+     * @param stmt prepared statement
+     * @param index index of the first parameter
+     * @param params parameters
+     * @throws SQLException
+     */
+    private static void setParams(PreparedStatement stmt, int index, List<Long> params) throws SQLException {
+        for (Long param : params) {
+            stmt.setLong(index++, param);
+        }
+    }
+
+    /**
+     * splits values into lists of at most IMPORT_BATCH_SIZE for in clauses
+     *
+     * @param values values
+     * @return sublists of the values
+     */
+    private static List<List<String>> partition(List<String> values) {
+        List<List<String>> batchList = new ArrayList<List<String>>();
+        for (int i = 0; i < values.size(); i += IMPORT_BATCH_SIZE) {
+            batchList.add(values.subList(i, Math.min(i + IMPORT_BATCH_SIZE, values.size())));
+        }
+        return batchList;
+    }
 }
@@ -22,6 +22,7 @@ import com.keybox.manage.model.SessionAudit;
 import com.keybox.manage.model.SessionOutput;
 import com.keybox.manage.model.SortedSet;
 import com.keybox.manage.util.DBUtils;
+import com.keybox.manage.util.PageUtil;
 import org.apache.commons.lang3.StringUtils;
 
 import java.sql.Connection;
@@ -94,28 +95,28 @@ public class SessionAuditDB {
         Connection con = null;
         List<SessionAudit> outputList = new LinkedList<SessionAudit>();
 
-        String orderBy = "";
+        String orderBy = null;
         if (sortedSet.getOrderByField() != null && !sortedSet.getOrderByField().trim().equals("")) {
-            orderBy = " order by " + sortedSet.getOrderByField() + " " + sortedSet.getOrderByDirection();
+            //session time is the only sort field from session_log, the others are user fields
+            orderBy = (SORT_BY_SESSION_TM.equals(sortedSet.getOrderByField()) ? "session_log." : "users.") + sortedSet.getOrderByField();
         }
 
-        String sql = "select * from session_log, users where users.id= session_log.user_id ";
-        sql+= StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_USER_ID)) ? " and session_log.user_id=? " : "";
-        sql+= StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_SYSTEM_ID)) ? " and session_log.id in ( select session_id from terminal_log where terminal_log.system_id=? ) " : "";
-        sql+= orderBy;
+        String where = "1=1";
+        List<Object> params = new ArrayList<Object>();
+        //set filters in prepared statement
+        if(StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_USER_ID))){
+            where += " and session_log.user_id=?";
+            params.add(Long.valueOf(sortedSet.getFilterMap().get(FILTER_BY_USER_ID)));
+        }
+        if(StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_SYSTEM_ID))){
+            where += " and session_log.id in ( select session_id from terminal_log where terminal_log.system_id=? )";
+            params.add(Long.valueOf(sortedSet.getFilterMap().get(FILTER_BY_SYSTEM_ID)));
+        }
 
         try {
             con = DBUtils.getConn();
             deleteAuditHistory(con);
-            PreparedStatement stmt = con.prepareStatement(sql);
-            int i=1;
-            //set filters in prepared statement
-            if(StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_USER_ID))){
-                stmt.setLong(i++, Long.valueOf(sortedSet.getFilterMap().get(FILTER_BY_USER_ID)));
-            }
-            if(StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_SYSTEM_ID))){
-                stmt.setLong(i++, Long.valueOf(sortedSet.getFilterMap().get(FILTER_BY_SYSTEM_ID)));
-            }
+            PreparedStatement stmt = PageUtil.prepareStatement(con, "select *", "from session_log join users on users.id= session_log.user_id", where, "session_log.id", orderBy, sortedSet, params);
 
             ResultSet rs = stmt.executeQuery();
             while (rs.next()) {
@@ -125,7 +126,11 @@ public class SessionAuditDB {
                 sessionAudit.setUser(UserDB.getUser(con, rs.getLong("user_id")));
                 outputList.add(sessionAudit);
             }
+            DBUtils.closeRs(rs);
             DBUtils.closeStmt(stmt);
+            if (PageUtil.trimPage(sortedSet, outputList)) {
+                sortedSet.setNextCursor(outputList.get(outputList.size() - 1).getId());
+            }
         } catch (Exception e) {
             log.error(e.toString(), e);
         }
@@ -227,6 +232,54 @@ public class SessionAuditDB {
     }
 
 
+    /**
+     * inserts terminal history for a batch of outputs. A connection is only
+     * borrowed for the duration of the batch
+     *
+     * @param sessionOutputList output from session terminals
+     */
+    public static void insertTerminalLogs(List<SessionOutput> sessionOutputList) {
+        if (sessionOutputList == null || sessionOutputList.isEmpty()) {
+            return;
+        }
+        //get db connection
+        Connection con = DBUtils.getConn();
+        try {
+            insertTerminalLogs(con, sessionOutputList);
+        } catch (Exception e) {
+            log.error(e.toString(), e);
+        }
+        //close db connection
+        DBUtils.closeConn(con);
+    }
+
+    /**
+     * inserts terminal history for a batch of outputs
+     *
+     * @param con               DB connection
+     * @param sessionOutputList output from session terminals
+     */
+    public static void insertTerminalLogs(Connection con, List<SessionOutput> sessionOutputList) {
+
+        try {
+            PreparedStatement stmt = con.prepareStatement("insert into terminal_log (session_id, instance_id, system_id, output) values(?,?,?,?)");
+            for (SessionOutput sessionOutput : sessionOutputList) {
+                if (sessionOutput != null && sessionOutput.getSessionId() != null && sessionOutput.getInstanceId() != null && sessionOutput.getOutput() != null && !sessionOutput.getOutput().toString().equals("")) {
+                    stmt.setLong(1, sessionOutput.getSessionId());
+                    stmt.setLong(2, sessionOutput.getInstanceId());
+                    stmt.setLong(3, sessionOutput.getId());
+                    stmt.setString(4, sessionOutput.getOutput().toString());
+                    stmt.addBatch();
+                }
+            }
+            stmt.executeBatch();
+            DBUtils.closeStmt(stmt);
+        } catch (Exception e) {
+            log.error(e.toString(), e);
+        }
+    }
+
+
     /**
      * returns terminal logs for user session for host system
      *
@@ -15,31 +15,36 @@
  */
 package com.keybox.manage.db;
 
-import com.amazonaws.AmazonServiceException;
-import com.amazonaws.auth.BasicAWSCredentials;
-import com.amazonaws.services.ec2.AmazonEC2;
-import com.amazonaws.services.ec2.AmazonEC2Client;
 import com.amazonaws.services.ec2.model.*;
 import com.amazonaws.services.opsworks.model.DescribeUserProfilesRequest;
 import com.amazonaws.services.opsworks.model.DescribeUserProfilesResult;
 import com.keybox.common.util.AppConfig;
-import com.keybox.manage.model.AWSCred;
 import com.keybox.manage.model.ApplicationKey;
 import com.keybox.manage.model.HostSystem;
 import com.keybox.manage.model.SortedSet;
-import com.keybox.manage.util.AWSClientConfig;
+import com.keybox.manage.util.DBCache;
 import com.keybox.manage.util.DBUtils;
+import com.keybox.manage.util.EC2DiscoveryUtil;
+import com.keybox.manage.util.PageUtil;
+import com.keybox.manage.util.SystemAccessIndex;
 
 import org.apache.commons.lang3.StringUtils;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -61,6 +66,14 @@ public class SystemDB {
 	public static final String SORT_BY_ENABLED = "enabled";
 	public static final String SORT_BY_INSTANCE_ID = "instance_id";
 
+	//systems joined with their active application key, hydrated by getSystemList
+	static final String SYSTEM_COLUMNS = "select s.*, " + PrivateKeyDB.APPLICATION_KEY_COLUMNS;
+	static final String SYSTEM_FROM = "from system s "
+			+ "left join application_key_system aks on aks.system_id = s.id and aks.active = true "
+			+ "left join application_key ak on ak.id = aks.application_key_id"
+			+ PrivateKeyDB.APPLICATION_KEY_JOINS;
+	static final String SYSTEM_SELECT = SYSTEM_COLUMNS + " " + SYSTEM_FROM;
+
 
 	/**
 	 * method to do order by based on the sorted set object for systems for user
@@ -72,33 +85,25 @@ public class SystemDB {
 	public static SortedSet getUserSystemSet(SortedSet sortedSet, Long userId) {
 		List<HostSystem> hostSystemList = new ArrayList<HostSystem>();
 
-		String orderBy = "";
-		if (sortedSet.getOrderByField() != null && !sortedSet.getOrderByField().trim().equals("")) {
-			orderBy = "order by " + sortedSet.getOrderByField() + " " + sortedSet.getOrderByDirection();
-		}
-		String sql = "select * from system where id in (select distinct system_id from  system_map m, user_map um where m.profile_id=um.profile_id and um.user_id=? ";
+		List<Object> params = new ArrayList<Object>();
+		String where = "s.id in (select distinct system_id from  system_map m, user_map um where m.profile_id=um.profile_id and um.user_id=? ";
+		params.add(userId);
 		//if profile id exists add to statement
-		sql += StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_PROFILE_ID)) ? " and um.profile_id=? " : "";
-		sql += ") " + orderBy;
+		if (StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_PROFILE_ID))) {
+			where += " and um.profile_id=? ";
+			params.add(Long.valueOf(sortedSet.getFilterMap().get(FILTER_BY_PROFILE_ID)));
+		}
+		where += ")";
 
 		//get user for auth token
 		Connection con = null;
 		try {
 			con = DBUtils.getConn();
-			PreparedStatement stmt = con.prepareStatement(sql);
-			stmt.setLong(1, userId);
-			//filter by profile id if exists
-			if (StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_PROFILE_ID))) {
-				stmt.setLong(2, Long.valueOf(sortedSet.getFilterMap().get(FILTER_BY_PROFILE_ID)));
-			}
-			ResultSet rs = stmt.executeQuery();
-			while (rs.next()) {
-				HostSystem hostSystem = getSystem(rs.getLong("id"));
-				hostSystem.setPublicKeyList(PublicKeyDB.getPublicKeysForUserandSystem(userId, hostSystem.getId()));
-				hostSystemList.add(hostSystem);
+			hostSystemList = getSystemPage(con, where, sortedSet, params);
+
+			for (HostSystem hostSystem : hostSystemList) {
+				hostSystem.setPublicKeyList(PublicKeyDB.getPublicKeysForUserandSystem(con, userId, hostSystem.getId()));
 			}
-			DBUtils.closeRs(rs);
-			DBUtils.closeStmt(stmt);
 
 		} catch (Exception e) {
 			log.error(e.toString(), e);
@@ -118,40 +123,22 @@ public class SystemDB {
 	public static SortedSet getSystemSet(SortedSet sortedSet) {
 		List<HostSystem> hostSystemList = new ArrayList<HostSystem>();
 
-		String orderBy = "";
-		if (sortedSet.getOrderByField() != null && !sortedSet.getOrderByField().trim().equals("")) {
-			orderBy = "order by " + sortedSet.getOrderByField() + " " + sortedSet.getOrderByDirection();
-		}
-		String sql = "select * from  system s ";
+		List<Object> params = new ArrayList<Object>();
+		List<String> conditionList = new ArrayList<String>();
 		//if profile id exists add to statement
-		sql += StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_PROFILE_ID)) ? ",system_map m where s.id=m.system_id and m.profile_id=?" : "";
-		
-		sql += (StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_PROFILE_ID)) & StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_REGION_ID))) ? " and " : "";
-		sql += (!StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_PROFILE_ID)) & StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_REGION_ID))) ? " where " : "";
-		
-		sql += StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_REGION_ID)) ? "s.region = ?" : "";
-		
-		sql += orderBy;
+		if (StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_PROFILE_ID))) {
+			conditionList.add("s.id in (select system_id from system_map where profile_id=?)");
+			params.add(Long.valueOf(sortedSet.getFilterMap().get(FILTER_BY_PROFILE_ID)));
+		}
+		if (StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_REGION_ID))) {
+			conditionList.add("s.region = ?");
+			params.add(sortedSet.getFilterMap().get(FILTER_BY_REGION_ID));
+		}
 
 		Connection con = null;
 		try {
 			con = DBUtils.getConn();
-			PreparedStatement stmt = con.prepareStatement(sql);
-			int i = 1;
-			if (StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_PROFILE_ID))) {
-				stmt.setLong(i, Long.valueOf(sortedSet.getFilterMap().get(FILTER_BY_PROFILE_ID)));
-				i++;
-			}
-			if (StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_REGION_ID))) {
-				stmt.setString(i, sortedSet.getFilterMap().get(FILTER_BY_REGION_ID));
-			}
-			ResultSet rs = stmt.executeQuery();
-
-			while (rs.next()) {
-				hostSystemList.add(getSystem(rs.getLong("id")));
-			}
-			DBUtils.closeRs(rs);
-			DBUtils.closeStmt(stmt);
+			hostSystemList = getSystemPage(con, StringUtils.join(conditionList, " and "), sortedSet, params);
 
 		} catch (Exception e) {
 			log.error(e.toString(), e);
@@ -194,14 +181,31 @@ public class SystemDB {
 
 		HostSystem hostSystem = null;
 
-		try {
-			PreparedStatement stmt = con.prepareStatement("select * from  system where id=?");
-			stmt.setLong(1, id);
-			ResultSet rs = stmt.executeQuery();
+		List<HostSystem> hostSystemList = getSystems(con, Collections.singletonList(id));
+		if (!hostSystemList.isEmpty()) {
+			hostSystem = hostSystemList.get(0);
+		}
+		return hostSystem;
+	}
 
-			while (rs.next()) {
-				hostSystem = new HostSystem();
-				hostSystem.setId(rs.getLong("id"));
+
+	/**
+	 * executes a query built on SYSTEM_SELECT and returns the systems with their active
+	 * application key, systems are returned once in the order of the query
+	 *
+	 * @param stmt prepared statement with all parameters set
+	 * @return system list
+	 * @throws SQLException
+	 */
+	static List<HostSystem> getSystemList(PreparedStatement stmt) throws SQLException {
+
+		Map<Long, HostSystem> hostSystemMap = new LinkedHashMap<Long, HostSystem>();
+		ResultSet rs = stmt.executeQuery();
+		while (rs.next()) {
+			Long id = rs.getLong("id");
+			if (!hostSystemMap.containsKey(id)) {
+				HostSystem hostSystem = new HostSystem();
+				hostSystem.setId(id);
 				hostSystem.setDisplayNm(rs.getString("display_nm"));
 				hostSystem.setUser(rs.getString("user"));
 				hostSystem.setHost(rs.getString("host"));
@@ -211,14 +215,99 @@ public class SystemDB {
 				hostSystem.setEnabled(rs.getBoolean("enabled"));
 				hostSystem.setInstance(rs.getString("instance_id"));
 				hostSystem.setEc2Region(rs.getString("region"));
-				hostSystem.setApplicationKey(PrivateKeyDB.getApplicationKeyBySystemID(hostSystem.getId()));
+				hostSystem.setApplicationKey(PrivateKeyDB.getApplicationKey(rs));
+				hostSystemMap.put(id, hostSystem);
 			}
-			DBUtils.closeRs(rs);
-			DBUtils.closeStmt(stmt);
-		} catch (Exception e) {
-			log.error(e.toString(), e);
 		}
-		return hostSystem;
+		DBUtils.closeRs(rs);
+		return new ArrayList<HostSystem>(hostSystemMap.values());
+	}
+
+
+	/**
+	 * returns a page of systems, the ids are selected with the page query and the
+	 * systems are read through the cache
+	 *
+	 * @param con       DB connection
+	 * @param where     where conditions on system s, may be empty
+	 * @param sortedSet sorted set with sort order and page
+	 * @param params    parameters for the where conditions
+	 * @return host system list
+	 * @throws SQLException
+	 */
+	private static List<HostSystem> getSystemPage(Connection con, String where, SortedSet sortedSet, List<Object> params) throws SQLException {
+
+		List<Long> systemIdList = new ArrayList<Long>();
+		PreparedStatement stmt = PageUtil.prepareStatement(con, "select s.id", "from system s", where, "s.id", getOrderByField(sortedSet.getOrderByField()), sortedSet, params);
+		ResultSet rs = stmt.executeQuery();
+		while (rs.next()) {
+			systemIdList.add(rs.getLong("id"));
+		}
+		DBUtils.closeRs(rs);
+		DBUtils.closeStmt(stmt);
+		if (PageUtil.trimPage(sortedSet, systemIdList)) {
+			sortedSet.setNextCursor(systemIdList.get(systemIdList.size() - 1));
+		}
+		return getSystems(con, systemIdList);
+	}
+
+
+	/**
+	 * returns a copy of a system so callers can't change the cached one
+	 *
+	 * @param hostSystem host system
+	 * @return copy with a copy of the application key
+	 */
+	static HostSystem copySystem(HostSystem hostSystem) {
+		HostSystem copy = new HostSystem();
+		copy.setId(hostSystem.getId());
+		copy.setDisplayNm(hostSystem.getDisplayNm());
+		copy.setUser(hostSystem.getUser());
+		copy.setHost(hostSystem.getHost());
+		copy.setPort(hostSystem.getPort());
+		copy.setAuthorizedKeys(hostSystem.getAuthorizedKeys());
+		copy.setStatusCd(hostSystem.getStatusCd());
+		copy.setEnabled(hostSystem.isEnabled());
+		copy.setInstance(hostSystem.getInstance());
+		copy.setEc2Region(hostSystem.getEc2Region());
+		if (hostSystem.getApplicationKey() != null) {
+			copy.setApplicationKey(PrivateKeyDB.copyApplicationKey(hostSystem.getApplicationKey()));
+		}
+		return copy;
+	}
+
+
+	/**
+	 * clears the cached system and, if its membership or display name changed, the
+	 * profile mappings, whose order depends on the display name. Status, key and host
+	 * updates keep the profile mappings and the access index built from them
+	 *
+	 * @param id             system id or null for all systems
+	 * @param mappingChanged true if profile mappings or the display name changed
+	 */
+	static void invalidateSystem(Long id, boolean mappingChanged) {
+		if (id != null) {
+			DBCache.SYSTEMS.invalidate(id);
+		} else {
+			DBCache.SYSTEMS.invalidateAll();
+		}
+		if (mappingChanged) {
+			DBCache.PROFILE_SYSTEMS.invalidateAll();
+		}
+	}
+
+
+	/**
+	 * qualifies sort fields with the system table since the joined key tables share column names
+	 *
+	 * @param orderByField sort field
+	 * @return qualified sort field
+	 */
+	private static String getOrderByField(String orderByField) {
+		if (StringUtils.isBlank(orderByField)) {
+			return null;
+		}
+		return orderByField.contains(".") ? orderByField : "s." + orderByField;
 	}
 
 
@@ -268,9 +357,20 @@ public class SystemDB {
 	public static void updateSystem(HostSystem hostSystem) {
 
 		Connection con = null;
+		boolean displayNmChanged = true;
 		try {
 			con = DBUtils.getConn();
-			PreparedStatement stmt = con.prepareStatement("update system set display_nm=?, user=?, host=?, port=?, authorized_keys=?, status_cd=?, enabled=?, instance_id=?, region=? where id=?");
+			PreparedStatement stmt = con.prepareStatement("select display_nm from system where id=?");
+			stmt.setLong(1, hostSystem.getId());
+			ResultSet rs = stmt.executeQuery();
+			if (rs.next()) {
+				String displayNm = rs.getString("display_nm");
+				displayNmChanged = displayNm == null ? hostSystem.getDisplayNm() != null : !displayNm.equals(hostSystem.getDisplayNm());
+			}
+			DBUtils.closeRs(rs);
+			DBUtils.closeStmt(stmt);
+
+			stmt = con.prepareStatement("update system set display_nm=?, user=?, host=?, port=?, authorized_keys=?, status_cd=?, enabled=?, instance_id=?, region=? where id=?");
 			stmt.setString(1, hostSystem.getDisplayNm());
 			stmt.setString(2, hostSystem.getUser());
 			stmt.setString(3, hostSystem.getHost());
@@ -290,6 +390,7 @@ public class SystemDB {
 		} catch (Exception e) {
 			log.error(e.toString(), e);
 		}
+		invalidateSystem(hostSystem.getId(), displayNmChanged);
 		DBUtils.closeConn(con);
 	}
 
@@ -310,6 +411,7 @@ public class SystemDB {
 		} catch (Exception e) {
 			log.error(e.toString(), e);
 		}
+		invalidateSystem(hostSystemId, true);
 		DBUtils.closeConn(con);
 	}
 
@@ -325,14 +427,60 @@ public class SystemDB {
 		List<HostSystem> hostSystemListReturn = new ArrayList<HostSystem>();
 		try {
 			con = DBUtils.getConn();
+			hostSystemListReturn = getSystems(con, systemIdList);
+		} catch (Exception e) {
+			log.error(e.toString(), e);
+		}
+		DBUtils.closeConn(con);
+		return hostSystemListReturn;
+	}
+
+	/**
+	 * returns the host systems in the order of the id list
+	 *
+	 * @param con          DB connection
+	 * @param systemIdList list of host system ids
+	 * @return host system list
+	 */
+	public static List<HostSystem> getSystems(Connection con, List<Long> systemIdList) {
+
+		List<HostSystem> hostSystemListReturn = new ArrayList<HostSystem>();
+		if (systemIdList.isEmpty()) {
+			return hostSystemListReturn;
+		}
+		Map<Long, HostSystem> hostSystemMap = new HashMap<Long, HostSystem>();
+		Set<Long> missSet = new LinkedHashSet<Long>();
+		for (Long systemId : systemIdList) {
+			HostSystem hostSystem = DBCache.SYSTEMS.get(systemId);
+			if (hostSystem != null) {
+				hostSystemMap.put(systemId, copySystem(hostSystem));
+			} else {
+				missSet.add(systemId);
+			}
+		}
+		try {
+			if (!missSet.isEmpty()) {
+				long generation = DBCache.SYSTEMS.getGeneration();
+				PreparedStatement stmt = con.prepareStatement(SYSTEM_SELECT + "where s.id in (" + StringUtils.repeat("?", ",", missSet.size()) + ")");
+				int i = 1;
+				for (Long systemId : missSet) {
+					stmt.setLong(i++, systemId);
+				}
+				for (HostSystem hostSystem : getSystemList(stmt)) {
+					DBCache.SYSTEMS.put(hostSystem.getId(), copySystem(hostSystem), generation);
+					hostSystemMap.put(hostSystem.getId(), hostSystem);
+				}
+				DBUtils.closeStmt(stmt);
+			}
+
 			for (Long systemId : systemIdList) {
-				HostSystem hostSystem = getSystem(con, systemId);
-				hostSystemListReturn.add(hostSystem);
+				if (hostSystemMap.containsKey(systemId)) {
+					hostSystemListReturn.add(hostSystemMap.get(systemId));
+				}
 			}
 		} catch (Exception e) {
 			log.error(e.toString(), e);
 		}
-		DBUtils.closeConn(con);
 		return hostSystemListReturn;
 	}
 
@@ -349,13 +497,7 @@ public class SystemDB {
 		Connection con = null;
 		try {
 			con=DBUtils.getConn();
-			PreparedStatement stmt = con.prepareStatement("select * from  system");
-			ResultSet rs = stmt.executeQuery();
-			while (rs.next()) {
-				hostSystemList.add(getSystem(rs.getLong("id")));
-			}
-			DBUtils.closeRs(rs);
-			DBUtils.closeStmt(stmt);
+			hostSystemList = getSystems(con, getAllSystemIds(con));
 		} catch (Exception e) {
 			log.error(e.toString(), e);
 		}
@@ -398,14 +540,7 @@ public class SystemDB {
 
 		List<Long> systemIdList = new ArrayList<Long>();
 		try {
-			PreparedStatement stmt = con.prepareStatement("select distinct system_id from  system_map m, user_map um where m.profile_id=um.profile_id and um.user_id=?");
-			stmt.setLong(1, userId);
-			ResultSet rs = stmt.executeQuery();
-			while (rs.next()) {
-				systemIdList.add(rs.getLong("system_id"));
-			}
-			DBUtils.closeRs(rs);
-			DBUtils.closeStmt(stmt);
+			systemIdList = SystemAccessIndex.getSystemIds(con, userId);
 		} catch (Exception e) {
 			log.error(e.toString(), e);
 		}
@@ -449,6 +584,27 @@ public class SystemDB {
 		return systemIdList;
 	}
 
+	/**
+	 * method to check system permissions for user
+	 *
+	 * @param systemSelectIdList list of system ids to check
+	 * @param userId             user id
+	 * @return only system ids that user has perms for
+	 */
+	public static List<Long> checkSystemPerms(List<Long> systemSelectIdList, Long userId) {
+		Connection con = null;
+		List<Long> systemIdList = new ArrayList<Long>();
+		try {
+			con = DBUtils.getConn();
+			systemIdList = checkSystemPerms(con, systemSelectIdList, userId);
+		} catch (Exception ex) {
+			log.error(ex.toString(), ex);
+		}
+		DBUtils.closeConn(con);
+		return systemIdList;
+	}
+
+
 	/**
 	 * method to check system permissions for user
 	 *
@@ -459,15 +615,17 @@ public class SystemDB {
 	 */
 	public static List<Long> checkSystemPerms(Connection con, List<Long> systemSelectIdList, Long userId) {
 
-		List<Long> systemIdList = new ArrayList<Long>();
-		List<Long> userSystemIdList = getAllSystemIdsForUser(con, userId);
-
-		for (Long systemId : userSystemIdList) {
-			if (systemSelectIdList.contains(systemId)) {
-				systemIdList.add(systemId);
+		Set<Long> systemIdSet = new LinkedHashSet<Long>();
+		try {
+			for (Long systemId : systemSelectIdList) {
+				if (SystemAccessIndex.hasAccess(con, userId, systemId)) {
+					systemIdSet.add(systemId);
+				}
 			}
+		} catch (Exception e) {
+			log.error(e.toString(), e);
 		}
-		return systemIdList;
+		return new ArrayList<Long>(systemIdSet);
 	}
 	
 	
@@ -491,6 +649,7 @@ public class SystemDB {
 		} catch (Exception e) {
             e.printStackTrace();
         }
+		invalidateSystem(id, false);
         DBUtils.closeConn(con);
 	}
 
@@ -513,6 +672,7 @@ public class SystemDB {
 		} catch (Exception e) {
             e.printStackTrace();
         }
+		invalidateSystem(id, false);
         DBUtils.closeConn(con);
 	}
 
@@ -526,31 +686,22 @@ public class SystemDB {
 	public static SortedSet getAdminSystemSet(SortedSet sortedSet, Long userId) {
 		List<HostSystem> hostSystemList = new ArrayList<HostSystem>();
 
-		String orderBy = "";
-		if (sortedSet.getOrderByField() != null && !sortedSet.getOrderByField().trim().equals("")) {
-			orderBy = "order by " + sortedSet.getOrderByField() + " " + sortedSet.getOrderByDirection();
-		}
-		String sql = "select * from  system s ";
+		List<Object> params = new ArrayList<Object>();
+		String where = "";
 		//if profile id exists add to statement
-		sql += StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_PROFILE_ID)) ? ",system_map m where s.id=m.system_id and m.profile_id=?" : "";
-		sql += orderBy;
+		if (StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_PROFILE_ID))) {
+			where = "s.id in (select system_id from system_map where profile_id=?)";
+			params.add(Long.valueOf(sortedSet.getFilterMap().get(FILTER_BY_PROFILE_ID)));
+		}
 
 		Connection con = null;
 		try {
 			con = DBUtils.getConn();
-			PreparedStatement stmt = con.prepareStatement(sql);
-			if (StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_PROFILE_ID))) {
-				stmt.setLong(1, Long.valueOf(sortedSet.getFilterMap().get(FILTER_BY_PROFILE_ID)));
-			}
-			ResultSet rs = stmt.executeQuery();
+			hostSystemList = getSystemPage(con, where, sortedSet, params);
 
-			while (rs.next()) {
-				HostSystem hostSystem = getSystem(rs.getLong("id"));
-				hostSystem.setPublicKeyList(PublicKeyDB.getPublicKeysForAdminandSystem(userId, hostSystem.getId()));
-				hostSystemList.add(hostSystem);
+			for (HostSystem hostSystem : hostSystemList) {
+				hostSystem.setPublicKeyList(PublicKeyDB.getPublicKeysForAdminandSystem(con, userId, hostSystem.getId()));
 			}
-			DBUtils.closeRs(rs);
-			DBUtils.closeStmt(stmt);
 
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -578,19 +729,18 @@ public class SystemDB {
 		
 		try {
 			con=DBUtils.getConn();
-			PreparedStatement stmt = con.prepareStatement("SELECT sys.ID FROM SYSTEM sys " +
-									"JOIN APPLICATION_KEY_SYSTEM appkey_sys on appkey_sys.system_id = sys.id " +
-									"JOIN APPLICATION_KEY appkey on appkey_sys.application_key_id = appkey.id " +
-									"WHERE appkey_sys.active = true "+
-									"AND appkey.initialkey = false " +
-									"AND appkey.create_dt < ? ");
+			PreparedStatement stmt = con.prepareStatement("select s.id " + SYSTEM_FROM +
+									"WHERE ak.initialkey = false " +
+									"AND ak.create_dt < ? ");
 			stmt.setTimestamp(1, momentTS);
+			List<Long> systemIdList = new ArrayList<Long>();
 			ResultSet rs = stmt.executeQuery();
 			while (rs.next()) {
-				hostSystemList.add(getSystem(rs.getLong("ID")));
+				systemIdList.add(rs.getLong("id"));
 			}
 			DBUtils.closeRs(rs);
 			DBUtils.closeStmt(stmt);
+			hostSystemList = getSystems(con, systemIdList);
 
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -605,71 +755,201 @@ public class SystemDB {
 	 * <br><br>
 	 * Update all EC2 System based on setting AWS Credentials and the EC2 Keys
 	 * and added new System
+	 *
+	 * @return map of region to discovered instances
 	 */
-	public static void updateAWSSystems() {
+	public static Map<String, List<Instance>> updateAWSSystems() {
+
+		Map<String, Map<String, ApplicationKey>> regionKeyMap = EC2DiscoveryUtil.getEnabledEC2Keys();
+		Map<String, List<Instance>> regionInstanceMap = EC2DiscoveryUtil.discoverInstances(regionKeyMap);
+
+		Map<String, HostSystem> ec2SystemMap = new LinkedHashMap<String, HostSystem>();
+		for (String ec2Region : regionInstanceMap.keySet()) {
+			for (Instance instance : regionInstanceMap.get(ec2Region)) {
+				//instances without any address (e.g. terminated) can't be stored
+				if (StringUtils.isEmpty(instance.getPrivateIpAddress()) && StringUtils.isEmpty(instance.getPrivateDnsName())
+						&& StringUtils.isEmpty(instance.getPublicIpAddress()) && StringUtils.isEmpty(instance.getPublicDnsName())) {
+					continue;
+				}
+				ec2SystemMap.put(instance.getInstanceId(), transformerEC2InstanzToHostSystem(instance, ec2Region, regionKeyMap.get(ec2Region)));
+			}
+		}
+		setEC2Systems(new ArrayList<HostSystem>(ec2SystemMap.values()));
 
-		List<String> ec2RegionList = PrivateKeyDB.getEC2Regions();
-		
+		return regionInstanceMap;
+	}
+
+	/**
+	 * Insert or Update EC2Systems
+	 * <br><br>
+	 * Diffs the discovered systems against the system table and applies
+	 * the inserts and updates as batches in one transaction
+	 *
+	 * @param ec2SystemList discovered EC2Systems
+	 */
+	private static void setEC2Systems(List<HostSystem> ec2SystemList) {
+
+		Connection con = null;
 		try {
-			//get AWS credentials from DB
-	        for (AWSCred awsCred : AWSCredDB.getAWSCredList()) {
-	
-	            if (awsCred != null && awsCred.isValid()) {
-	                //set  AWS credentials for service
-	                BasicAWSCredentials awsCredentials = new BasicAWSCredentials(awsCred.getAccessKey(), awsCred.getSecretKey());
-	
-	                for (String ec2Region : ec2RegionList) {
-	                    //create service
-	
-	                    AmazonEC2 service = new AmazonEC2Client(awsCredentials, AWSClientConfig.getClientConfig());
-	                    service.setEndpoint(ec2Region);
-	
-	                    //only return systems that have keys set
-	                    List<String> keyValueList = new ArrayList<String>();
-	                    for (ApplicationKey ec2Key : PrivateKeyDB.getEC2KeyByRegion(ec2Region)) {
-	                    	if(ec2Key.isEnabled())
-	                    	{
-	                    		keyValueList.add(ec2Key.getKeyname());
-	                    	}
-	                    }
-	
-	                    DescribeInstancesRequest describeInstancesRequest = new DescribeInstancesRequest();
-	                    
-	                    Filter keyNmFilter = new Filter("key-name", keyValueList);
-	                    
-	                    describeInstancesRequest.withFilters(keyNmFilter);
-	
-	                    DescribeInstancesResult describeInstancesResult = service.describeInstances(describeInstancesRequest);
-	                    
-	                    for (Reservation res : describeInstancesResult.getReservations()) {
-	                        for (Instance instance : res.getInstances()) {
-	                            HostSystem hostSystem = transformerEC2InstanzToHostSystem(instance, ec2Region);
-	                            
-	                            setEC2System(hostSystem);
-	                        }
-	                    }
-	                }
-	            }
-	        }			
-		} catch (AmazonServiceException ex)
-        {
-            ex.printStackTrace();
-        }	
+			con = DBUtils.getConn();
+			con.setAutoCommit(false);
+
+			Map<String, HostSystem> existingMap = getEC2SystemMap(con);
+
+			List<HostSystem> insertList = new ArrayList<HostSystem>();
+			List<HostSystem> updateList = new ArrayList<HostSystem>();
+			List<HostSystem> keyChangeList = new ArrayList<HostSystem>();
+			for (HostSystem hostSystem : ec2SystemList) {
+				HostSystem hostSystemTmp = existingMap.get(hostSystem.getInstance());
+				if (hostSystemTmp == null) {
+					insertList.add(hostSystem);
+				} else {
+					hostSystem.setId(hostSystemTmp.getId());
+					if (isEC2SystemChanged(hostSystemTmp, hostSystem)) {
+						updateList.add(hostSystem);
+					}
+					if (hostSystemTmp.getApplicationKey() == null || !hostSystem.getApplicationKey().getId().equals(hostSystemTmp.getApplicationKey().getId())) {
+						keyChangeList.add(hostSystem);
+					}
+				}
+			}
+
+			if (!insertList.isEmpty()) {
+				PreparedStatement stmt = con.prepareStatement("insert into system (display_nm, user, host, port, authorized_keys, status_cd, enabled, instance_id, region) values (?,?,?,?,?,?,?,?,?)");
+				for (HostSystem hostSystem : insertList) {
+					setSystemParams(stmt, hostSystem);
+					stmt.addBatch();
+				}
+				stmt.executeBatch();
+				DBUtils.closeStmt(stmt);
+
+				//read back generated ids
+				existingMap = getEC2SystemMap(con);
+				for (HostSystem hostSystem : insertList) {
+					hostSystem.setId(existingMap.get(hostSystem.getInstance()).getId());
+				}
+			}
+
+			if (!updateList.isEmpty()) {
+				PreparedStatement stmt = con.prepareStatement("update system set display_nm=?, user=?, host=?, port=?, authorized_keys=?, status_cd=?, enabled=?, instance_id=?, region=? where id=?");
+				for (HostSystem hostSystem : updateList) {
+					setSystemParams(stmt, hostSystem);
+					stmt.setLong(10, hostSystem.getId());
+					stmt.addBatch();
+				}
+				stmt.executeBatch();
+				DBUtils.closeStmt(stmt);
+			}
+
+			if (!keyChangeList.isEmpty()) {
+				PreparedStatement stmt = con.prepareStatement("update application_key_system set active=false where system_id=?");
+				for (HostSystem hostSystem : keyChangeList) {
+					stmt.setLong(1, hostSystem.getId());
+					stmt.addBatch();
+				}
+				stmt.executeBatch();
+				DBUtils.closeStmt(stmt);
+			}
+
+			keyChangeList.addAll(insertList);
+			if (!keyChangeList.isEmpty()) {
+				PreparedStatement stmt = con.prepareStatement("insert into application_key_system (system_id, application_key_id, active) values (?,?,true)");
+				for (HostSystem hostSystem : keyChangeList) {
+					stmt.setLong(1, hostSystem.getId());
+					stmt.setLong(2, hostSystem.getApplicationKey().getId());
+					stmt.addBatch();
+				}
+				stmt.executeBatch();
+				DBUtils.closeStmt(stmt);
+			}
+
+			con.commit();
+			con.setAutoCommit(true);
+		} catch (Exception e) {
+			log.error(e.toString(), e);
+			try {
+				if (con != null) {
+					con.rollback();
+					con.setAutoCommit(true);
+				}
+			} catch (SQLException ex) {
+				log.error(ex.toString(), ex);
+			}
+		}
+		invalidateSystem(null, true);
+		DBUtils.closeConn(con);
 	}
-	
+
 	/**
-	 * Insert or Update EC2System
-	 * 
-	 * @param hostSystem EC2System
+	 * returns all EC2 systems with the id of the active application key
+	 *
+	 * @param con DB connection
+	 * @return map of instance id to system
 	 */
-	private static void setEC2System(HostSystem hostSystem) {
-		HostSystem hostSystemTmp = getSystemByInstance(hostSystem.getInstance());
-        if (hostSystemTmp == null) {
-            insertSystem(hostSystem);
-        } else {
-        	hostSystem.setId(hostSystemTmp.getId());
-            updateSystem(hostSystem);
-        }
+	private static Map<String, HostSystem> getEC2SystemMap(Connection con) throws SQLException {
+
+		Map<String, HostSystem> ec2SystemMap = new HashMap<String, HostSystem>();
+		PreparedStatement stmt = con.prepareStatement("select s.*, aks.application_key_id from system s left join application_key_system aks on aks.system_id = s.id and aks.active = true where s.instance_id <> '---'");
+		ResultSet rs = stmt.executeQuery();
+		while (rs.next()) {
+			HostSystem hostSystem = new HostSystem();
+			hostSystem.setId(rs.getLong("id"));
+			hostSystem.setDisplayNm(rs.getString("display_nm"));
+			hostSystem.setUser(rs.getString("user"));
+			hostSystem.setHost(rs.getString("host"));
+			hostSystem.setPort(rs.getInt("port"));
+			hostSystem.setAuthorizedKeys(rs.getString("authorized_keys"));
+			hostSystem.setStatusCd(rs.getString("status_cd"));
+			hostSystem.setEnabled(rs.getBoolean("enabled"));
+			hostSystem.setInstance(rs.getString("instance_id"));
+			hostSystem.setEc2Region(rs.getString("region"));
+			long applicationKeyId = rs.getLong("application_key_id");
+			if (!rs.wasNull()) {
+				ApplicationKey applicationKey = new ApplicationKey();
+				applicationKey.setId(applicationKeyId);
+				hostSystem.setApplicationKey(applicationKey);
+			}
+			ec2SystemMap.put(hostSystem.getInstance(), hostSystem);
+		}
+		DBUtils.closeRs(rs);
+		DBUtils.closeStmt(stmt);
+		return ec2SystemMap;
+	}
+
+	/**
+	 * checks if the stored system differs from the discovered one
+	 *
+	 * @param existing stored system
+	 * @param discovered discovered system
+	 * @return true if an update is needed
+	 */
+	private static boolean isEC2SystemChanged(HostSystem existing, HostSystem discovered) {
+		return !StringUtils.equals(existing.getDisplayNm(), discovered.getDisplayNm())
+				|| !StringUtils.equals(existing.getUser(), discovered.getUser())
+				|| !StringUtils.equals(existing.getHost(), discovered.getHost())
+				|| !existing.getPort().equals(discovered.getPort())
+				|| !StringUtils.equals(existing.getAuthorizedKeys(), discovered.getAuthorizedKeys())
+				|| !StringUtils.equals(existing.getStatusCd(), discovered.getStatusCd())
+				|| existing.isEnabled() != discovered.isEnabled()
+				|| !StringUtils.equals(existing.getEc2Region(), discovered.getEc2Region());
+	}
+
+	/**
+	 * sets the system columns shared by insert and update
+	 *
+	 * @param stmt prepared statement
+	 * @param hostSystem host system object
+	 */
+	private static void setSystemParams(PreparedStatement stmt, HostSystem hostSystem) throws SQLException {
+		stmt.setString(1, hostSystem.getDisplayNm());
+		stmt.setString(2, hostSystem.getUser());
+		stmt.setString(3, hostSystem.getHost());
+		stmt.setInt(4, hostSystem.getPort());
+		stmt.setString(5, hostSystem.getAuthorizedKeys());
+		stmt.setString(6, hostSystem.getStatusCd());
+		stmt.setBoolean(7, hostSystem.isEnabled());
+		stmt.setString(8, hostSystem.getInstance());
+		stmt.setString(9, hostSystem.getEc2Region());
 	}
 
 
@@ -684,14 +964,12 @@ public class SystemDB {
 		Connection con = null;
 		try {
 			con = DBUtils.getConn();
-			PreparedStatement stmt = con.prepareStatement("select * from  system where instance_id like ?");
+			PreparedStatement stmt = con.prepareStatement(SYSTEM_SELECT + "where s.instance_id like ?");
 			stmt.setString(1, instanceId);
-            ResultSet rs = stmt.executeQuery();
-            
-            if(rs.next()){
-            	hostSystem = getSystem(rs.getLong("id"));
+            List<HostSystem> hostSystemList = getSystemList(stmt);
+            if(!hostSystemList.isEmpty()){
+            	hostSystem = hostSystemList.get(0);
             }
-            DBUtils.closeRs(rs);
             DBUtils.closeStmt(stmt);
         } catch (Exception e) {
             e.printStackTrace();
@@ -701,15 +979,38 @@ public class SystemDB {
 	}
 
 
+	/**
+	 * returns the system ids of all EC2 systems
+	 *
+	 * @param con DB connection
+	 * @return map of instance id to system id
+	 */
+	public static Map<String, Long> getEC2SystemIdMap(Connection con) {
+		Map<String, Long> instanceSystemMap = new HashMap<String, Long>();
+		try {
+			PreparedStatement stmt = con.prepareStatement("select id, instance_id from system where instance_id <> '---'");
+			ResultSet rs = stmt.executeQuery();
+			while (rs.next()) {
+				instanceSystemMap.put(rs.getString("instance_id"), rs.getLong("id"));
+			}
+			DBUtils.closeRs(rs);
+			DBUtils.closeStmt(stmt);
+		} catch (Exception e) {
+			log.error(e.toString(), e);
+		}
+		return instanceSystemMap;
+	}
+
+
 	/**
      * HelpMethode to Transform EC2Instanz in HostSystem 
      * 
      * @param instance EC2Instanz
      * @param ec2Region EC2Region
-     * @param awsCrde AWS Credential
+     * @param ec2KeyMap enabled EC2 keys of the region by key name
      * @return hostSystem
      */
-    private static HostSystem transformerEC2InstanzToHostSystem(Instance instance, String ec2Region) {
+    private static HostSystem transformerEC2InstanzToHostSystem(Instance instance, String ec2Region, Map<String, ApplicationKey> ec2KeyMap) {
     	HostSystem hostSystem = new HostSystem();
         hostSystem.setInstance(instance.getInstanceId());
 
@@ -724,7 +1025,7 @@ public class SystemDB {
             hostSystem.setHost(instance.getPrivateIpAddress());
         }
 
-        hostSystem.setApplicationKey(PrivateKeyDB.getEC2KeyByNmRegion(instance.getKeyName(), ec2Region));
+        hostSystem.setApplicationKey(ec2KeyMap.get(instance.getKeyName()));
         hostSystem.setEc2Region(ec2Region);
         hostSystem.setStatusCd(instance.getState().getName().toUpperCase());
         hostSystem.setUser(AppConfig.getProperty("defaultEC2User"));
@@ -733,6 +1034,10 @@ public class SystemDB {
                 hostSystem.setDisplayNm(tag.getValue());
             }
         }
+        //display name is required, fall back to the instance id for untagged instances
+        if (StringUtils.isEmpty(hostSystem.getDisplayNm())) {
+            hostSystem.setDisplayNm(instance.getInstanceId());
+        }
         return hostSystem;
 	}
     
@@ -24,8 +24,13 @@ import java.sql.Connection;
 
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -37,6 +42,9 @@ public class SystemStatusDB {
 
     private static Logger log = LoggerFactory.getLogger(SystemStatusDB.class);
 
+    //statuses of systems that still need a connection attempt
+    private static final String PENDING_STATUS_SQL = "status_cd in ('" + HostSystem.INITIAL_STATUS + "','" + HostSystem.AUTH_FAIL_STATUS + "','" + HostSystem.PUBLIC_KEY_FAIL_STATUS + "')";
+
 
     /**
      * set the initial status for selected systems
@@ -55,20 +63,27 @@ public class SystemStatusDB {
                 systemSelectIds = SystemDB.checkSystemPerms(con, systemSelectIds, userId);
             }
 
+            con.setAutoCommit(false);
+
             //deletes all old systems
             deleteAllSystemStatus(con, userId);
-            for (Long hostSystemId : systemSelectIds) {
 
-                HostSystem hostSystem= new HostSystem();
-                hostSystem.setId(hostSystemId);
-                hostSystem.setStatusCd(HostSystem.INITIAL_STATUS);
+            //insert new status
+            insertSystemStatus(con, new LinkedHashSet<Long>(systemSelectIds), HostSystem.INITIAL_STATUS, userId);
 
-                //insert new status
-                insertSystemStatus(con, hostSystem, userId);
-            }
+            con.commit();
+            con.setAutoCommit(true);
 
         } catch (Exception e) {
             log.error(e.toString(), e);
+            try {
+                if (con != null) {
+                    con.rollback();
+                    con.setAutoCommit(true);
+                }
+            } catch (SQLException ex) {
+                log.error(ex.toString(), ex);
+            }
         }
         DBUtils.closeConn(con);
     }
@@ -97,22 +112,24 @@ public class SystemStatusDB {
      * inserts into the status table to keep track of key placement status
      *
      * @param con                DB connection object
-     * @param hostSystem systems for authorized_keys replacement
+     * @param systemIds systems for authorized_keys replacement
+     * @param statusCd status for all systems
      * @param userId user id
      */
-    private static void insertSystemStatus(Connection con, HostSystem hostSystem, Long userId) {
+    private static void insertSystemStatus(Connection con, Collection<Long> systemIds, String statusCd, Long userId) throws SQLException {
 
-        try {
-            PreparedStatement stmt = con.prepareStatement("insert into status (id, status_cd, user_id) values (?,?,?)");
-            stmt.setLong(1, hostSystem.getId());
-            stmt.setString(2, hostSystem.getStatusCd());
+        if (systemIds.isEmpty()) {
+            return;
+        }
+        PreparedStatement stmt = con.prepareStatement("insert into status (id, status_cd, user_id) values (?,?,?)");
+        for (Long systemId : systemIds) {
+            stmt.setLong(1, systemId);
+            stmt.setString(2, statusCd);
             stmt.setLong(3, userId);
-            stmt.execute();
-            DBUtils.closeStmt(stmt);
-
-        } catch (Exception e) {
-            log.error(e.toString(), e);
+            stmt.addBatch();
         }
+        stmt.executeBatch();
+        DBUtils.closeStmt(stmt);
     }
 
     /**
@@ -200,19 +217,60 @@ public class SystemStatusDB {
 
             PreparedStatement stmt = con.prepareStatement("select * from status where user_id=? order by id asc");
             stmt.setLong(1, userId);
-            ResultSet rs = stmt.executeQuery();
+            hostSystemList = getSystemStatusList(con, stmt);
+
+        } catch (Exception e) {
+            log.error(e.toString(), e);
+        }
+        return hostSystemList;
+    }
 
-            while (rs.next()) {
-                HostSystem hostSystem = SystemDB.getSystem(con, rs.getLong("id"));
-                hostSystem.setStatusCd(rs.getString("status_cd"));
-                hostSystemList.add(hostSystem);
-            }
-            DBUtils.closeRs(rs);
-            DBUtils.closeStmt(stmt);
 
+    /**
+     * returns all systems that still need a connection attempt in the order they are processed
+     *
+     * @param userId user id
+     * @return pending systems with their status
+     */
+    public static List<HostSystem> getPendingSystems(Long userId) {
+
+        List<HostSystem> hostSystemList = new ArrayList<HostSystem>();
+        Connection con = null;
+        try {
+            con = DBUtils.getConn();
+            PreparedStatement stmt = con.prepareStatement("select * from status where user_id=? and " + PENDING_STATUS_SQL + " order by id asc");
+            stmt.setLong(1, userId);
+            hostSystemList = getSystemStatusList(con, stmt);
         } catch (Exception e) {
             log.error(e.toString(), e);
         }
+        DBUtils.closeConn(con);
+        return hostSystemList;
+    }
+
+
+    /**
+     * executes a status query and loads the systems of all rows in one query
+     *
+     * @param con DB connection object
+     * @param stmt status query with all parameters set
+     * @return systems with their status in the order of the status query
+     */
+    private static List<HostSystem> getSystemStatusList(Connection con, PreparedStatement stmt) throws SQLException {
+
+        ResultSet rs = stmt.executeQuery();
+        Map<Long, String> statusMap = new LinkedHashMap<Long, String>();
+        while (rs.next()) {
+            statusMap.put(rs.getLong("id"), rs.getString("status_cd"));
+        }
+        DBUtils.closeRs(rs);
+        DBUtils.closeStmt(stmt);
+
+        //load all systems with their keys in one query
+        List<HostSystem> hostSystemList = SystemDB.getSystems(con, new ArrayList<Long>(statusMap.keySet()));
+        for (HostSystem hostSystem : hostSystemList) {
+            hostSystem.setStatusCd(statusMap.get(hostSystem.getId()));
+        }
         return hostSystemList;
     }
 
@@ -261,11 +319,8 @@ public class SystemStatusDB {
         Connection con = null;
         try {
             con = DBUtils.getConn();
-            PreparedStatement stmt = con.prepareStatement("select * from status where (status_cd like ? or status_cd like ? or status_cd like ?) and user_id=? order by id asc");
-            stmt.setString(1,HostSystem.INITIAL_STATUS);
-            stmt.setString(2,HostSystem.AUTH_FAIL_STATUS);
-            stmt.setString(3,HostSystem.PUBLIC_KEY_FAIL_STATUS);
-            stmt.setLong(4, userId);
+            PreparedStatement stmt = con.prepareStatement("select * from status where user_id=? and " + PENDING_STATUS_SQL + " order by id asc limit 1");
+            stmt.setLong(1, userId);
             ResultSet rs = stmt.executeQuery();
 
             if (rs.next()) {
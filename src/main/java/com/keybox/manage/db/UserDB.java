@@ -18,7 +18,9 @@ package com.keybox.manage.db;
 import com.keybox.manage.model.SortedSet;
 import com.keybox.manage.model.User;
 import com.keybox.manage.util.DBUtils;
-import com.keybox.manage.util.EncryptionUtil;
+import com.keybox.manage.util.PageUtil;
+import com.keybox.manage.util.PasswordHashUtil;
+import com.keybox.service.mail.MailCallback;
 import com.keybox.service.mail.MailSend;
 import com.keybox.service.mail.MassageParamter;
 
@@ -28,8 +30,6 @@ import org.apache.commons.lang3.StringUtils;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.sql.Savepoint;
 import java.sql.Statement;
 import java.util.ArrayList;
 import org.slf4j.Logger;
@@ -58,16 +58,15 @@ public class UserDB {
     public static SortedSet getUserSet(SortedSet sortedSet) {
 
         ArrayList<User> userList = new ArrayList<User>();
-        String orderBy = "";
+        String orderBy = null;
         if (sortedSet.getOrderByField() != null && !sortedSet.getOrderByField().trim().equals("")) {
-            orderBy = "order by " + sortedSet.getOrderByField() + " " + sortedSet.getOrderByDirection();
+            orderBy = sortedSet.getOrderByField();
         }
-        String sql = "select * from  users where enabled=true " + orderBy;
 
         Connection con = null;
         try {
             con = DBUtils.getConn();
-            PreparedStatement stmt = con.prepareStatement(sql);
+            PreparedStatement stmt = PageUtil.prepareStatement(con, "select *", "from users", "enabled=true", "id", orderBy, sortedSet, new ArrayList<Object>());
             ResultSet rs = stmt.executeQuery();
             while (rs.next()) {
                 User user = new User();
@@ -84,6 +83,9 @@ public class UserDB {
             }
             DBUtils.closeRs(rs);
             DBUtils.closeStmt(stmt);
+            if (PageUtil.trimPage(sortedSet, userList)) {
+                sortedSet.setNextCursor(userList.get(userList.size() - 1).getId());
+            }
 
         } catch (Exception e) {
             log.error(e.toString(), e);
@@ -234,9 +236,8 @@ public class UserDB {
             stmt.setString(5, user.getAuthType());
             stmt.setString(6, user.getUserType());
             if(StringUtils.isNotEmpty(user.getPassword())) {
-                String salt=EncryptionUtil.generateSalt();
-                stmt.setString(7, EncryptionUtil.hash(user.getPassword() + salt));
-                stmt.setString(8, salt);
+                stmt.setString(7, PasswordHashUtil.hash(user.getPassword()));
+                stmt.setString(8, null);
             }else {
                 stmt.setString(7, null);
                 stmt.setString(8, null);
@@ -291,15 +292,14 @@ public class UserDB {
         Connection con = null;
         try {
             con = DBUtils.getConn();
-            String salt=EncryptionUtil.generateSalt();
             PreparedStatement stmt = con.prepareStatement("update users set first_nm=?, last_nm=?, email=?, username=?, user_type=?, password=?, salt=? where id=?");
             stmt.setString(1, user.getFirstNm());
             stmt.setString(2, user.getLastNm());
             stmt.setString(3, user.getEmail());
             stmt.setString(4, user.getUsername());
             stmt.setString(5, user.getUserType());
-            stmt.setString(6, EncryptionUtil.hash(user.getPassword()+salt));
-            stmt.setString(7, salt);
+            stmt.setString(6, PasswordHashUtil.hash(user.getPassword()));
+            stmt.setString(7, null);
             stmt.setLong(8, user.getId());
             stmt.execute();
             DBUtils.closeStmt(stmt);
@@ -387,16 +387,16 @@ public class UserDB {
     }
 
     /**
-     * Method to Password reset and Mail send
+     * Method to Password reset and Mail send. The new password is only set once
+     * the mail was sent, until then the old password stays valid.
      * 
      * @param email EMail address from User
-     * @return <strong>true:</strong> Password reset OK <br>
-     * 			<strong>false:</strong> EMail address not available, Error with Mail send or DB Update
+     * @return <strong>true:</strong> Password reset mail queued <br>
+     * 			<strong>false:</strong> EMail address not available or Error with Mail build
      */
 	public static boolean resetPWMail(String email) {
 		boolean PW_reset_OK = false;
 		Connection con = null;
-		Savepoint spt = null;
         try {
             con = DBUtils.getConn();
             PreparedStatement stmt = con.prepareStatement("select * from users where enabled=true and lower(email) like lower(?)");
@@ -404,30 +404,27 @@ public class UserDB {
             ResultSet rs = stmt.executeQuery();
             while(rs.next())
             {
-            	PW_reset_OK = true;
+            	final Long userId = rs.getLong("id");
             	String newPW = RandomStringUtils.randomAlphanumeric(20);
-            	PreparedStatement stmt_up = con.prepareStatement("update users set password=?, salt=?,pwreset=? where id=?");
-                
-            	//SavePoint for Rollback
-            	con.setAutoCommit(false);
-                spt = con.setSavepoint("sp_PW_Reset");
-            	
-                //Update DB
-            	String salt=EncryptionUtil.generateSalt();
-            	stmt_up.setString(1, EncryptionUtil.hash(newPW + salt));
-            	stmt_up.setString(2, salt);
-            	stmt_up.setBoolean(3, true);
-            	stmt_up.setLong(4, rs.getLong("id"));
-            	stmt_up.execute();
-                DBUtils.closeStmt(stmt_up);
-                
-                //Mail send
+            	final String newPWHash = PasswordHashUtil.hash(newPW);
+
+                //Mail send, DB is updated once the mail was sent
                 ArrayList<MassageParamter> mps = new ArrayList<MassageParamter>();
         		mps.add(new MassageParamter(">>user_name<<", rs.getString("username")));
         		mps.add(new MassageParamter(">>name<<", rs.getString("first_nm") + " " + rs.getString("last_nm")));
         		mps.add(new MassageParamter(">>pw<<", newPW));
-        		MailSend.sendMail("pw_reset_mail.properties", email, rs.getString("first_nm") + " " + rs.getString("last_nm"),mps);
-        		con.commit();
+        		MailSend.sendMail("pw_reset_mail.properties", email, rs.getString("first_nm") + " " + rs.getString("last_nm"), mps, new MailCallback() {
+        			@Override
+        			public void sent() {
+        				updateResetPassword(userId, newPWHash);
+        			}
+
+        			@Override
+        			public void failed() {
+        				log.error("Password reset mail for user id " + userId + " not sent, password not changed");
+        			}
+        		});
+        		PW_reset_OK = true;
             }
             
             DBUtils.closeRs(rs);
@@ -435,18 +432,33 @@ public class UserDB {
 
         } catch(Exception ex){
         	PW_reset_OK = false;
-        	if(spt != null)
-        	{
-        		try {
-					con.rollback(spt);
-					con.commit();
-				} catch (SQLException e1) {
-					e1.printStackTrace();
-				}
-        	}
-            ex.printStackTrace();
+            log.error(ex.toString(), ex);
         }
         DBUtils.closeConn(con);
         return PW_reset_OK;
 	}
+
+    /**
+     * sets the password of a reset once the reset mail was sent
+     *
+     * @param userId user id
+     * @param passwordHash hash of the new password
+     */
+    private static void updateResetPassword(Long userId, String passwordHash) {
+
+        Connection con = null;
+        try {
+            con = DBUtils.getConn();
+            PreparedStatement stmt = con.prepareStatement("update users set password=?, salt=?, pwreset=? where id=?");
+            stmt.setString(1, passwordHash);
+            stmt.setString(2, null);
+            stmt.setBoolean(3, true);
+            stmt.setLong(4, userId);
+            stmt.execute();
+            DBUtils.closeStmt(stmt);
+        } catch (Exception e) {
+            log.error(e.toString(), e);
+        }
+        DBUtils.closeConn(con);
+    }
 }
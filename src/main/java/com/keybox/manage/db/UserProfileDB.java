@@ -17,6 +17,7 @@ package com.keybox.manage.db;
 
 import com.keybox.manage.model.Profile;
 import com.keybox.manage.model.User;
+import com.keybox.manage.util.DBCache;
 import com.keybox.manage.util.DBUtils;
 
 import java.sql.Connection;
@@ -62,6 +63,7 @@ public class UserProfileDB {
         } catch (Exception e) {
             log.error(e.toString(), e);
         }
+        DBCache.USER_PROFILES.invalidate(userId);
         DBUtils.closeConn(con);
     }
 
@@ -96,6 +98,7 @@ public class UserProfileDB {
         } catch (Exception e) {
             log.error(e.toString(), e);
         }
+        DBCache.USER_PROFILES.invalidateAll();
         DBUtils.closeConn(con);
 
 
@@ -124,6 +127,7 @@ public class UserProfileDB {
         } catch (Exception e) {
             log.error(e.toString(), e);
         }
+        DBCache.USER_PROFILES.invalidate(userId);
         DBUtils.closeConn(con);
 
     }
@@ -156,8 +160,13 @@ public class UserProfileDB {
      */
     public static List<Profile> getProfilesByUser(Connection con, Long userId) {
 
-        ArrayList<Profile> profileList = new ArrayList<Profile>();
+        List<Profile> profileList = DBCache.USER_PROFILES.get(userId);
+        if (profileList != null) {
+            return copyProfiles(profileList);
+        }
+        profileList = new ArrayList<Profile>();
         try {
+            long generation = DBCache.USER_PROFILES.getGeneration();
             PreparedStatement stmt = con.prepareStatement("select * from  profiles g, user_map m where g.id=m.profile_id and m.user_id=? order by nm asc");
             stmt.setLong(1, userId);
             ResultSet rs = stmt.executeQuery();
@@ -171,6 +180,7 @@ public class UserProfileDB {
             }
             DBUtils.closeRs(rs);
             DBUtils.closeStmt(stmt);
+            DBCache.USER_PROFILES.put(userId, copyProfiles(profileList), generation);
 
         } catch (Exception e) {
             log.error(e.toString(), e);
@@ -178,6 +188,23 @@ public class UserProfileDB {
         return profileList;
     }
 
+    /**
+     * returns copies of profiles so callers can't change the cached ones
+     * @param profileList profile list
+     * @return profile list
+     */
+    private static List<Profile> copyProfiles(List<Profile> profileList) {
+        List<Profile> copyList = new ArrayList<Profile>();
+        for (Profile profile : profileList) {
+            Profile copy = new Profile();
+            copy.setId(profile.getId());
+            copy.setNm(profile.getNm());
+            copy.setDesc(profile.getDesc());
+            copyList.add(copy);
+        }
+        return copyList;
+    }
+
     /**
      * get users associated with profile
      * @param profileId profile id
@@ -240,24 +267,11 @@ public class UserProfileDB {
      */
     public static boolean checkIsUsersProfile(Long userId, Long profileId){
         boolean isUsersProfile=false;
-        Connection con = null;
-        try {
-            con = DBUtils.getConn();
-            PreparedStatement stmt = con.prepareStatement("select * from user_map where profile_id=? and user_id=?");
-            stmt.setLong(1, profileId);
-            stmt.setLong(2, userId);
-            ResultSet rs = stmt.executeQuery();
-            while (rs.next()) {
+        for (Profile profile : getProfilesByUser(userId)) {
+            if (profile.getId().equals(profileId)) {
                isUsersProfile=true;
             }
-            DBUtils.closeRs(rs);
-            DBUtils.closeStmt(stmt);
-            DBUtils.closeStmt(stmt);
-
-        } catch (Exception e) {
-            log.error(e.toString(), e);
         }
-        DBUtils.closeConn(con);
         return isUsersProfile;
     }
 }
@@ -0,0 +1,82 @@
+/**
+ * Copyright 2013 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.model;
+
+/**
+ * Result of a command run over an exec channel on a host system
+ */
+public class BatchResult extends HostSystem {
+    Long runId;
+    Integer exitCode;
+    String stdout;
+    String stderr;
+    //output was cut at the max output size
+    boolean truncated = false;
+
+    public BatchResult() {
+
+    }
+
+    public BatchResult(Long runId, HostSystem hostSystem) {
+        this.runId = runId;
+        this.setId(hostSystem.getId());
+        this.setInstanceId(hostSystem.getInstanceId());
+        this.setUser(hostSystem.getUser());
+        this.setHost(hostSystem.getHost());
+        this.setPort(hostSystem.getPort());
+        this.setDisplayNm(hostSystem.getDisplayNm());
+    }
+
+    public Long getRunId() {
+        return runId;
+    }
+
+    public void setRunId(Long runId) {
+        this.runId = runId;
+    }
+
+    public Integer getExitCode() {
+        return exitCode;
+    }
+
+    public void setExitCode(Integer exitCode) {
+        this.exitCode = exitCode;
+    }
+
+    public String getStdout() {
+        return stdout;
+    }
+
+    public void setStdout(String stdout) {
+        this.stdout = stdout;
+    }
+
+    public String getStderr() {
+        return stderr;
+    }
+
+    public void setStderr(String stderr) {
+        this.stderr = stderr;
+    }
+
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    public void setTruncated(boolean truncated) {
+        this.truncated = truncated;
+    }
+}
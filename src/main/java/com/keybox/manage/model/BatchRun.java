@@ -0,0 +1,79 @@
+/**
+ * Copyright 2013 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Batch run of a command on a set of host systems, results are added as each host finishes
+ */
+public class BatchRun {
+    Long id;
+    Long userId;
+    String command;
+    Integer total = 0;
+    List<BatchResult> resultList = Collections.synchronizedList(new ArrayList<BatchResult>());
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public void setUserId(Long userId) {
+        this.userId = userId;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    public void setCommand(String command) {
+        this.command = command;
+    }
+
+    public Integer getTotal() {
+        return total;
+    }
+
+    public void setTotal(Integer total) {
+        this.total = total;
+    }
+
+    public List<BatchResult> getResultList() {
+        return resultList;
+    }
+
+    public void setResultList(List<BatchResult> resultList) {
+        this.resultList = resultList;
+    }
+
+    public Integer getCompleted() {
+        return resultList.size();
+    }
+
+    public boolean isFinished() {
+        return getCompleted() >= total;
+    }
+}
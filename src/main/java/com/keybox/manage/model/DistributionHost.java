@@ -0,0 +1,99 @@
+/**
+ * Copyright 2013 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.model;
+
+/**
+ * Value object for the timings and outcome of a key distribution to one system.
+ * Phases that were not reached are null.
+ */
+public class DistributionHost {
+    Long systemId;
+    String statusCd;
+    String errorMsg;
+    //tcp connection
+    Integer connectMs;
+    //key exchange and authentication
+    Integer authMs;
+    //authorized keys written over sftp
+    Integer transferMs;
+    //test connection after the keys were written
+    Integer verifyMs;
+    Integer totalMs;
+
+    public Long getSystemId() {
+        return systemId;
+    }
+
+    public void setSystemId(Long systemId) {
+        this.systemId = systemId;
+    }
+
+    public String getStatusCd() {
+        return statusCd;
+    }
+
+    public void setStatusCd(String statusCd) {
+        this.statusCd = statusCd;
+    }
+
+    public String getErrorMsg() {
+        return errorMsg;
+    }
+
+    public void setErrorMsg(String errorMsg) {
+        this.errorMsg = errorMsg;
+    }
+
+    public Integer getConnectMs() {
+        return connectMs;
+    }
+
+    public void setConnectMs(Integer connectMs) {
+        this.connectMs = connectMs;
+    }
+
+    public Integer getAuthMs() {
+        return authMs;
+    }
+
+    public void setAuthMs(Integer authMs) {
+        this.authMs = authMs;
+    }
+
+    public Integer getTransferMs() {
+        return transferMs;
+    }
+
+    public void setTransferMs(Integer transferMs) {
+        this.transferMs = transferMs;
+    }
+
+    public Integer getVerifyMs() {
+        return verifyMs;
+    }
+
+    public void setVerifyMs(Integer verifyMs) {
+        this.verifyMs = verifyMs;
+    }
+
+    public Integer getTotalMs() {
+        return totalMs;
+    }
+
+    public void setTotalMs(Integer totalMs) {
+        this.totalMs = totalMs;
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright 2013 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.model;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Value object for a run that distributes keys to a set of systems
+ */
+public class DistributionRun {
+
+    public static final String RUN_ALL_SYSTEMS = "ALL";
+    public static final String RUN_PROFILE = "PROFILE";
+    public static final String RUN_USER = "USER";
+    public static final String RUN_REFRESH_APP_KEY = "APPKEY";
+
+    Long id;
+    String runType;
+    Date startTm = new Date();
+    Long durationMs;
+    Integer hostCount = 0;
+    Integer failCount = 0;
+    List<DistributionHost> hostList = new ArrayList<DistributionHost>();
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getRunType() {
+        return runType;
+    }
+
+    public void setRunType(String runType) {
+        this.runType = runType;
+    }
+
+    public Date getStartTm() {
+        return startTm;
+    }
+
+    public void setStartTm(Date startTm) {
+        this.startTm = startTm;
+    }
+
+    public Long getDurationMs() {
+        return durationMs;
+    }
+
+    public void setDurationMs(Long durationMs) {
+        this.durationMs = durationMs;
+    }
+
+    public Integer getHostCount() {
+        return hostCount;
+    }
+
+    public void setHostCount(Integer hostCount) {
+        this.hostCount = hostCount;
+    }
+
+    public Integer getFailCount() {
+        return failCount;
+    }
+
+    public void setFailCount(Integer failCount) {
+        this.failCount = failCount;
+    }
+
+    public List<DistributionHost> getHostList() {
+        return hostList;
+    }
+
+    public void setHostList(List<DistributionHost> hostList) {
+        this.hostList = hostList;
+    }
+}
@@ -15,6 +15,8 @@
  */
 package com.keybox.manage.model;
 
+import com.keybox.manage.util.OutputMatcher;
+import com.keybox.manage.util.SessionOutputBuffer;
 
 /**
  * Output from ssh session
@@ -22,6 +24,11 @@ package com.keybox.manage.model;
 public class SessionOutput extends HostSystem {
     Long sessionId;
     StringBuilder output = new StringBuilder();
+    //output not yet sent, not serialized to the client
+    transient SessionOutputBuffer buffer;
+    //new matches of the session match pattern in the output, null if none
+    Integer matchCount;
+    transient OutputMatcher matcher;
 
     public SessionOutput() {
 
@@ -53,4 +60,28 @@ public class SessionOutput extends HostSystem {
         this.output = output;
     }
 
+    public SessionOutputBuffer getBuffer() {
+        return buffer;
+    }
+
+    public void setBuffer(SessionOutputBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    public Integer getMatchCount() {
+        return matchCount;
+    }
+
+    public void setMatchCount(Integer matchCount) {
+        this.matchCount = matchCount;
+    }
+
+    public OutputMatcher getMatcher() {
+        return matcher;
+    }
+
+    public void setMatcher(OutputMatcher matcher) {
+        this.matcher = matcher;
+    }
+
 }
\ No newline at end of file
@@ -26,6 +26,11 @@ public class SortedSet {
     private String orderByDirection = "asc";
     private List itemList;
     private HashMap<String, String> filterMap = new HashMap<>();
+    private int pageSize = 0;
+    private Long cursor = null;
+    private Long nextCursor = null;
+    private String cursorHistory = null;
+    private Long totalCount = null;
 
     public SortedSet() {
         
@@ -34,6 +39,10 @@ public class SortedSet {
     public SortedSet(String orderByField){
         this.orderByField =  orderByField;
     }
+
+    public SortedSet(int pageSize){
+        this.pageSize = pageSize;
+    }
     
 
     public String getOrderByField() {
@@ -78,4 +87,66 @@ public class SortedSet {
     public void setFilterMap(HashMap<String, String> filterMap) {
         this.filterMap = filterMap;
     }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * @return true if only one page of the list is loaded
+     */
+    public boolean isPaged() {
+        return pageSize > 0;
+    }
+
+    /**
+     * @return id of the last row of the previous page, null for the first page
+     */
+    public Long getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(Long cursor) {
+        this.cursor = cursor;
+    }
+
+    /**
+     * @return id of the last row of this page, null if this is the last page
+     */
+    public Long getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(Long nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * @return comma separated cursors of the previous pages, kept by the view to page back
+     */
+    public String getCursorHistory() {
+        if (cursorHistory != null) {
+            return cursorHistory.replaceAll("[^0-9,]", "");
+        }
+        return null;
+    }
+
+    public void setCursorHistory(String cursorHistory) {
+        this.cursorHistory = cursorHistory;
+    }
+
+    /**
+     * @return number of rows in the list over all pages, null if not paged
+     */
+    public Long getTotalCount() {
+        return totalCount;
+    }
+
+    public void setTotalCount(Long totalCount) {
+        this.totalCount = totalCount;
+    }
 }
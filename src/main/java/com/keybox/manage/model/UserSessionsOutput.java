@@ -17,11 +17,14 @@ package com.keybox.manage.model;
 
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 
 public class UserSessionsOutput {
 
     //instance id, host output
     Map<Integer, SessionOutput> sessionOutputMap = new ConcurrentHashMap<Integer,SessionOutput>();
+    //pattern counted in the output of the session, null if matching is off
+    volatile Pattern matchPattern;
 
 
     public Map<Integer, SessionOutput> getSessionOutputMap() {
@@ -31,6 +34,14 @@ public class UserSessionsOutput {
     public void setSessionOutputMap(Map<Integer, SessionOutput> sessionOutputMap) {
         this.sessionOutputMap = sessionOutputMap;
     }
+
+    public Pattern getMatchPattern() {
+        return matchPattern;
+    }
+
+    public void setMatchPattern(Pattern matchPattern) {
+        this.matchPattern = matchPattern;
+    }
 }
 
 
@@ -0,0 +1,161 @@
+/**
+ * Copyright 2013 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.servlet;
+
+import com.keybox.common.util.AppConfig;
+import com.keybox.manage.util.DBCache;
+import com.keybox.manage.util.DSPool;
+import com.keybox.manage.util.KeyBoxMetrics;
+import com.keybox.manage.util.SessionOutputUtil;
+import com.keybox.manage.util.TerminalMetrics;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.security.MessageDigest;
+import java.util.Map;
+
+/**
+ * Serves the application metrics in the Prometheus text format and registers
+ * them as a JMX MBean. Turned on with metricsEnabled, scrapes must send the
+ * metricsToken as a bearer token and /metrics is not served until one is set.
+ */
+@WebServlet(name = "MetricsServlet",
+        urlPatterns = {"/metrics"},
+        loadOnStartup = 2)
+public class MetricsServlet extends HttpServlet {
+
+    private static final boolean metricsEnabled = "true".equals(AppConfig.getProperty("metricsEnabled"));
+    private static final String metricsToken = AppConfig.getProperty("metricsToken");
+
+    @Override
+    public void init(ServletConfig config) throws ServletException {
+        super.init(config);
+        if (metricsEnabled) {
+            KeyBoxMetrics.register();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        KeyBoxMetrics.unregister();
+        super.destroy();
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+
+        if (!metricsEnabled) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        //metrics list open sessions and hosts, never served without a token
+        if (StringUtils.isEmpty(metricsToken)) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+        String auth = request.getHeader("Authorization");
+        String token = auth != null && auth.startsWith("Bearer ") ? auth.substring(7).trim() : "";
+        if (!MessageDigest.isEqual(metricsToken.getBytes("UTF-8"), token.getBytes("UTF-8"))) {
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+            return;
+        }
+
+        response.setContentType("text/plain; version=0.0.4; charset=utf-8");
+        PrintWriter out = response.getWriter();
+
+        Map<String, Long> terminalStats = TerminalMetrics.getTerminalStats();
+        writeMetric(out, "keybox_terminal_bytes_in_total", "counter", "Bytes read from terminal channels", terminalStats.get("bytes_in"));
+        writeMetric(out, "keybox_terminal_bytes_out_total", "counter", "Bytes typed to terminal channels", terminalStats.get("bytes_out"));
+
+        //instance metrics, only open instances are listed
+        out.println("# HELP keybox_terminal_instance_bytes_in_total Bytes read from the channel of the instance");
+        out.println("# TYPE keybox_terminal_instance_bytes_in_total counter");
+        for (TerminalMetrics.InstanceMetrics instance : TerminalMetrics.getInstanceMetrics()) {
+            out.println("keybox_terminal_instance_bytes_in_total" + labels(instance) + " " + instance.getBytesIn());
+        }
+        out.println("# HELP keybox_terminal_instance_bytes_out_total Bytes typed to the channel of the instance");
+        out.println("# TYPE keybox_terminal_instance_bytes_out_total counter");
+        for (TerminalMetrics.InstanceMetrics instance : TerminalMetrics.getInstanceMetrics()) {
+            out.println("keybox_terminal_instance_bytes_out_total" + labels(instance) + " " + instance.getBytesOut());
+        }
+        out.println("# HELP keybox_terminal_instance_buffered_bytes Bytes buffered for the instance until the next flush");
+        out.println("# TYPE keybox_terminal_instance_buffered_bytes gauge");
+        for (TerminalMetrics.InstanceMetrics instance : TerminalMetrics.getInstanceMetrics()) {
+            out.println("keybox_terminal_instance_buffered_bytes" + labels(instance) + " " + instance.getBufferedBytes());
+        }
+
+        writeHistogram(out, "keybox_terminal_echo_latency_seconds", "Keystroke until the echo is sent on the web socket", TerminalMetrics.echoLatency, 1000.0);
+        writeHistogram(out, "keybox_terminal_channel_echo_latency_seconds", "Keystroke until the echo is read from the channel", TerminalMetrics.channelEchoLatency, 1000.0);
+        writeHistogram(out, "keybox_terminal_serialize_seconds", "Time to serialize a flush", TerminalMetrics.serializeTime, 1000.0);
+        writeHistogram(out, "keybox_terminal_send_seconds", "Time to send a flush on the web socket", TerminalMetrics.sendTime, 1000.0);
+        writeHistogram(out, "keybox_terminal_audit_write_seconds", "Time to write a flush to the audit", TerminalMetrics.auditWriteTime, 1000.0);
+        writeHistogram(out, "keybox_terminal_flush_bytes", "Bytes sent on the web socket per flush", TerminalMetrics.flushSize, 1.0);
+
+        writeStats(out, "keybox_output_", SessionOutputUtil.getOutputStats());
+        writeStats(out, "keybox_db_pool_", DSPool.getPoolStats());
+        writeStats(out, "keybox_cache_", DBCache.getCacheStats());
+    }
+
+    private static void writeMetric(PrintWriter out, String name, String type, String help, Long value) {
+        out.println("# HELP " + name + " " + help);
+        out.println("# TYPE " + name + " " + type);
+        out.println(name + " " + (value != null ? value : 0));
+    }
+
+    /**
+     * writes a stats map as gauges named with the prefix and stat name
+     */
+    private static void writeStats(PrintWriter out, String prefix, Map<String, Long> statMap) {
+        for (Map.Entry<String, Long> entry : statMap.entrySet()) {
+            String name = prefix + entry.getKey().replaceAll("[^a-zA-Z0-9_]", "_");
+            out.println("# TYPE " + name + " gauge");
+            out.println(name + " " + entry.getValue());
+        }
+    }
+
+    /**
+     * writes a histogram, bounds and sum are divided by the scale for the unit of the metric
+     */
+    private static void writeHistogram(PrintWriter out, String name, String help, TerminalMetrics.Histogram histogram, double scale) {
+        long[] bounds = histogram.getBounds();
+        long[] cumulative = histogram.getCumulativeCounts();
+        out.println("# HELP " + name + " " + help);
+        out.println("# TYPE " + name + " histogram");
+        for (int i = 0; i < bounds.length; i++) {
+            out.println(name + "_bucket{le=\"" + format(bounds[i] / scale) + "\"} " + cumulative[i]);
+        }
+        out.println(name + "_bucket{le=\"+Inf\"} " + cumulative[cumulative.length - 1]);
+        out.println(name + "_sum " + format(histogram.getSum() / scale));
+        out.println(name + "_count " + cumulative[cumulative.length - 1]);
+    }
+
+    private static String format(double value) {
+        return value == Math.rint(value) ? Long.toString((long) value) : Double.toString(value);
+    }
+
+    private static String labels(TerminalMetrics.InstanceMetrics instance) {
+        String host = instance.getHost() != null ? instance.getHost() : "";
+        host = host.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+        return "{session_id=\"" + instance.getSessionId() + "\",instance_id=\"" + instance.getInstanceId() + "\",host=\"" + host + "\"}";
+    }
+}
@@ -23,7 +23,9 @@ import com.keybox.manage.db.UserDB;
 import com.keybox.manage.model.SchSession;
 import com.keybox.manage.model.UserSchSessions;
 import com.keybox.manage.task.SentOutputTask;
+import com.keybox.manage.util.ScriptDispatchUtil;
 import com.keybox.manage.util.SessionOutputUtil;
+import com.keybox.manage.util.TerminalMetrics;
 import org.apache.commons.lang3.StringUtils;
 
 import javax.servlet.http.HttpSession;
@@ -75,6 +77,12 @@ public class SecureShellWS {
             if (StringUtils.isNotEmpty(message)) {
                 Map jsonRoot = new Gson().fromJson(message, Map.class);
 
+                //set pattern to match in the terminal output
+                if (jsonRoot.containsKey("match")) {
+                    SessionOutputUtil.setMatchPattern(sessionId, (String) jsonRoot.get("match"));
+                    return;
+                }
+
                 String command = (String) jsonRoot.get("command");
 
                 Integer keyCode = null;
@@ -94,12 +102,20 @@ public class SecureShellWS {
                             if (keyMap.containsKey(keyCode)) {
                                 try {
                                     schSession.getCommander().write(keyMap.get(keyCode));
+                                    TerminalMetrics.keySent(sessionId, id, keyMap.get(keyCode).length);
                                 } catch (IOException ex) {
                                     log.error(ex.toString(), ex);
                                 }
                             }
-                        } else {
-                            schSession.getCommander().print(command);
+                        } else if (command != null) {
+                            //the commander encodes as UTF-8, write the bytes to count them
+                            try {
+                                byte[] bytes = command.getBytes("UTF-8");
+                                schSession.getCommander().write(bytes);
+                                TerminalMetrics.keySent(sessionId, id, bytes.length);
+                            } catch (IOException ex) {
+                                log.error(ex.toString(), ex);
+                            }
                         }
                     }
 
@@ -138,6 +154,7 @@ public class SecureShellWS {
                 schSessionMap.clear();
                 SecureShellAction.getUserSchSessionMap().remove(sessionId);
                 SessionOutputUtil.removeUserSession(sessionId);
+                ScriptDispatchUtil.removeUserSession(sessionId);
             }
         }
     }
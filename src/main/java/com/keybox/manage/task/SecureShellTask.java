@@ -15,13 +15,10 @@
  */
 package com.keybox.manage.task;
 
-import com.keybox.manage.util.SSHUtil;
 import com.keybox.manage.util.SessionOutputUtil;
 import com.keybox.manage.model.SessionOutput;
 
-import java.io.BufferedReader;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -33,6 +30,9 @@ public class SecureShellTask implements Runnable {
 
     private static Logger log = LoggerFactory.getLogger(SecureShellTask.class);
 
+    //bytes read from the channel at a time
+    private static final int READ_SIZE = 8192;
+
     InputStream outFromChannel;
     SessionOutput sessionOutput;
 
@@ -43,13 +43,12 @@ public class SecureShellTask implements Runnable {
     }
 
     public void run() {
-        InputStreamReader isr = new InputStreamReader(outFromChannel);
-        BufferedReader br = new BufferedReader(isr);
         try {
             SessionOutputUtil.addOutput(sessionOutput);
-            char[] buff = new char[SSHUtil.KEY_LENGTH];
+            //raw bytes are passed on, the output buffer decodes them as UTF-8
+            byte[] buff = new byte[READ_SIZE];
             int read;
-            while((read = br.read(buff)) != -1) {
+            while((read = outFromChannel.read(buff)) != -1) {
                 SessionOutputUtil.addToOutput(sessionOutput.getSessionId(), sessionOutput.getInstanceId(), buff,0,read);
                 Thread.sleep(50);
             }
@@ -18,11 +18,10 @@ package com.keybox.manage.task;
 import com.google.gson.Gson;
 import com.keybox.manage.model.SessionOutput;
 import com.keybox.manage.model.User;
-import com.keybox.manage.util.DBUtils;
 import com.keybox.manage.util.SessionOutputUtil;
+import com.keybox.manage.util.TerminalMetrics;
 
 import javax.websocket.Session;
-import java.sql.Connection;
 import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,20 +46,26 @@ public class SentOutputTask implements Runnable {
     public void run() {
         Gson gson = new Gson();
 
-        Connection con = DBUtils.getConn();
         while (session.isOpen()) {
-            List<SessionOutput> outputList = SessionOutputUtil.getOutput(con, sessionId, user);
+            List<SessionOutput> outputList = SessionOutputUtil.getOutput(sessionId, user);
             try {
                 if (outputList != null && !outputList.isEmpty()) {
+                    long start = System.nanoTime();
                     String json = gson.toJson(outputList);
+                    long serialized = System.nanoTime();
+                    TerminalMetrics.serializeTime.observe((serialized - start) / 1000000);
                     //send json to session
                     this.session.getBasicRemote().sendText(json);
+                    TerminalMetrics.sendTime.observe((System.nanoTime() - serialized) / 1000000);
+                    TerminalMetrics.flushSize.observe(json.length());
+                    for (SessionOutput sessionOutput : outputList) {
+                        TerminalMetrics.outputSent(sessionId, sessionOutput.getInstanceId());
+                    }
                 }
                 Thread.sleep(50);
             } catch (Exception ex) {
                 log.error(ex.toString(), ex);
             }
         }
-        DBUtils.closeConn(con);
     }
 }
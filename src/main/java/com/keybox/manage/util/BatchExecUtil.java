@@ -0,0 +1,274 @@
+/**
+ * Copyright 2013 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.util;
+
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.Session;
+import com.keybox.common.util.AppConfig;
+import com.keybox.manage.db.SessionAuditDB;
+import com.keybox.manage.model.BatchResult;
+import com.keybox.manage.model.BatchRun;
+import com.keybox.manage.model.HostSystem;
+import com.keybox.manage.model.SessionOutput;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Utility to run a command on many host systems over exec channels. No terminal
+ * is allocated, stdout, stderr and the exit code are collected for each host and
+ * written to the session audit as the hosts finish.
+ */
+public class BatchExecUtil {
+
+    private static Logger log = LoggerFactory.getLogger(BatchExecUtil.class);
+
+    //number of hosts the command runs on at the same time
+    public static final int BATCH_THREADS = StringUtils.isNumeric(AppConfig.getProperty("batchExecThreads")) ? Integer.parseInt(AppConfig.getProperty("batchExecThreads")) : 16;
+    //max seconds a command may run on a host
+    public static final int BATCH_TIMEOUT = StringUtils.isNumeric(AppConfig.getProperty("batchExecTimeout")) ? Integer.parseInt(AppConfig.getProperty("batchExecTimeout")) : 300;
+    //max bytes kept of stdout and of stderr for each host
+    public static final int MAX_OUTPUT = StringUtils.isNumeric(AppConfig.getProperty("batchExecMaxOutput")) ? Integer.parseInt(AppConfig.getProperty("batchExecMaxOutput")) : 65536;
+    //runs kept in memory for the results page, older runs are only in the session audit
+    private static final int MAX_RUNS = 20;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final Map<Long, BatchRun> runMap = Collections.synchronizedMap(new LinkedHashMap<Long, BatchRun>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, BatchRun> eldest) {
+            return size() > MAX_RUNS;
+        }
+    });
+
+    private static ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, BATCH_THREADS), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "batch-exec");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private BatchExecUtil() {
+    }
+
+    /**
+     * starts a batch run of the command on the host systems and returns without
+     * waiting for the hosts. The run is logged as a session in the session audit.
+     *
+     * @param userId         user id
+     * @param command        command or script to run
+     * @param hostSystemList host systems with application keys
+     * @return batch run
+     */
+    public static BatchRun runBatch(Long userId, String command, List<HostSystem> hostSystemList) {
+
+        final BatchRun batchRun = new BatchRun();
+        batchRun.setId(SessionAuditDB.createSessionLog(userId));
+        batchRun.setUserId(userId);
+        batchRun.setCommand(command);
+        batchRun.setTotal(hostSystemList.size());
+        if (batchRun.getId() == null) {
+            return null;
+        }
+        runMap.put(batchRun.getId(), batchRun);
+
+        int instanceId = 1;
+        for (final HostSystem hostSystem : hostSystemList) {
+            hostSystem.setInstanceId(instanceId++);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    BatchResult batchResult;
+                    try {
+                        batchResult = exec(batchRun.getId(), batchRun.getCommand(), hostSystem);
+                    } catch (RuntimeException e) {
+                        log.error(e.toString(), e);
+                        batchResult = new BatchResult(batchRun.getId(), hostSystem);
+                        SSHUtil.setFailStatus(batchResult, e);
+                    }
+                    //always add the result so the run finishes
+                    try {
+                        auditResult(batchRun, batchResult);
+                    } catch (RuntimeException e) {
+                        log.error(e.toString(), e);
+                    } finally {
+                        batchRun.getResultList().add(batchResult);
+                    }
+                }
+            });
+        }
+        return batchRun;
+    }
+
+    /**
+     * returns a batch run that is still held in memory
+     *
+     * @param runId batch run id
+     * @return batch run or null
+     */
+    public static BatchRun getBatchRun(Long runId) {
+        return runMap.get(runId);
+    }
+
+    /**
+     * runs the command on the host system over an exec channel
+     *
+     * @param runId      batch run id
+     * @param command    command to run
+     * @param hostSystem host system with application key
+     * @return result with output and exit code
+     */
+    public static BatchResult exec(Long runId, String command, HostSystem hostSystem) {
+
+        BatchResult batchResult = new BatchResult(runId, hostSystem);
+        batchResult.setStatusCd(HostSystem.SUCCESS_STATUS);
+        if (hostSystem.getApplicationKey() == null) {
+            batchResult.setErrorMsg("System Key disabled");
+            batchResult.setStatusCd(HostSystem.PRIVAT_KEY_FAIL_STATUS);
+            return batchResult;
+        }
+
+        CappedOutputStream stdout = new CappedOutputStream();
+        CappedOutputStream stderr = new CappedOutputStream();
+        Session session = null;
+        ChannelExec channel = null;
+        try {
+            session = SSHUtil.connect(hostSystem, null, null);
+            channel = (ChannelExec) session.openChannel("exec");
+            channel.setCommand(command);
+            channel.setInputStream(null);
+            //streams are written by the session thread and closed on end of output
+            channel.setOutputStream(stdout, false);
+            channel.setErrStream(stderr, true);
+            channel.connect(SSHUtil.CHANNEL_TIMEOUT);
+
+            long deadline = System.currentTimeMillis() + BATCH_TIMEOUT * 1000L;
+            if (!stdout.await(deadline - System.currentTimeMillis())) {
+                batchResult.setErrorMsg("Timed out after " + BATCH_TIMEOUT + " seconds");
+                batchResult.setStatusCd(HostSystem.GENERIC_FAIL_STATUS);
+            } else {
+                //exit status arrives with the channel close, shortly after the output
+                while (!channel.isClosed() && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                if (channel.isClosed() && channel.getExitStatus() >= 0) {
+                    batchResult.setExitCode(channel.getExitStatus());
+                }
+            }
+        } catch (Exception e) {
+            log.info(e.toString(), e);
+            SSHUtil.setFailStatus(batchResult, e);
+        } finally {
+            if (channel != null) {
+                channel.disconnect();
+            }
+            if (session != null) {
+                session.disconnect();
+            }
+        }
+        batchResult.setStdout(stdout.toString());
+        batchResult.setStderr(stderr.toString());
+        batchResult.setTruncated(stdout.truncated || stderr.truncated);
+        return batchResult;
+    }
+
+    /**
+     * writes the result to the terminal log of the batch run session
+     *
+     * @param batchRun    batch run
+     * @param batchResult result for host
+     */
+    private static void auditResult(BatchRun batchRun, BatchResult batchResult) {
+        StringBuilder output = new StringBuilder();
+        output.append("$ ").append(batchRun.getCommand()).append("\n");
+        if (StringUtils.isNotEmpty(batchResult.getStdout())) {
+            output.append(batchResult.getStdout());
+        }
+        if (StringUtils.isNotEmpty(batchResult.getStderr())) {
+            output.append(batchResult.getStderr());
+        }
+        if (output.charAt(output.length() - 1) != '\n') {
+            output.append("\n");
+        }
+        if (batchResult.isTruncated()) {
+            output.append("[output truncated at ").append(MAX_OUTPUT).append(" bytes]\n");
+        }
+        if (batchResult.getExitCode() != null) {
+            output.append("[exit code ").append(batchResult.getExitCode()).append("]\n");
+        } else {
+            output.append("[").append(batchResult.getErrorMsg()).append("]\n");
+        }
+
+        SessionOutput sessionOutput = new SessionOutput(batchRun.getId(), batchResult);
+        //no terminal on an exec channel, add carriage returns for the audit terminal
+        sessionOutput.setOutput(new StringBuilder(output.toString().replaceAll("\r?\n", "\r\n")));
+        SessionAuditDB.insertTerminalLog(sessionOutput);
+    }
+
+    /**
+     * output stream that keeps up to the max output size and signals when closed
+     */
+    private static class CappedOutputStream extends OutputStream {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final CountDownLatch closed = new CountDownLatch(1);
+        boolean truncated = false;
+
+        @Override
+        public synchronized void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            int keep = Math.min(len, MAX_OUTPUT - out.size());
+            if (keep > 0) {
+                out.write(b, off, keep);
+            }
+            if (keep < len) {
+                truncated = true;
+            }
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+
+        boolean await(long millis) throws InterruptedException {
+            return millis > 0 && closed.await(millis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public synchronized String toString() {
+            return new String(out.toByteArray(), UTF8);
+        }
+    }
+}
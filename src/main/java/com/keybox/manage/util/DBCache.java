@@ -0,0 +1,180 @@
+/**
+ * Copyright 2013 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.util;
+
+import com.keybox.common.util.AppConfig;
+import com.keybox.manage.model.ApplicationKey;
+import com.keybox.manage.model.HostSystem;
+import com.keybox.manage.model.Profile;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process wide cache of systems, application keys and the profile mappings. The DAOs
+ * load entries on a miss and invalidate them after their writes. Entries expire after
+ * dbCacheTTL seconds so changes made by other nodes sharing the DB are picked up
+ */
+public class DBCache {
+
+    //seconds an entry is kept, 0 disables the cache
+    public static final long CACHE_TTL = StringUtils.isNumeric(AppConfig.getProperty("dbCacheTTL")) ? Long.parseLong(AppConfig.getProperty("dbCacheTTL")) : 300;
+
+    //system id -> system with its active application key
+    public static final Region<HostSystem> SYSTEMS = new Region<HostSystem>("systems");
+    //application key id -> application key
+    public static final Region<ApplicationKey> APPLICATION_KEYS = new Region<ApplicationKey>("applicationKeys");
+    //profile id -> system ids ordered by display name
+    public static final Region<List<Long>> PROFILE_SYSTEMS = new Region<List<Long>>("profileSystems");
+    //user id -> profiles ordered by name
+    public static final Region<List<Profile>> USER_PROFILES = new Region<List<Profile>>("userProfiles");
+
+    private static final List<Region<?>> regionList = Arrays.<Region<?>>asList(SYSTEMS, APPLICATION_KEYS, PROFILE_SYSTEMS, USER_PROFILES);
+
+    private DBCache() {
+    }
+
+    /**
+     * returns the hits, misses and size of each cache region
+     *
+     * @return map of stat name to value
+     */
+    public static Map<String, Long> getCacheStats() {
+        Map<String, Long> statMap = new LinkedHashMap<String, Long>();
+        for (Region<?> region : regionList) {
+            statMap.put(region.name + ".hits", region.hits.get());
+            statMap.put(region.name + ".misses", region.misses.get());
+            statMap.put(region.name + ".size", (long) region.entryMap.size());
+        }
+        return statMap;
+    }
+
+    /**
+     * clears all cache regions
+     */
+    public static void invalidateAll() {
+        for (Region<?> region : regionList) {
+            region.invalidateAll();
+        }
+    }
+
+    /**
+     * cache region keyed by id. Values are shared between threads, callers store and
+     * hand out copies of mutable objects.
+     * <br><br>
+     * A loader takes the generation before it reads the DB and passes it to put, so a
+     * value read before an invalidation is not stored after it
+     *
+     * @param <V> cached value
+     */
+    public static class Region<V> {
+
+        private final String name;
+        private final ConcurrentHashMap<Long, Entry<V>> entryMap = new ConcurrentHashMap<Long, Entry<V>>();
+        private final AtomicLong generation = new AtomicLong();
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+
+        Region(String name) {
+            this.name = name;
+        }
+
+        /**
+         * returns the current generation, taken before loading a value from the DB
+         *
+         * @return generation
+         */
+        public long getGeneration() {
+            return generation.get();
+        }
+
+        /**
+         * returns the cached value
+         *
+         * @param key id
+         * @return value or null on a miss or expired entry
+         */
+        public V get(Long key) {
+            Entry<V> entry = key != null ? entryMap.get(key) : null;
+            if (entry != null && System.currentTimeMillis() < entry.expireTm) {
+                hits.incrementAndGet();
+                return entry.value;
+            }
+            if (entry != null) {
+                entryMap.remove(key, entry);
+            }
+            misses.incrementAndGet();
+            return null;
+        }
+
+        /**
+         * stores a value loaded from the DB
+         *
+         * @param key        id
+         * @param value      value
+         * @param generation generation taken before the value was loaded
+         */
+        public void put(Long key, V value, long generation) {
+            if (CACHE_TTL <= 0 || key == null || value == null || generation != this.generation.get()) {
+                return;
+            }
+            Entry<V> entry = new Entry<V>(value, System.currentTimeMillis() + CACHE_TTL * 1000);
+            entryMap.put(key, entry);
+            //drop the entry if it was invalidated while being stored
+            if (generation != this.generation.get()) {
+                entryMap.remove(key, entry);
+            }
+        }
+
+        /**
+         * removes a value after a write
+         *
+         * @param key id
+         */
+        public void invalidate(Long key) {
+            generation.incrementAndGet();
+            if (key != null) {
+                entryMap.remove(key);
+            }
+        }
+
+        /**
+         * removes all values after a write that affects many entries
+         */
+        public void invalidateAll() {
+            generation.incrementAndGet();
+            entryMap.clear();
+        }
+    }
+
+    /**
+     * cached value with its expire time
+     */
+    private static class Entry<V> {
+        final V value;
+        final long expireTm;
+
+        Entry(V value, long expireTm) {
+            this.value = value;
+            this.expireTm = expireTm;
+        }
+    }
+}
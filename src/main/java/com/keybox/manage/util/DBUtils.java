@@ -37,7 +37,7 @@ public class DBUtils {
     public static Connection getConn() {
         Connection con = null;
         try{
-            con=DSPool.getDataSource().getConnection();
+            con=DSPool.getConnection();
 
         } catch (Exception ex) {
             log.error(ex.toString(), ex);
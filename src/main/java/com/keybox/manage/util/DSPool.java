@@ -15,24 +15,70 @@
  */
 package com.keybox.manage.util;
 
+import com.keybox.common.util.AppConfig;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
 import org.apache.commons.dbcp.*;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.pool.impl.GenericObjectPool;
+import org.h2.tools.Server;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
- * Class to create a pooling data source object using commons DBCP
+ * Class to create a pooling data source object using commons DBCP or HikariCP
  *
  */
 public class DSPool {
 
     private static Logger log = LoggerFactory.getLogger(DSPool.class);
 
+    public static final String POOL_TYPE_DBCP = "dbcp";
+    public static final String POOL_TYPE_HIKARI = "hikari";
+
+    public static final String DB_MODE_EMBEDDED = "embedded";
+    public static final String DB_MODE_SERVER = "server";
+    public static final String DB_MODE_CLIENT = "client";
+
     //system path to the H2 DB
     private static String DB_PATH = DBUtils.class.getClassLoader().getResource("keydb").getPath();
 
+    //pool implementation - 'dbcp' or 'hikari'
+    private static final String POOL_TYPE = StringUtils.isNotEmpty(AppConfig.getProperty("dbPoolType")) ? AppConfig.getProperty("dbPoolType") : POOL_TYPE_DBCP;
+    private static final int MAX_ACTIVE = getIntProperty("dbPoolMaxActive", 25);
+    private static final int MIN_IDLE = getIntProperty("dbPoolMinIdle", 2);
+    private static final int MAX_WAIT = getIntProperty("dbPoolMaxWait", 15000);
+    //max milliseconds an idle connection goes unvalidated - DBCP tests idle connections in the background at
+    //this interval, Hikari tests a connection on borrow once it has been unused this long
+    private static final int VALIDATION_INTERVAL = getIntProperty("dbPoolValidationInterval", getIntProperty("dbPoolValidationIdleTime", 30000));
+    //connections idle for longer than this are closed down to the min idle count
+    private static final int IDLE_TIMEOUT = getIntProperty("dbPoolIdleTimeout", 600000);
+
+    //H2 access mode - 'embedded', 'server' (embedded plus TCP server for other nodes) or 'client'
+    private static final String DB_MODE = StringUtils.isNotEmpty(AppConfig.getProperty("dbMode")) ? AppConfig.getProperty("dbMode") : DB_MODE_EMBEDDED;
+    private static final String DB_SERVER_HOST = StringUtils.isNotEmpty(AppConfig.getProperty("dbServerHost")) ? AppConfig.getProperty("dbServerHost") : "localhost";
+    private static final int DB_SERVER_PORT = getIntProperty("dbServerPort", 9092);
+
+    private static Server tcpServer;
 
-    private static PoolingDataSource dsPool;
+    private static volatile DataSource dsPool;
+    private static GenericObjectPool dbcpPool;
+    private static HikariDataSource hikariPool;
+
+    private static AtomicLong borrowCount = new AtomicLong();
+    private static AtomicLong totalWaitTime = new AtomicLong();
+    private static AtomicLong maxWaitTime = new AtomicLong();
+    private static AtomicLong timeoutCount = new AtomicLong();
 
 
     /**
@@ -40,44 +86,252 @@ public class DSPool {
      *
      * @return data source pool
      */
-    public static org.apache.commons.dbcp.PoolingDataSource getDataSource() {
+    public static DataSource getDataSource() {
         if (dsPool == null) {
-            dsPool = registerDataSource();
+            synchronized (DSPool.class) {
+                if (dsPool == null) {
+                    dsPool = registerDataSource();
+                }
+            }
         }
         return dsPool;
     }
 
+    /**
+     * borrows a connection from the pool and records the wait time
+     *
+     * @return DB connection
+     * @throws SQLException if no connection could be borrowed within the max wait
+     */
+    public static Connection getConnection() throws SQLException {
+        DataSource dataSource = getDataSource();
+        long start = System.nanoTime();
+        try {
+            Connection con = dataSource.getConnection();
+            long wait = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            borrowCount.incrementAndGet();
+            totalWaitTime.addAndGet(wait);
+            long max = maxWaitTime.get();
+            while (wait > max && !maxWaitTime.compareAndSet(max, wait)) {
+                max = maxWaitTime.get();
+            }
+            return con;
+        } catch (SQLException ex) {
+            if (TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= MAX_WAIT) {
+                timeoutCount.incrementAndGet();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * returns pool metrics
+     *
+     * @return map of metric name / value
+     */
+    public static Map<String, Long> getPoolStats() {
+        Map<String, Long> statMap = new LinkedHashMap<String, Long>();
+        long active = 0;
+        long idle = 0;
+        long waiting = 0;
+        if (hikariPool != null && hikariPool.getHikariPoolMXBean() != null) {
+            active = hikariPool.getHikariPoolMXBean().getActiveConnections();
+            idle = hikariPool.getHikariPoolMXBean().getIdleConnections();
+            waiting = hikariPool.getHikariPoolMXBean().getThreadsAwaitingConnection();
+        } else if (dbcpPool != null) {
+            active = dbcpPool.getNumActive();
+            idle = dbcpPool.getNumIdle();
+        }
+        long borrows = borrowCount.get();
+        statMap.put("active", active);
+        statMap.put("idle", idle);
+        statMap.put("max_active", (long) MAX_ACTIVE);
+        statMap.put("threads_waiting", waiting);
+        statMap.put("borrow_count", borrows);
+        statMap.put("avg_wait_ms", borrows > 0 ? totalWaitTime.get() / borrows : 0L);
+        statMap.put("max_wait_ms", maxWaitTime.get());
+        statMap.put("timeout_count", timeoutCount.get());
+        return statMap;
+    }
+
     /**
      * register the data source for H2 DB
      *
      * @return pooling database object
      */
-    private static PoolingDataSource registerDataSource() {
+    private static DataSource registerDataSource() {
 
         // create a database connection
         String user = "keybox";
         String password = "filepwd 45WJLnwhpA47EepT162hrVnDn3vYRvJhpZi0sVdvN9Sdsf";
-        String connectionURI = "jdbc:h2:" + DB_PATH + "/keybox;CIPHER=AES";
+        String connectionURI = getConnectionURI();
 
-        String validationQuery = "select 1";
         try {
             Class.forName("org.h2.Driver");
         } catch (ClassNotFoundException ex) {
             log.error(ex.toString(), ex);
         }
 
+        if (DB_MODE_SERVER.equalsIgnoreCase(DB_MODE)) {
+            startTcpServer();
+        }
+
+        log.info("Registering " + POOL_TYPE + " connection pool with max active " + MAX_ACTIVE);
+        if (POOL_TYPE_HIKARI.equalsIgnoreCase(POOL_TYPE)) {
+            return registerHikariDataSource(connectionURI, user, password);
+        }
+        return registerDbcpDataSource(connectionURI, user, password);
+    }
+
+    /**
+     * returns the JDBC url for the configured H2 mode and storage options
+     *
+     * @return JDBC url
+     */
+    private static String getConnectionURI() {
+        String connectionURI;
+        if (DB_MODE_CLIENT.equalsIgnoreCase(DB_MODE)) {
+            //path is relative to the base dir of the TCP server
+            connectionURI = "jdbc:h2:tcp://" + DB_SERVER_HOST + ":" + DB_SERVER_PORT + "/keybox;CIPHER=AES";
+        } else {
+            //in server mode this node stays embedded and shares the open DB with the TCP server in the same JVM
+            connectionURI = "jdbc:h2:" + DB_PATH + "/keybox;CIPHER=AES";
+        }
+
+        //storage options are only set when configured so H2 keeps picking the store that matches the existing DB file
+        String mvStore = AppConfig.getProperty("dbMVStore");
+        if (StringUtils.isNotEmpty(mvStore)) {
+            connectionURI += ";MV_STORE=" + Boolean.parseBoolean(mvStore);
+        }
+        if (StringUtils.isNumeric(AppConfig.getProperty("dbCacheSize")) && StringUtils.isNotEmpty(AppConfig.getProperty("dbCacheSize"))) {
+            connectionURI += ";CACHE_SIZE=" + AppConfig.getProperty("dbCacheSize");
+        }
+        if (StringUtils.isNumeric(AppConfig.getProperty("dbWriteDelay")) && StringUtils.isNotEmpty(AppConfig.getProperty("dbWriteDelay"))) {
+            connectionURI += ";WRITE_DELAY=" + AppConfig.getProperty("dbWriteDelay");
+        }
+        if ("true".equals(AppConfig.getProperty("dbCompress"))) {
+            connectionURI += ";COMPRESS=TRUE";
+        }
+        return connectionURI;
+    }
+
+    /**
+     * starts an H2 TCP server on the DB directory so other KeyBox nodes can share the store
+     */
+    private static void startTcpServer() {
+        try {
+            List<String> argList = new ArrayList<String>();
+            argList.add("-tcpPort");
+            argList.add(Integer.toString(DB_SERVER_PORT));
+            argList.add("-baseDir");
+            argList.add(DB_PATH);
+            if ("true".equals(AppConfig.getProperty("dbServerAllowOthers"))) {
+                argList.add("-tcpAllowOthers");
+            }
+            tcpServer = Server.createTcpServer(argList.toArray(new String[argList.size()])).start();
+            log.info("H2 TCP server started on " + tcpServer.getURL());
+        } catch (SQLException ex) {
+            log.error(ex.toString(), ex);
+        }
+    }
+
+    /**
+     * closes the pool and stops the TCP server if one was started
+     */
+    public static synchronized void shutdown() {
+        if (hikariPool != null) {
+            hikariPool.close();
+            hikariPool = null;
+        }
+        if (dbcpPool != null) {
+            try {
+                dbcpPool.close();
+            } catch (Exception ex) {
+                log.error(ex.toString(), ex);
+            }
+            dbcpPool = null;
+        }
+        dsPool = null;
+        if (tcpServer != null) {
+            tcpServer.stop();
+            tcpServer = null;
+        }
+    }
+
+    /**
+     * register a commons DBCP data source that validates idle connections in the background
+     *
+     * @param connectionURI JDBC url
+     * @param user DB user
+     * @param password DB password
+     * @return pooling database object
+     */
+    private static DataSource registerDbcpDataSource(String connectionURI, String user, String password) {
+
+        String validationQuery = "select 1";
+
         GenericObjectPool connectionPool = new GenericObjectPool(null);
 
-        connectionPool.setMaxActive(25);
-        connectionPool.setTestOnBorrow(true);
-        connectionPool.setMinIdle(2);
-        connectionPool.setMaxWait(15000);
+        connectionPool.setMaxActive(MAX_ACTIVE);
+        connectionPool.setMaxIdle(MAX_ACTIVE);
+        connectionPool.setMinIdle(MIN_IDLE);
+        connectionPool.setMaxWait(MAX_WAIT);
         connectionPool.setWhenExhaustedAction(GenericObjectPool.WHEN_EXHAUSTED_BLOCK);
+        //validate idle connections from the evictor instead of on every borrow
+        connectionPool.setTestOnBorrow(false);
+        connectionPool.setTestWhileIdle(true);
+        connectionPool.setTimeBetweenEvictionRunsMillis(VALIDATION_INTERVAL);
+        connectionPool.setNumTestsPerEvictionRun(MAX_ACTIVE);
+        connectionPool.setMinEvictableIdleTimeMillis(IDLE_TIMEOUT);
 
         ConnectionFactory connectionFactory = new DriverManagerConnectionFactory(connectionURI, user, password);
 
         new PoolableConnectionFactory(connectionFactory, connectionPool, null, validationQuery, false, true);
+        dbcpPool = connectionPool;
         return new PoolingDataSource(connectionPool);
     }
-}
 
+    /**
+     * register a HikariCP data source
+     *
+     * @param connectionURI JDBC url
+     * @param user DB user
+     * @param password DB password
+     * @return pooling database object
+     */
+    private static DataSource registerHikariDataSource(String connectionURI, String user, String password) {
+
+        //hikari only validates connections that have been idle longer than the bypass window, which is a
+        //JVM wide system property, so a value set on the command line is kept
+        if (System.getProperty("com.zaxxer.hikari.aliveBypassWindowMs") == null) {
+            System.setProperty("com.zaxxer.hikari.aliveBypassWindowMs", Integer.toString(VALIDATION_INTERVAL));
+        }
+
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("keybox");
+        config.setDriverClassName("org.h2.Driver");
+        config.setJdbcUrl(connectionURI);
+        config.setUsername(user);
+        config.setPassword(password);
+        config.setMaximumPoolSize(MAX_ACTIVE);
+        config.setMinimumIdle(MIN_IDLE);
+        config.setConnectionTimeout(MAX_WAIT);
+        config.setIdleTimeout(IDLE_TIMEOUT);
+        config.setAutoCommit(true);
+
+        hikariPool = new HikariDataSource(config);
+        return hikariPool;
+    }
+
+    /**
+     * returns a numeric property or the default
+     *
+     * @param name property name
+     * @param defaultValue default value
+     * @return property value
+     */
+    private static int getIntProperty(String name, int defaultValue) {
+        String value = AppConfig.getProperty(name);
+        return StringUtils.isNumeric(value) && StringUtils.isNotEmpty(value) ? Integer.parseInt(value) : defaultValue;
+    }
+}
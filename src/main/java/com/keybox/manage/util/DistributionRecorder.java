@@ -0,0 +1,135 @@
+/**
+ * Copyright 2013 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.util;
+
+import com.keybox.common.util.AppConfig;
+import com.keybox.manage.db.DistributionRunDB;
+import com.keybox.manage.model.DistributionHost;
+import com.keybox.manage.model.DistributionRun;
+import com.keybox.manage.model.HostSystem;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Records the timings of key distribution runs. A host is recorded on the thread
+ * that distributes to it, SSHUtil adds the phase timings to the current host.
+ */
+public class DistributionRecorder {
+
+    //days distribution runs are kept
+    public static final int RUN_RETENTION = StringUtils.isNumeric(AppConfig.getProperty("distributionRunRetention")) ? Integer.parseInt(AppConfig.getProperty("distributionRunRetention")) : 30;
+
+    private static final ThreadLocal<DistributionHost> currentHost = new ThreadLocal<DistributionHost>();
+    private static final ThreadLocal<Long> currentHostStart = new ThreadLocal<Long>();
+
+    private DistributionRecorder() {
+    }
+
+    /**
+     * starts a new run
+     *
+     * @param runType type of run
+     * @return distribution run
+     */
+    public static DistributionRun startRun(String runType) {
+        DistributionRun run = new DistributionRun();
+        run.setRunType(runType);
+        return run;
+    }
+
+    /**
+     * starts recording the distribution to a host on the current thread
+     *
+     * @param hostSystem host system
+     */
+    public static void startHost(HostSystem hostSystem) {
+        DistributionHost host = new DistributionHost();
+        host.setSystemId(hostSystem.getId());
+        currentHost.set(host);
+        currentHostStart.set(System.currentTimeMillis());
+    }
+
+    /**
+     * returns true if a host is being recorded on the current thread
+     *
+     * @return true if recording
+     */
+    public static boolean isRecording() {
+        return currentHost.get() != null;
+    }
+
+    public static void setConnectTime(long millis) {
+        DistributionHost host = currentHost.get();
+        if (host != null) {
+            host.setConnectMs((int) millis);
+        }
+    }
+
+    public static void setAuthTime(long millis) {
+        DistributionHost host = currentHost.get();
+        if (host != null) {
+            host.setAuthMs((int) millis);
+        }
+    }
+
+    public static void setTransferTime(long millis) {
+        DistributionHost host = currentHost.get();
+        if (host != null) {
+            host.setTransferMs((int) millis);
+        }
+    }
+
+    public static void setVerifyTime(long millis) {
+        DistributionHost host = currentHost.get();
+        if (host != null) {
+            host.setVerifyMs((int) millis);
+        }
+    }
+
+    /**
+     * finishes the host on the current thread and adds it to the run
+     *
+     * @param run        distribution run
+     * @param hostSystem host system with the distribution status
+     */
+    public static void endHost(DistributionRun run, HostSystem hostSystem) {
+        DistributionHost host = currentHost.get();
+        if (host != null) {
+            host.setStatusCd(hostSystem.getStatusCd());
+            if (!HostSystem.SUCCESS_STATUS.equals(hostSystem.getStatusCd())) {
+                host.setErrorMsg(StringUtils.abbreviate(hostSystem.getErrorMsg(), 255));
+                run.setFailCount(run.getFailCount() + 1);
+            }
+            host.setTotalMs((int) (System.currentTimeMillis() - currentHostStart.get()));
+            run.getHostList().add(host);
+            run.setHostCount(run.getHostList().size());
+        }
+        currentHost.remove();
+        currentHostStart.remove();
+    }
+
+    /**
+     * finishes the run and stores it
+     *
+     * @param run distribution run
+     */
+    public static void endRun(DistributionRun run) {
+        if (run.getHostList().isEmpty()) {
+            return;
+        }
+        run.setDurationMs(System.currentTimeMillis() - run.getStartTm().getTime());
+        DistributionRunDB.insertRun(run, RUN_RETENTION);
+    }
+}
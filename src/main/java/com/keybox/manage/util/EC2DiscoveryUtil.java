@@ -0,0 +1,193 @@
+/**
+ * Copyright 2013 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.util;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.AmazonEC2Client;
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.Filter;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.Reservation;
+import com.keybox.common.util.AppConfig;
+import com.keybox.manage.db.AWSCredDB;
+import com.keybox.manage.db.PrivateKeyDB;
+import com.keybox.manage.model.AWSCred;
+import com.keybox.manage.model.ApplicationKey;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Utility to discover EC2 instances for all AWS credentials and regions in parallel
+ */
+public class EC2DiscoveryUtil {
+
+    private static Logger log = LoggerFactory.getLogger(EC2DiscoveryUtil.class);
+
+    //number of region queries that run at the same time
+    public static final int DISCOVERY_THREADS = StringUtils.isNumeric(AppConfig.getProperty("ec2DiscoveryThreads")) ? Integer.parseInt(AppConfig.getProperty("ec2DiscoveryThreads")) : 8;
+    //max seconds to wait for a full discovery pass
+    public static final int DISCOVERY_TIMEOUT = StringUtils.isNumeric(AppConfig.getProperty("ec2DiscoveryTimeout")) ? Integer.parseInt(AppConfig.getProperty("ec2DiscoveryTimeout")) : 120;
+
+    //EC2 clients are thread safe and expensive to build, cache by credential and region
+    private static Map<String, AmazonEC2> clientMap = new ConcurrentHashMap<String, AmazonEC2>();
+
+    private static ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, DISCOVERY_THREADS), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "ec2-discovery");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private EC2DiscoveryUtil() {
+    }
+
+    /**
+     * returns a cached EC2 client for the credential and region
+     *
+     * @param awsCred   AWS credential
+     * @param ec2Region EC2 region endpoint
+     * @return EC2 client
+     */
+    public static AmazonEC2 getClient(AWSCred awsCred, String ec2Region) {
+        String clientKey = awsCred.getAccessKey() + ":" + awsCred.getSecretKey().hashCode() + ":" + ec2Region;
+        AmazonEC2 service = clientMap.get(clientKey);
+        if (service == null) {
+            service = new AmazonEC2Client(new BasicAWSCredentials(awsCred.getAccessKey(), awsCred.getSecretKey()), AWSClientConfig.getClientConfig());
+            service.setEndpoint(ec2Region);
+            clientMap.put(clientKey, service);
+        }
+        return service;
+    }
+
+    /**
+     * returns all instances for the filters following the NextToken of each result page
+     *
+     * @param service EC2 client
+     * @param filterList filters for the request
+     * @return instance list
+     */
+    public static List<Instance> describeInstances(AmazonEC2 service, List<Filter> filterList) {
+        List<Instance> instanceList = new ArrayList<Instance>();
+        String nextToken = null;
+        do {
+            DescribeInstancesRequest describeInstancesRequest = new DescribeInstancesRequest().withFilters(filterList).withNextToken(nextToken);
+            DescribeInstancesResult describeInstancesResult = service.describeInstances(describeInstancesRequest);
+            for (Reservation res : describeInstancesResult.getReservations()) {
+                instanceList.addAll(res.getInstances());
+            }
+            nextToken = describeInstancesResult.getNextToken();
+        } while (StringUtils.isNotEmpty(nextToken));
+
+        return instanceList;
+    }
+
+    /**
+     * returns the enabled EC2 keys for each region that has at least one
+     *
+     * @return map of region to key name / key
+     */
+    public static Map<String, Map<String, ApplicationKey>> getEnabledEC2Keys() {
+        Map<String, Map<String, ApplicationKey>> regionKeyMap = new LinkedHashMap<String, Map<String, ApplicationKey>>();
+        for (String ec2Region : PrivateKeyDB.getEC2Regions()) {
+            Map<String, ApplicationKey> keyMap = new LinkedHashMap<String, ApplicationKey>();
+            for (ApplicationKey ec2Key : PrivateKeyDB.getEC2KeyByRegion(ec2Region)) {
+                if (ec2Key.isEnabled()) {
+                    keyMap.put(ec2Key.getKeyname(), ec2Key);
+                }
+            }
+            if (!keyMap.isEmpty()) {
+                regionKeyMap.put(ec2Region, keyMap);
+            }
+        }
+        return regionKeyMap;
+    }
+
+    /**
+     * queries every valid credential and region in parallel for instances started with an enabled EC2 key
+     *
+     * @param regionKeyMap enabled keys per region from {@link #getEnabledEC2Keys()}
+     * @return map of region to discovered instances, regions where any query failed are left out
+     */
+    public static Map<String, List<Instance>> discoverInstances(Map<String, Map<String, ApplicationKey>> regionKeyMap) {
+
+        Map<String, List<Instance>> regionInstanceMap = new LinkedHashMap<String, List<Instance>>();
+        List<String> regionList = new ArrayList<String>();
+        List<Future<List<Instance>>> futureList = new ArrayList<Future<List<Instance>>>();
+
+        for (AWSCred awsCred : AWSCredDB.getAWSCredList()) {
+            if (awsCred != null && awsCred.isValid()) {
+                for (final String ec2Region : regionKeyMap.keySet()) {
+                    final AmazonEC2 service = getClient(awsCred, ec2Region);
+                    final List<Filter> filterList = new ArrayList<Filter>();
+                    //only return systems that have keys set
+                    filterList.add(new Filter("key-name", new ArrayList<String>(regionKeyMap.get(ec2Region).keySet())));
+
+                    regionList.add(ec2Region);
+                    futureList.add(executor.submit(new Callable<List<Instance>>() {
+                        @Override
+                        public List<Instance> call() {
+                            return describeInstances(service, filterList);
+                        }
+                    }));
+                }
+            }
+        }
+
+        //a region queried with several credentials is incomplete if any of them failed
+        Set<String> failedRegionSet = new HashSet<String>();
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(DISCOVERY_TIMEOUT);
+        for (int i = 0; i < futureList.size(); i++) {
+            String ec2Region = regionList.get(i);
+            try {
+                List<Instance> instanceList = futureList.get(i).get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                if (!regionInstanceMap.containsKey(ec2Region)) {
+                    regionInstanceMap.put(ec2Region, new ArrayList<Instance>());
+                }
+                regionInstanceMap.get(ec2Region).addAll(instanceList);
+            } catch (Exception ex) {
+                futureList.get(i).cancel(true);
+                failedRegionSet.add(ec2Region);
+                if (ex.getCause() instanceof AmazonClientException) {
+                    log.error("EC2 discovery failed for " + ec2Region + ": " + ex.getCause().toString());
+                } else {
+                    log.error(ex.toString(), ex);
+                }
+            }
+        }
+        regionInstanceMap.keySet().removeAll(failedRegionSet);
+        return regionInstanceMap;
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright 2013 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.util;
+
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.Tag;
+import org.apache.commons.io.FilenameUtils;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index of EC2 instance tags built from one discovery snapshot, used to
+ * evaluate profile tag expressions in memory
+ */
+public class EC2TagIndex {
+
+    //tag key -> tag value -> instance ids
+    private Map<String, Map<String, Set<String>>> tagMap = new HashMap<String, Map<String, Set<String>>>();
+
+    /**
+     * builds the index
+     *
+     * @param regionInstanceMap map of region to discovered instances
+     */
+    public EC2TagIndex(Map<String, List<Instance>> regionInstanceMap) {
+        for (List<Instance> instanceList : regionInstanceMap.values()) {
+            for (Instance instance : instanceList) {
+                for (Tag tag : instance.getTags()) {
+                    Map<String, Set<String>> valueMap = tagMap.get(tag.getKey());
+                    if (valueMap == null) {
+                        valueMap = new HashMap<String, Set<String>>();
+                        tagMap.put(tag.getKey(), valueMap);
+                    }
+                    Set<String> instanceIdSet = valueMap.get(tag.getValue());
+                    if (instanceIdSet == null) {
+                        instanceIdSet = new HashSet<String>();
+                        valueMap.put(tag.getValue(), instanceIdSet);
+                    }
+                    instanceIdSet.add(instance.getInstanceId());
+                }
+            }
+        }
+    }
+
+    /**
+     * parses a profile tag expression ex: 'env=prod,web' into tag key / value pairs.
+     * Keys without a value are mapped to null
+     *
+     * @param tags profile tag expression
+     * @return map of tag key to value
+     */
+    public static Map<String, String> parseTags(String tags) {
+        Map<String, String> tagMap = new LinkedHashMap<String, String>();
+        if (tags != null) {
+            //remove Formating Char
+            tags = tags.replaceAll("[\n\r\t]", "");
+            for (String tag : tags.split(",")) {
+                int idx = tag.indexOf('=');
+                if (idx > 0 && idx < tag.length() - 1) {
+                    tagMap.put(tag.substring(0, idx), tag.substring(idx + 1));
+                } else if (!tag.isEmpty()) {
+                    tagMap.put(tag, null);
+                }
+            }
+        }
+        return tagMap;
+    }
+
+    /**
+     * returns the instance ids that match a parsed tag expression. Instances must carry
+     * at least one of the plain tag keys and every key / value pair, values may use the
+     * '*' and '?' wildcards the same way as EC2 filters
+     *
+     * @param tagExpr map of tag key to value from {@link #parseTags(String)}
+     * @return matching instance ids
+     */
+    public Set<String> match(Map<String, String> tagExpr) {
+        Set<String> result = null;
+
+        Set<String> anyKeySet = null;
+        for (Map.Entry<String, String> entry : tagExpr.entrySet()) {
+            if (entry.getValue() == null) {
+                if (anyKeySet == null) {
+                    anyKeySet = new HashSet<String>();
+                }
+                anyKeySet.addAll(getInstances(entry.getKey(), null));
+            }
+        }
+        if (anyKeySet != null) {
+            result = anyKeySet;
+        }
+
+        for (Map.Entry<String, String> entry : tagExpr.entrySet()) {
+            if (entry.getValue() != null) {
+                Set<String> instanceIdSet = getInstances(entry.getKey(), entry.getValue());
+                if (result == null) {
+                    result = new HashSet<String>(instanceIdSet);
+                } else {
+                    result.retainAll(instanceIdSet);
+                }
+            }
+        }
+
+        if (result == null) {
+            return Collections.emptySet();
+        }
+        return result;
+    }
+
+    /**
+     * returns the instances with the tag key and value
+     *
+     * @param key   tag key
+     * @param value tag value or null for any value
+     * @return instance ids
+     */
+    private Set<String> getInstances(String key, String value) {
+        Map<String, Set<String>> valueMap = tagMap.get(key);
+        if (valueMap == null) {
+            return Collections.emptySet();
+        }
+        if (value != null && !value.contains("*") && !value.contains("?")) {
+            Set<String> instanceIdSet = valueMap.get(value);
+            return instanceIdSet != null ? instanceIdSet : Collections.<String>emptySet();
+        }
+        Set<String> instanceIdSet = new HashSet<String>();
+        for (Map.Entry<String, Set<String>> entry : valueMap.entrySet()) {
+            if (value == null || FilenameUtils.wildcardMatch(entry.getKey(), value)) {
+                instanceIdSet.addAll(entry.getValue());
+            }
+        }
+        return instanceIdSet;
+    }
+}
@@ -30,12 +30,28 @@ import javax.security.auth.login.LoginException;
 import java.io.IOException;
 import java.security.Principal;
 import java.sql.Connection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * External authentication utility for JAAS
+ * External authentication utility for JAAS. Successful logins are cached for a
+ * short time and repeated failures for a username or client IP are refused
+ * without calling the auth module, which runs on a bounded pool with a timeout.
  */
 public class ExternalAuthUtil {
 
@@ -45,10 +61,45 @@ public class ExternalAuthUtil {
     private static final String JAAS_CONF = "jaas.conf";
     private static final String JAAS_MODULE = AppConfig.getProperty("jaasModule");
 
+    //seconds a successful external login is cached
+    public static final int AUTH_CACHE_TTL = StringUtils.isNumeric(AppConfig.getProperty("externalAuthCacheTTL")) ? Integer.parseInt(AppConfig.getProperty("externalAuthCacheTTL")) : 60;
+    //failed logins allowed for a username or client IP within the failure window
+    public static final int MAX_FAILURES = StringUtils.isNumeric(AppConfig.getProperty("externalAuthMaxFailures")) ? Integer.parseInt(AppConfig.getProperty("externalAuthMaxFailures")) : 5;
+    //seconds failed logins are counted for
+    public static final int FAILURE_WINDOW = StringUtils.isNumeric(AppConfig.getProperty("externalAuthFailureWindow")) ? Integer.parseInt(AppConfig.getProperty("externalAuthFailureWindow")) : 300;
+    //max seconds to wait on the auth module
+    public static final int AUTH_TIMEOUT = StringUtils.isNumeric(AppConfig.getProperty("externalAuthTimeout")) ? Integer.parseInt(AppConfig.getProperty("externalAuthTimeout")) : 10;
+    //number of logins sent to the auth module at the same time
+    public static final int AUTH_THREADS = StringUtils.isNumeric(AppConfig.getProperty("externalAuthThreads")) ? Integer.parseInt(AppConfig.getProperty("externalAuthThreads")) : 10;
+
+    //entries kept before expired entries are removed
+    private static final int MAX_ENTRIES = 10000;
+
+    //salt for the credential hash of cached logins, new on every start
+    private static final String CACHE_SALT = EncryptionUtil.generateSalt();
+
+    //successful logins by username
+    private static ConcurrentMap<String, CachedLogin> loginCache = new ConcurrentHashMap<String, CachedLogin>();
+    //failed logins by username and by client IP
+    private static ConcurrentMap<String, FailureCount> failureMap = new ConcurrentHashMap<String, FailureCount>();
+
+    private static ThreadPoolExecutor executor;
+
     static {
         if(externalAuthEnabled) {
             System.setProperty("java.security.auth.login.config", ExternalAuthUtil.class.getClassLoader().getResource(".").getPath() + JAAS_CONF);
         }
+        int threads = Math.max(1, AUTH_THREADS);
+        //logins waiting on a full pool are refused instead of holding request threads
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(threads * 10), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "external-auth");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
     }
 
     /**
@@ -58,13 +109,112 @@ public class ExternalAuthUtil {
      * @return auth token if success
      */
     public static String login(final Auth auth) {
+        return login(auth, null);
+    }
+
+    /**
+     * external auth login method
+     *
+     * @param auth     contains username and password
+     * @param clientIP IP address of the client
+     * @return auth token if success
+     */
+    public static String login(final Auth auth, String clientIP) {
 
         String authToken = null;
         if (externalAuthEnabled && auth != null && StringUtils.isNotEmpty(auth.getUsername()) && StringUtils.isNotEmpty(auth.getPassword())) {
+
+            //users with a local password are not sent to the auth module
+            if (AuthDB.isLocalUser(auth.getUsername())) {
+                return null;
+            }
+            String userKey = "user:" + auth.getUsername().toLowerCase();
+            String ipKey = StringUtils.isNotEmpty(clientIP) ? "ip:" + clientIP : null;
+            if (isThrottled(userKey) || isThrottled(ipKey)) {
+                log.warn("External authentication throttled for " + auth.getUsername() + " (" + clientIP + ")");
+                return null;
+            }
+
             Connection con = null;
             try {
+                String credentialHash = EncryptionUtil.hash(auth.getUsername() + "\n" + auth.getPassword(), CACHE_SALT);
+                Set<Principal> principals;
+
+                CachedLogin cachedLogin = loginCache.get(userKey);
+                if (cachedLogin != null && cachedLogin.isValid(credentialHash)) {
+                    principals = cachedLogin.principals;
+                } else {
+                    //will throw exception if login fail
+                    principals = new HashSet<Principal>(authenticate(auth).getPrincipals());
+                    failureMap.remove(userKey);
+                    if (AUTH_CACHE_TTL > 0) {
+                        prune(loginCache);
+                        loginCache.put(userKey, new CachedLogin(credentialHash, principals));
+                    }
+                }
+
+                con = DBUtils.getConn();
+                User user = AuthDB.getUserByUID(con, auth.getUsername());
+
+                if (user == null) {
+                    user = new User();
+
+                    user.setUserType(User.ADMINISTRATOR);
+                    user.setUsername(auth.getUsername());
+
+                    //if it looks like name is returned default it
+                    for(Principal p: principals){
+                        if(p.getName().contains(" ")){
+                            String[] name = p.getName().split(" ");
+                            if(name.length>1) {
+                                user.setFirstNm(name[0]);
+                                user.setLastNm(name[name.length-1]);
+                            }
+                        }
+                    }
+
+                    //set email
+                    if(auth.getUsername().contains("@")){
+                        user.setEmail(auth.getUsername());
+                    }
+
+                    user.setId(UserDB.insertUser(con, user));
+                }
+
+                authToken = UUID.randomUUID().toString();
+                user.setAuthToken(authToken);
+                user.setAuthType(Auth.AUTH_EXTERNAL);
+                //set auth token
+                AuthDB.updateLogin(con, user);
+            } catch (LoginException e) {
+                //auth failed return empty
+                authToken = null;
+                loginCache.remove(userKey);
+                recordFailure(userKey);
+                recordFailure(ipKey);
+            } catch (Exception e) {
+                log.error(e.toString(), e);
+            }
+            DBUtils.closeConn(con);
+        }
+        return authToken;
+    }
+
+    /**
+     * runs the JAAS login on the auth pool and waits up to the auth timeout
+     *
+     * @param auth contains username and password
+     * @return subject of the logged in user
+     * @throws LoginException if the credentials are rejected
+     * @throws Exception      if the login timed out or could not be run
+     */
+    private static Subject authenticate(final Auth auth) throws Exception {
+
+        Future<Subject> future = executor.submit(new Callable<Subject>() {
+            @Override
+            public Subject call() throws Exception {
                 CallbackHandler handler = new CallbackHandler() {
-                	
+
                     @Override
                     public void handle(Callback[] callbacks) throws IOException,
                             UnsupportedCallbackException {
@@ -79,55 +229,110 @@ public class ExternalAuthUtil {
                         }
                     }
                 };
+                LoginContext loginContext = new LoginContext(JAAS_MODULE, handler);
+                loginContext.login();
+                return loginContext.getSubject();
+            }
+        });
 
-                try {
-                    LoginContext loginContext = new LoginContext(JAAS_MODULE, handler);
-                    //will throw exception if login fail
-                    loginContext.login();
-                    Subject subject = loginContext.getSubject();
-
-                    con = DBUtils.getConn();
-                    User user = AuthDB.getUserByUID(con, auth.getUsername());
-
-                    if (user == null) {
-                        user = new User();
-
-                        user.setUserType(User.ADMINISTRATOR);
-                        user.setUsername(auth.getUsername());
-                        
-                        //if it looks like name is returned default it 
-                        for(Principal p: subject.getPrincipals()){
-                            if(p.getName().contains(" ")){
-                                String[] name = p.getName().split(" ");
-                                if(name.length>1) {
-                                    user.setFirstNm(name[0]);
-                                    user.setLastNm(name[name.length-1]);
-                                }
-                            }
-                        }
-                        
-                        //set email
-                        if(auth.getUsername().contains("@")){
-                            user.setEmail(auth.getUsername());
-                        }
+        try {
+            return future.get(AUTH_TIMEOUT, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof LoginException) {
+                throw (LoginException) e.getCause();
+            }
+            throw e;
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw e;
+        }
+    }
 
-                        user.setId(UserDB.insertUser(con, user));
-                    }
+    /**
+     * checks if the username or client IP has too many recent failed logins
+     *
+     * @param key username or client IP key
+     * @return true if logins should be refused
+     */
+    private static boolean isThrottled(String key) {
+        if (key == null || MAX_FAILURES <= 0) {
+            return false;
+        }
+        FailureCount failureCount = failureMap.get(key);
+        return failureCount != null && !failureCount.isExpired() && failureCount.count.get() >= MAX_FAILURES;
+    }
 
-                    authToken = UUID.randomUUID().toString();
-                    user.setAuthToken(authToken);
-                    user.setAuthType(Auth.AUTH_EXTERNAL);
-                    //set auth token
-                    AuthDB.updateLogin(con, user);
-                } catch (LoginException e) {
-                    //auth failed return empty
-                    authToken = null;
+    /**
+     * counts a failed login for the username or client IP
+     *
+     * @param key username or client IP key
+     */
+    private static void recordFailure(String key) {
+        if (key == null || MAX_FAILURES <= 0) {
+            return;
+        }
+        FailureCount failureCount = failureMap.get(key);
+        if (failureCount == null || failureCount.isExpired()) {
+            prune(failureMap);
+            failureCount = new FailureCount();
+            failureMap.put(key, failureCount);
+        }
+        failureCount.count.incrementAndGet();
+    }
+
+    /**
+     * removes expired entries once the map grows past the max entries
+     *
+     * @param map login cache or failure map
+     */
+    private static void prune(ConcurrentMap<String, ? extends Expiring> map) {
+        if (map.size() >= MAX_ENTRIES) {
+            Iterator<? extends Expiring> it = map.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().isExpired()) {
+                    it.remove();
                 }
-            } catch (Exception e) {
-                log.error(e.toString(), e);
             }
-            DBUtils.closeConn(con);
         }
-        return authToken;
+    }
+
+    private interface Expiring {
+        boolean isExpired();
+    }
+
+    /**
+     * successful login kept until the cache TTL passes
+     */
+    private static class CachedLogin implements Expiring {
+        final String credentialHash;
+        final Set<Principal> principals;
+        final long expires = System.currentTimeMillis() + AUTH_CACHE_TTL * 1000L;
+
+        CachedLogin(String credentialHash, Set<Principal> principals) {
+            this.credentialHash = credentialHash;
+            this.principals = principals;
+        }
+
+        boolean isValid(String credentialHash) {
+            return !isExpired() && this.credentialHash != null && this.credentialHash.equals(credentialHash);
+        }
+
+        @Override
+        public boolean isExpired() {
+            return System.currentTimeMillis() > expires;
+        }
+    }
+
+    /**
+     * failed logins counted from the start of the failure window
+     */
+    private static class FailureCount implements Expiring {
+        final AtomicInteger count = new AtomicInteger(0);
+        final long expires = System.currentTimeMillis() + FAILURE_WINDOW * 1000L;
+
+        @Override
+        public boolean isExpired() {
+            return System.currentTimeMillis() > expires;
+        }
     }
 }
@@ -0,0 +1,87 @@
+/**
+ * Copyright 2013 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+/**
+ * Application metrics registered as a JMX MBean
+ */
+public class KeyBoxMetrics implements KeyBoxMetricsMXBean {
+
+    private static Logger log = LoggerFactory.getLogger(KeyBoxMetrics.class);
+
+    public static final String OBJECT_NAME = "com.keybox:type=Metrics";
+
+    private KeyBoxMetrics() {
+    }
+
+    /**
+     * registers the metrics MBean with the platform MBean server
+     */
+    public static void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new KeyBoxMetrics(), name);
+            }
+        } catch (Exception ex) {
+            log.error(ex.toString(), ex);
+        }
+    }
+
+    /**
+     * removes the metrics MBean from the platform MBean server
+     */
+    public static void unregister() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (Exception ex) {
+            log.error(ex.toString(), ex);
+        }
+    }
+
+    @Override
+    public Map<String, Long> getTerminalStats() {
+        return TerminalMetrics.getTerminalStats();
+    }
+
+    @Override
+    public Map<String, Long> getOutputStats() {
+        return SessionOutputUtil.getOutputStats();
+    }
+
+    @Override
+    public Map<String, Long> getPoolStats() {
+        return DSPool.getPoolStats();
+    }
+
+    @Override
+    public Map<String, Long> getCacheStats() {
+        return DBCache.getCacheStats();
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright 2013 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.util;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Counts the matches of a pattern in the output of a terminal instance as the
+ * output is sent. Only new output is scanned, the end of the previous output is
+ * kept so a match that is split between two flushes is found once. An escape
+ * sequence cut off at the end of a flush is held back and removed together with
+ * the rest of it on the next flush.
+ */
+public class OutputMatcher {
+
+    //chars of previous output kept for matches that span flushes
+    public static final int MAX_MATCH_SPAN = 1024;
+
+    //terminal escape sequences, removed so patterns match the text as displayed
+    private static final Pattern ESCAPE_PATTERN = Pattern.compile("\u001B(\\[[0-?]*[ -/]*[@-~]|\\][^\u0007\u001B]*(\u0007|\u001B\\\\)?|[()][0-9A-Za-z]|.)");
+    //escape sequence that is not finished at the end of the output
+    private static final Pattern INCOMPLETE_ESCAPE_PATTERN = Pattern.compile("\u001B(\\[[0-?]*[ -/]*|\\][^\u0007\u001B]*\u001B?|[()])?\\z");
+
+    private final Pattern pattern;
+    private final StringBuilder text = new StringBuilder();
+    //unfinished escape sequence from the end of the last flush
+    private final StringBuilder pending = new StringBuilder();
+    //end of the last counted match in text, matches before it were already counted
+    private int matchedEnd = 0;
+
+    /**
+     * @param pattern pattern to count
+     */
+    public OutputMatcher(Pattern pattern) {
+        this.pattern = pattern;
+    }
+
+    public Pattern getPattern() {
+        return pattern;
+    }
+
+    /**
+     * counts the new matches in the next output of the terminal
+     *
+     * @param output output sent to the terminal
+     * @return number of new matches
+     */
+    public int match(CharSequence output) {
+        CharSequence raw = output;
+        if (pending.length() > 0) {
+            raw = pending.append(output).toString();
+            pending.setLength(0);
+        }
+        //hold back an unfinished escape sequence, unless it is too long to be one
+        int end = raw.length();
+        Matcher incomplete = INCOMPLETE_ESCAPE_PATTERN.matcher(raw);
+        if (incomplete.find() && end - incomplete.start() <= MAX_MATCH_SPAN) {
+            end = incomplete.start();
+            pending.append(raw, end, raw.length());
+        }
+
+        int tailLength = text.length();
+        text.append(ESCAPE_PATTERN.matcher(raw.subSequence(0, end)).replaceAll(""));
+
+        int count = 0;
+        Matcher matcher = pattern.matcher(text);
+        while (matcher.find()) {
+            //skip empty matches, matches seen on the last flush and overlaps with them
+            if (matcher.end() > matcher.start() && matcher.end() > tailLength && matcher.start() >= matchedEnd) {
+                count++;
+                matchedEnd = matcher.end();
+            }
+        }
+
+        //keep the end of the output for the next flush
+        if (text.length() > MAX_MATCH_SPAN) {
+            int trim = text.length() - MAX_MATCH_SPAN;
+            text.delete(0, trim);
+            matchedEnd = Math.max(0, matchedEnd - trim);
+        }
+        return count;
+    }
+}
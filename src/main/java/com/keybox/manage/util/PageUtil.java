@@ -0,0 +1,200 @@
+/**
+ * Copyright 2013 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.util;
+
+import com.keybox.common.util.AppConfig;
+import com.keybox.manage.model.SortedSet;
+import org.apache.commons.lang3.StringUtils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Utility to page list queries with keyset (seek) pagination. A page starts after the
+ * row of the cursor id in the order of the sort column and the id, so a page costs the
+ * same no matter how deep into the list it is
+ */
+public class PageUtil {
+
+    //rows per page on the list screens
+    public static final int PAGE_SIZE = StringUtils.isNumeric(AppConfig.getProperty("pageSize")) ? Integer.parseInt(AppConfig.getProperty("pageSize")) : 100;
+
+    private PageUtil() {
+    }
+
+    /**
+     * prepares a list query. If the sorted set is paged the total count is set, the query
+     * starts after the cursor row and returns one row more than the page size to detect
+     * a next page, see {@link #trimPage(SortedSet, List)}
+     *
+     * @param con        DB connection
+     * @param select     select clause
+     * @param from       from clause with joins
+     * @param where      where conditions without the where keyword, may be empty
+     * @param idColumn   qualified unique id column used as the cursor
+     * @param sortColumn qualified sort column or null to sort by id
+     * @param sortedSet  sorted set with direction and page
+     * @param params     parameters for the where conditions
+     * @return prepared statement with all parameters set
+     * @throws SQLException
+     */
+    public static PreparedStatement prepareStatement(Connection con, String select, String from, String where, String idColumn, String sortColumn, SortedSet sortedSet, List<Object> params) throws SQLException {
+
+        String direction = sortedSet.getOrderByDirection();
+        List<Object> queryParams = new ArrayList<Object>(params);
+        List<String> conditionList = new ArrayList<String>();
+        if (StringUtils.isNotEmpty(where)) {
+            conditionList.add("(" + where + ")");
+        }
+
+        if (!sortedSet.isPaged()) {
+            String sql = select + " " + from + getWhere(conditionList);
+            if (sortColumn != null) {
+                sql += " order by " + sortColumn + " " + direction;
+            }
+            return prepare(con, sql, queryParams);
+        }
+
+        PreparedStatement stmt = prepare(con, "select count(*) " + from + getWhere(conditionList), queryParams);
+        ResultSet rs = stmt.executeQuery();
+        if (rs.next()) {
+            sortedSet.setTotalCount(rs.getLong(1));
+        }
+        DBUtils.closeRs(rs);
+        DBUtils.closeStmt(stmt);
+
+        if (sortedSet.getCursor() != null) {
+            String condition = getKeysetCondition(con, from, idColumn, sortColumn, sortedSet.getCursor(), direction, queryParams);
+            if (condition != null) {
+                conditionList.add(condition);
+            }
+        }
+
+        String sql = select + " " + from + getWhere(conditionList) + " order by ";
+        if (sortColumn != null) {
+            //nulls sort lowest in both directions to match the keyset condition
+            sql += sortColumn + " " + direction + ("asc".equals(direction) ? " nulls first, " : " nulls last, ");
+        }
+        sql += idColumn + " " + direction + " limit ?";
+        queryParams.add(sortedSet.getPageSize() + 1);
+
+        return prepare(con, sql, queryParams);
+    }
+
+    /**
+     * removes the look ahead row from a page
+     *
+     * @param sortedSet sorted set with page size
+     * @param itemList  rows returned for the page
+     * @return true if there is a next page, the cursor is the id of the last item in the list
+     */
+    public static boolean trimPage(SortedSet sortedSet, List<?> itemList) {
+        if (sortedSet.isPaged() && itemList.size() > sortedSet.getPageSize()) {
+            itemList.subList(sortedSet.getPageSize(), itemList.size()).clear();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * returns the condition for the rows after the cursor row
+     *
+     * @param con        DB connection
+     * @param from       from clause with joins
+     * @param idColumn   qualified unique id column
+     * @param sortColumn qualified sort column or null
+     * @param cursor     id of the last row of the previous page
+     * @param direction  sort direction
+     * @param params     query parameters, the condition parameters are added
+     * @return condition or null if the cursor row no longer exists
+     * @throws SQLException
+     */
+    private static String getKeysetCondition(Connection con, String from, String idColumn, String sortColumn, Long cursor, String direction, List<Object> params) throws SQLException {
+
+        String op = "asc".equals(direction) ? ">" : "<";
+        if (sortColumn == null) {
+            params.add(cursor);
+            return idColumn + " " + op + " ?";
+        }
+
+        boolean found = false;
+        Object sortValue = null;
+        PreparedStatement stmt = con.prepareStatement("select " + sortColumn + " " + from + " where " + idColumn + "=?");
+        stmt.setLong(1, cursor);
+        ResultSet rs = stmt.executeQuery();
+        if (rs.next()) {
+            found = true;
+            sortValue = rs.getObject(1);
+        }
+        DBUtils.closeRs(rs);
+        DBUtils.closeStmt(stmt);
+        if (!found) {
+            return null;
+        }
+
+        String condition;
+        if (sortValue == null) {
+            if ("asc".equals(direction)) {
+                condition = "((" + sortColumn + " is null and " + idColumn + " > ?) or " + sortColumn + " is not null)";
+            } else {
+                condition = "(" + sortColumn + " is null and " + idColumn + " < ?)";
+            }
+            params.add(cursor);
+        } else {
+            condition = "(" + sortColumn + " " + op + " ? or (" + sortColumn + " = ? and " + idColumn + " " + op + " ?)";
+            if (!"asc".equals(direction)) {
+                condition += " or " + sortColumn + " is null";
+            }
+            condition += ")";
+            params.add(sortValue);
+            params.add(sortValue);
+            params.add(cursor);
+        }
+        return condition;
+    }
+
+    /**
+     * returns the where clause for the conditions
+     *
+     * @param conditionList conditions
+     * @return where clause or empty string
+     */
+    private static String getWhere(List<String> conditionList) {
+        return conditionList.isEmpty() ? "" : " where " + StringUtils.join(conditionList, " and ");
+    }
+
+    /**
+     * prepares the statement and sets the parameters
+     *
+     * @param con    DB connection
+     * @param sql    query
+     * @param params parameters
+     * @return prepared statement
+     * @throws SQLException
+     */
+    private static PreparedStatement prepare(Connection con, String sql, List<Object> params) throws SQLException {
+        PreparedStatement stmt = con.prepareStatement(sql);
+        int i = 1;
+        for (Object param : params) {
+            stmt.setObject(i++, param);
+        }
+        return stmt;
+    }
+}
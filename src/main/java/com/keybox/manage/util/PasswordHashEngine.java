@@ -0,0 +1,53 @@
+/**
+ * Copyright 2013 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.util;
+
+/**
+ * Engine to hash and verify passwords. Hashes are stored as
+ * $id$cost$salt$hash so the engine and cost of a stored hash are known when it
+ * is verified.
+ */
+public interface PasswordHashEngine {
+
+    /**
+     * @return id of the engine stored with the hash
+     */
+    String getId();
+
+    /**
+     * hashes a password with a new random salt
+     *
+     * @param password password
+     * @param cost     work factor
+     * @return stored hash
+     */
+    String hash(String password, int cost);
+
+    /**
+     * verifies a password against a stored hash of this engine
+     *
+     * @param password   password
+     * @param storedHash stored hash
+     * @return true if the password matches
+     */
+    boolean verify(String password, String storedHash);
+
+    /**
+     * @param storedHash stored hash
+     * @return work factor of the stored hash
+     */
+    int getCost(String storedHash);
+}
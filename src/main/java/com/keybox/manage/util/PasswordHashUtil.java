@@ -0,0 +1,211 @@
+/**
+ * Copyright 2013 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.util;
+
+import com.keybox.common.util.AppConfig;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Utility to hash and verify user passwords with the configured hash engine.
+ * Verification runs on its own bounded pool so a flood of logins cannot take
+ * the CPU from terminal and web socket threads.
+ */
+public class PasswordHashUtil {
+
+    private static Logger log = LoggerFactory.getLogger(PasswordHashUtil.class);
+
+    public static final String DEFAULT_ENGINE = "pbkdf2-sha256";
+
+    //engine used to hash new and changed passwords
+    public static final String HASH_ENGINE = StringUtils.isNotEmpty(AppConfig.getProperty("passwordHashEngine")) ? AppConfig.getProperty("passwordHashEngine") : DEFAULT_ENGINE;
+    //work factor of the hash engine
+    public static final int HASH_COST = StringUtils.isNumeric(AppConfig.getProperty("passwordHashCost")) ? Integer.parseInt(AppConfig.getProperty("passwordHashCost")) : 100000;
+    //number of passwords verified at the same time
+    public static final int HASH_THREADS = StringUtils.isNumeric(AppConfig.getProperty("passwordHashThreads")) ? Integer.parseInt(AppConfig.getProperty("passwordHashThreads")) : Runtime.getRuntime().availableProcessors();
+    //max seconds a login waits for its password to be verified
+    public static final int HASH_TIMEOUT = StringUtils.isNumeric(AppConfig.getProperty("passwordHashTimeout")) ? Integer.parseInt(AppConfig.getProperty("passwordHashTimeout")) : 10;
+
+    private static Map<String, PasswordHashEngine> engineMap = new ConcurrentHashMap<String, PasswordHashEngine>();
+
+    //hash verified for unknown users so the time taken does not show if a user exists
+    private static String dummyHash;
+
+    private static ThreadPoolExecutor executor;
+
+    static {
+        register(new Pbkdf2HashEngine(DEFAULT_ENGINE, "PBKDF2WithHmacSHA256"));
+        register(new Pbkdf2HashEngine("pbkdf2-sha512", "PBKDF2WithHmacSHA512"));
+        if (!engineMap.containsKey(HASH_ENGINE)) {
+            log.error("Unknown password hash engine " + HASH_ENGINE + ", using " + DEFAULT_ENGINE);
+        }
+
+        int threads = Math.max(1, HASH_THREADS);
+        //verifications waiting on a full pool are refused instead of holding request threads
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(threads * 16), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "password-hash");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    private PasswordHashUtil() {
+    }
+
+    /**
+     * registers a hash engine by its id
+     *
+     * @param engine hash engine
+     */
+    public static void register(PasswordHashEngine engine) {
+        engineMap.put(engine.getId(), engine);
+    }
+
+    /**
+     * returns the engine for new and changed passwords
+     *
+     * @return hash engine
+     */
+    public static PasswordHashEngine getEngine() {
+        PasswordHashEngine engine = engineMap.get(HASH_ENGINE);
+        return engine != null ? engine : engineMap.get(DEFAULT_ENGINE);
+    }
+
+    /**
+     * hashes a password with the configured engine and cost
+     *
+     * @param password password
+     * @return stored hash
+     */
+    public static String hash(String password) {
+        return getEngine().hash(password, HASH_COST);
+    }
+
+    /**
+     * verifies a password on the hash pool
+     *
+     * @param password   password
+     * @param storedHash stored hash, null if there is no user
+     * @param salt       salt column of hashes from before hash engines
+     * @return true if the password matches
+     */
+    public static boolean verify(final String password, final String storedHash, final String salt) {
+
+        if (StringUtils.isEmpty(password)) {
+            return false;
+        }
+        Future<Boolean> future;
+        try {
+            future = executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return verifyHash(password, storedHash, salt);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("Password verification refused, too many logins waiting");
+            return false;
+        }
+
+        try {
+            return future.get(HASH_TIMEOUT, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            log.warn("Password verification timed out");
+        } catch (Exception e) {
+            log.error(e.toString(), e);
+        }
+        return false;
+    }
+
+    /**
+     * checks if a stored hash was made with another engine or cost and should
+     * be replaced once the password is verified
+     *
+     * @param storedHash stored hash
+     * @return true if the password should be rehashed
+     */
+    public static boolean needsRehash(String storedHash) {
+        if (StringUtils.isEmpty(storedHash) || !storedHash.startsWith("$")) {
+            return true;
+        }
+        PasswordHashEngine engine = getEngine();
+        return !engine.getId().equals(getEngineId(storedHash)) || engine.getCost(storedHash) != HASH_COST;
+    }
+
+    /**
+     * verifies a password against a stored hash of any registered engine
+     *
+     * @param password   password
+     * @param storedHash stored hash
+     * @param salt       salt column of hashes from before hash engines
+     * @return true if the password matches
+     */
+    private static boolean verifyHash(String password, String storedHash, String salt) {
+
+        if (StringUtils.isEmpty(storedHash)) {
+            getEngine().verify(password, getDummyHash());
+            return false;
+        }
+        //salted SHA-256 from before hash engines
+        if (!storedHash.startsWith("$")) {
+            String hash = EncryptionUtil.hash(password + (salt != null ? salt : ""));
+            return hash != null && MessageDigest.isEqual(storedHash.getBytes(), hash.getBytes());
+        }
+        PasswordHashEngine engine = engineMap.get(getEngineId(storedHash));
+        if (engine == null) {
+            log.error("No password hash engine registered for " + getEngineId(storedHash));
+            return false;
+        }
+        return engine.verify(password, storedHash);
+    }
+
+    /**
+     * @return hash of a random password with the configured engine and cost
+     */
+    private static synchronized String getDummyHash() {
+        if (dummyHash == null) {
+            dummyHash = hash(EncryptionUtil.generateSalt());
+        }
+        return dummyHash;
+    }
+
+    /**
+     * @param storedHash stored hash
+     * @return engine id of the stored hash
+     */
+    private static String getEngineId(String storedHash) {
+        int end = storedHash.indexOf('$', 1);
+        return end > 0 ? storedHash.substring(1, end) : null;
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright 2013 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.util;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+/**
+ * PBKDF2 password hash engine, the cost is the number of iterations
+ */
+public class Pbkdf2HashEngine implements PasswordHashEngine {
+
+    private static final int SALT_LENGTH = 16;
+    private static final int KEY_LENGTH = 256;
+
+    private static SecureRandom secureRandom = new SecureRandom();
+
+    private final String id;
+    private final String algorithm;
+
+    /**
+     * @param id        id of the engine stored with the hash
+     * @param algorithm secret key factory algorithm
+     */
+    public Pbkdf2HashEngine(String id, String algorithm) {
+        this.id = id;
+        this.algorithm = algorithm;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public String hash(String password, int cost) {
+        byte[] salt = new byte[SALT_LENGTH];
+        secureRandom.nextBytes(salt);
+        return "$" + id + "$" + cost + "$" + new String(Base64.encodeBase64(salt)) + "$" + new String(Base64.encodeBase64(derive(password, salt, cost)));
+    }
+
+    @Override
+    public boolean verify(String password, String storedHash) {
+        String[] parts = storedHash.split("\\$");
+        int cost = getCost(storedHash);
+        if (parts.length != 5 || !id.equals(parts[1]) || cost <= 0) {
+            return false;
+        }
+        byte[] expected = Base64.decodeBase64(parts[4]);
+        byte[] actual = derive(password, Base64.decodeBase64(parts[3]), cost);
+        return MessageDigest.isEqual(expected, actual);
+    }
+
+    @Override
+    public int getCost(String storedHash) {
+        String[] parts = storedHash.split("\\$");
+        if (parts.length == 5 && StringUtils.isNumeric(parts[2])) {
+            return Integer.parseInt(parts[2]);
+        }
+        return 0;
+    }
+
+    /**
+     * derives the key for a password
+     *
+     * @param password password
+     * @param salt     salt
+     * @param cost     iterations
+     * @return derived key
+     */
+    private byte[] derive(String password, byte[] salt, int cost) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, cost, KEY_LENGTH);
+        try {
+            return SecretKeyFactory.getInstance(algorithm).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
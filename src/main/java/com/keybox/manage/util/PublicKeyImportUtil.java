@@ -0,0 +1,136 @@
+/**
+ * Copyright 2013 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.util;
+
+import com.google.gson.Gson;
+import com.keybox.manage.model.PublicKey;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Utility to read public keys for a bulk import from an authorized_keys file
+ * or a JSON array of keys
+ */
+public class PublicKeyImportUtil {
+
+    private static Logger log = LoggerFactory.getLogger(PublicKeyImportUtil.class);
+
+    //max keys accepted in one import
+    public static final int MAX_IMPORT_KEYS = 5000;
+    //keys parsed per task when fingerprinting
+    private static final int KEYS_PER_TASK = 50;
+
+    private PublicKeyImportUtil() {
+    }
+
+    /**
+     * reads public keys from authorized_keys lines or a JSON array of objects with
+     * keyNm and publicKey. For authorized_keys lines the options before the key are
+     * dropped and the comment is used as the key name, keys without a name are named
+     * after their position
+     *
+     * @param content authorized_keys or JSON content
+     * @return public keys in the order of the content
+     */
+    public static List<PublicKey> readPublicKeys(String content) {
+        List<PublicKey> publicKeyList = new ArrayList<PublicKey>();
+        if (StringUtils.isBlank(content)) {
+            return publicKeyList;
+        }
+        if (content.trim().startsWith("[")) {
+            PublicKey[] publicKeys = new Gson().fromJson(content, PublicKey[].class);
+            for (int i = 0; i < publicKeys.length; i++) {
+                if (publicKeys[i] != null) {
+                    if (StringUtils.isBlank(publicKeys[i].getKeyNm())) {
+                        publicKeys[i].setKeyNm("import-" + (i + 1));
+                    }
+                    publicKeyList.add(publicKeys[i]);
+                }
+            }
+        } else {
+            int lineNo = 0;
+            for (String line : content.split("\\r?\\n")) {
+                lineNo++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] tokens = line.split("\\s+");
+                int start = 0;
+                for (int i = 0; i < tokens.length; i++) {
+                    if (tokens[i].startsWith("ssh-") || tokens[i].startsWith("ecdsa-")) {
+                        start = i;
+                        break;
+                    }
+                }
+                PublicKey publicKey = new PublicKey();
+                publicKey.setPublicKey(StringUtils.join(tokens, " ", start, tokens.length));
+                if (tokens.length > start + 2) {
+                    publicKey.setKeyNm(StringUtils.join(tokens, " ", start + 2, tokens.length));
+                } else {
+                    publicKey.setKeyNm("import-" + lineNo);
+                }
+                publicKeyList.add(publicKey);
+            }
+        }
+        return publicKeyList;
+    }
+
+    /**
+     * parses the keys on a thread pool, the fingerprint, type and length end up in the
+     * SSHUtil key cache so the import does not parse the keys one at a time
+     *
+     * @param publicKeyList public keys
+     */
+    public static void parsePublicKeys(List<PublicKey> publicKeyList) {
+        int taskCount = (publicKeyList.size() + KEYS_PER_TASK - 1) / KEYS_PER_TASK;
+        if (taskCount <= 1) {
+            for (PublicKey publicKey : publicKeyList) {
+                SSHUtil.getFingerprint(publicKey.getPublicKey());
+            }
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(taskCount, Runtime.getRuntime().availableProcessors()));
+        try {
+            List<Callable<Void>> taskList = new ArrayList<Callable<Void>>();
+            for (int i = 0; i < publicKeyList.size(); i += KEYS_PER_TASK) {
+                final List<PublicKey> batch = publicKeyList.subList(i, Math.min(i + KEYS_PER_TASK, publicKeyList.size()));
+                taskList.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (PublicKey publicKey : batch) {
+                            SSHUtil.getFingerprint(publicKey.getPublicKey());
+                        }
+                        return null;
+                    }
+                });
+            }
+            executor.invokeAll(taskList);
+        } catch (InterruptedException ex) {
+            log.error(ex.toString(), ex);
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -16,8 +16,11 @@
 package com.keybox.manage.util;
 
 import com.keybox.common.util.AppConfig;
+import com.keybox.common.util.AppConfigListener;
+import com.keybox.common.util.ConfigSnapshot;
 
 import java.util.Calendar;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -28,7 +31,21 @@ public class RefreshApplicationKeyUtil {
 
 
 	private Timer timer;
-	private static Integer days = Integer.valueOf(AppConfig.getProperty("dynamicKeyRotation"));
+	private static volatile Integer days = Integer.valueOf(AppConfig.getProperty("dynamicKeyRotation"));
+	//running refresh timer, null if not started
+	private static RefreshApplicationKeyUtil refreshUtil;
+
+	static {
+		//the daily task uses the new key age, the timer is started or stopped as rotation is turned on or off
+		AppConfig.addListener(new AppConfigListener() {
+			@Override
+			public void configChanged(ConfigSnapshot snapshot, Set<String> names) {
+				if (names.contains("dynamicKeyRotation")) {
+					setDynamicKeyRotation(snapshot.getInt("dynamicKeyRotation", 0));
+				}
+			}
+		});
+	}
 
 
 	private RefreshApplicationKeyUtil() {
@@ -50,9 +67,24 @@ public class RefreshApplicationKeyUtil {
 	/**
 	 * start timer to refresh all systems
 	 */
-	public static void startRefreshAllSystemsTimerTask() {
-		if (SSHUtil.dynamicKeys && days > 0) {
-			new RefreshApplicationKeyUtil();
+	public static synchronized void startRefreshAllSystemsTimerTask() {
+		if (SSHUtil.dynamicKeys && days > 0 && refreshUtil == null) {
+			refreshUtil = new RefreshApplicationKeyUtil();
+		}
+	}
+
+	/**
+	 * sets the key age in days and starts or stops the timer
+	 *
+	 * @param keyDays days before a key is refreshed, no refresh for 0
+	 */
+	private static synchronized void setDynamicKeyRotation(int keyDays) {
+		days = keyDays;
+		if (days <= 0 && refreshUtil != null) {
+			refreshUtil.timer.cancel();
+			refreshUtil = null;
+		} else {
+			startRefreshAllSystemsTimerTask();
 		}
 	}
 	
@@ -16,6 +16,10 @@
 package com.keybox.manage.util;
 
 import com.keybox.common.util.AppConfig;
+import com.keybox.common.util.AppConfigListener;
+import com.keybox.common.util.ConfigSnapshot;
+
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -27,6 +31,20 @@ public class RefreshAuthKeyUtil {
 
 	private Timer timer;
 	private static Integer minute = Integer.valueOf(AppConfig.getProperty("authKeysRefreshInterval"));
+	//running refresh timer, null if not started
+	private static RefreshAuthKeyUtil refreshUtil;
+
+	static {
+		//restart the timer when the refresh interval is changed
+		AppConfig.addListener(new AppConfigListener() {
+			@Override
+			public void configChanged(ConfigSnapshot snapshot, Set<String> names) {
+				if (names.contains("authKeysRefreshInterval")) {
+					setRefreshInterval(snapshot.getInt("authKeysRefreshInterval", 0));
+				}
+			}
+		});
+	}
 
 
 	private RefreshAuthKeyUtil() {
@@ -38,10 +56,24 @@ public class RefreshAuthKeyUtil {
 	/**
 	 * start timer to refresh all systems
 	 */
-	public static void startRefreshAllSystemsTimerTask() {
-		if (SSHUtil.keyManagementEnabled && minute > 0) {
-			new RefreshAuthKeyUtil();
+	public static synchronized void startRefreshAllSystemsTimerTask() {
+		if (SSHUtil.keyManagementEnabled && minute > 0 && refreshUtil == null) {
+			refreshUtil = new RefreshAuthKeyUtil();
+		}
+	}
+
+	/**
+	 * stops the running timer and starts it again with a new interval
+	 *
+	 * @param minutes refresh interval in minutes, no refresh for &lt;=0
+	 */
+	private static synchronized void setRefreshInterval(int minutes) {
+		minute = minutes;
+		if (refreshUtil != null) {
+			refreshUtil.timer.cancel();
+			refreshUtil = null;
 		}
+		startRefreshAllSystemsTimerTask();
 	}
 
 	/**
@@ -89,11 +121,18 @@ public class RefreshAuthKeyUtil {
 		public void run() {
 			//distribute all public keys
 			SSHUtil.distributePubKeysToAllSystems();
-			timer.cancel();
 
-			//create new timer and set interval
-			timer = new Timer();
-			timer.schedule(new RefreshAllSystemsTimerTask(), minute * 60 * 1000);
+			synchronized (RefreshAuthKeyUtil.class) {
+				//timer was replaced when the interval changed
+				if (refreshUtil != RefreshAuthKeyUtil.this) {
+					return;
+				}
+				timer.cancel();
+
+				//create new timer and set interval
+				timer = new Timer();
+				timer.schedule(new RefreshAllSystemsTimerTask(), minute * 60 * 1000);
+			}
 		}
 	}
 }
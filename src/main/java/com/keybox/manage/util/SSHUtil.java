@@ -23,18 +23,25 @@ import com.jcraft.jsch.JSchException;
 import com.jcraft.jsch.KeyPair;
 import com.jcraft.jsch.Session;
 import com.jcraft.jsch.SftpException;
+import com.jcraft.jsch.SocketFactory;
 import com.keybox.common.util.AppConfig;
 import com.keybox.manage.db.*;
 import com.keybox.manage.model.*;
 import com.keybox.manage.task.SecureShellTask;
 
+import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 
 import java.io.*;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -71,6 +78,16 @@ public class SSHUtil {
 	public static final String SAVEFILE = "/tmp/tmp_authorized_keys_KeyBox";
 	
 	public static final String KEY_COMMENT = "KeyBox generated key pair from ";
+
+	//max number of parsed public keys kept in the key info cache
+	private static final int KEY_INFO_CACHE_SIZE = 10000;
+	//public key -> parsed metadata, least recently used keys are dropped first
+	private static final Map<String, KeyInfo> keyInfoCache = Collections.synchronizedMap(new LinkedHashMap<String, KeyInfo>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, KeyInfo> eldest) {
+			return size() > KEY_INFO_CACHE_SIZE;
+		}
+	});
 	
 	/**
 	 * returns the system's public key
@@ -203,33 +220,10 @@ public class SSHUtil {
 	 * @return status of key distribution
 	 */
 	public static HostSystem authAndAddPubKey(HostSystem hostSystem, String passphrase, String password, boolean newAppKey) {
-		JSch jsch = new JSch();
 		Session session = null;
 		hostSystem.setStatusCd(HostSystem.SUCCESS_STATUS);
 		try {
-			
-			ApplicationKey appKey = hostSystem.getApplicationKey();
-			//check to see if passphrase has been provided
-			if (passphrase == null || passphrase.trim().equals("")) {
-				passphrase = appKey.getPassphrase();
-				//check for null inorder to use key without passphrase
-				if (passphrase == null) {
-					passphrase = "";
-				}
-			}
-			//add private key
-			jsch.addIdentity(appKey.getId().toString(), appKey.getPrivateKey().trim().getBytes(), appKey.getPublicKey().getBytes(), passphrase.getBytes());
-
-			//create session
-			session = jsch.getSession(hostSystem.getUser(), hostSystem.getHost(), hostSystem.getPort());
-
-			//set password if passed in
-			if (password != null && !password.equals("")) {
-				session.setPassword(password);
-			}
-			session.setConfig("StrictHostKeyChecking", "no");
-			session.setServerAliveInterval(SERVER_ALIVE_INTERVAL);
-			session.connect(SESSION_TIMEOUT);
+			session = connect(hostSystem, passphrase, password);
 			ApplicationKey genAppKey = null;
 			//Generate new Key?
 			if(newAppKey)
@@ -239,17 +233,7 @@ public class SSHUtil {
 			addPubKey(hostSystem, session, genAppKey);
 		} catch (Exception e) {
 			log.info(e.toString(), e);
-			hostSystem.setErrorMsg(e.getMessage());
-			if (e.getMessage().toLowerCase().contains("userauth fail")) {
-				hostSystem.setStatusCd(HostSystem.PUBLIC_KEY_FAIL_STATUS);
-			} else if (e.getMessage().toLowerCase().contains("auth fail") || e.getMessage().toLowerCase().contains("auth cancel")) {
-				hostSystem.setStatusCd(HostSystem.AUTH_FAIL_STATUS);
-			} else if (e.getMessage().toLowerCase().contains("unknownhostexception")){
-				hostSystem.setErrorMsg("DNS Lookup Failed");
-				hostSystem.setStatusCd(HostSystem.HOST_FAIL_STATUS);
-			} else {
-				hostSystem.setStatusCd(HostSystem.GENERIC_FAIL_STATUS);
-			}
+			setFailStatus(hostSystem, e);
 		}
 
 		if (session != null) {
@@ -315,6 +299,7 @@ public class SSHUtil {
 	public static HostSystem addPubKey(HostSystem hostSystem, Session session, ApplicationKey genAppKey) {
 		Channel channel = null;
 		ChannelSftp c = null;
+		long start = System.currentTimeMillis();
 		try {
 			channel = session.openChannel("sftp");
 			channel.setInputStream(System.in);
@@ -373,8 +358,13 @@ public class SSHUtil {
 			c.put(inputStreamAuthKeyVal, authorizedKeys);
 			c.chmod(Integer.parseInt("600",8), authorizedKeys);
 			
+			DistributionRecorder.setTransferTime(System.currentTimeMillis() - start);
+
 			//Test Connection
-			if(testConnection(hostSystem, genAppKey)){
+			start = System.currentTimeMillis();
+			boolean connectionOk = testConnection(hostSystem, genAppKey);
+			DistributionRecorder.setVerifyTime(System.currentTimeMillis() - start);
+			if(connectionOk){
 				if(genAppKey !=null)
 				{
 					hostSystem.setApplicationKey(genAppKey);
@@ -498,6 +488,111 @@ public class SSHUtil {
 	}
 	
 	
+	/**
+	 * connects a ssh session to the host system with the application key
+	 *
+	 * @param hostSystem host system with application key
+	 * @param passphrase key passphrase, the stored passphrase is used if empty
+	 * @param password   password for instance
+	 * @return connected session
+	 * @throws JSchException
+	 */
+	public static Session connect(HostSystem hostSystem, String passphrase, String password) throws JSchException {
+		JSch jsch = new JSch();
+		ApplicationKey appKey = hostSystem.getApplicationKey();
+
+		//check to see if passphrase has been provided
+		if (passphrase == null || passphrase.trim().equals("")) {
+			passphrase = appKey.getPassphrase();
+			//check for null inorder to use key without passphrase
+			if (passphrase == null) {
+				passphrase = "";
+			}
+		}
+		//add private key
+		jsch.addIdentity(appKey.getId().toString(), appKey.getPrivateKey().trim().getBytes(), appKey.getPublicKey().getBytes(), passphrase.getBytes());
+
+		//create session
+		Session session = jsch.getSession(hostSystem.getUser(), hostSystem.getHost(), hostSystem.getPort());
+
+		//set password if it exists
+		if (password != null && !password.trim().equals("")) {
+			session.setPassword(password);
+		}
+		session.setConfig("StrictHostKeyChecking", "no");
+		session.setServerAliveInterval(SERVER_ALIVE_INTERVAL);
+		if (DistributionRecorder.isRecording()) {
+			//time the tcp connection apart from key exchange and authentication
+			TimedSocketFactory socketFactory = new TimedSocketFactory();
+			session.setSocketFactory(socketFactory);
+			long start = System.currentTimeMillis();
+			try {
+				session.connect(SESSION_TIMEOUT);
+			} finally {
+				DistributionRecorder.setConnectTime(socketFactory.connectTime);
+				if (session.isConnected()) {
+					DistributionRecorder.setAuthTime(System.currentTimeMillis() - start - socketFactory.connectTime);
+				}
+			}
+		} else {
+			session.connect(SESSION_TIMEOUT);
+		}
+		return session;
+	}
+
+
+	/**
+	 * socket factory that records the time to open the tcp connection
+	 */
+	private static class TimedSocketFactory implements SocketFactory {
+		long connectTime = 0;
+
+		@Override
+		public Socket createSocket(String host, int port) throws IOException {
+			long start = System.currentTimeMillis();
+			Socket socket = new Socket();
+			try {
+				socket.connect(new InetSocketAddress(host, port), SESSION_TIMEOUT);
+			} finally {
+				connectTime = System.currentTimeMillis() - start;
+			}
+			return socket;
+		}
+
+		@Override
+		public InputStream getInputStream(Socket socket) throws IOException {
+			return socket.getInputStream();
+		}
+
+		@Override
+		public OutputStream getOutputStream(Socket socket) throws IOException {
+			return socket.getOutputStream();
+		}
+	}
+
+
+	/**
+	 * sets the status of the host system from a failed connection
+	 *
+	 * @param hostSystem host system
+	 * @param e          exception from the connection
+	 */
+	public static void setFailStatus(HostSystem hostSystem, Exception e) {
+		String msg = e.getMessage() != null ? e.getMessage().toLowerCase() : "";
+		hostSystem.setErrorMsg(e.getMessage());
+		if (msg.contains("userauth fail")) {
+			hostSystem.setStatusCd(HostSystem.PUBLIC_KEY_FAIL_STATUS);
+		} else if (msg.contains("auth fail") || msg.contains("auth cancel")) {
+			hostSystem.setStatusCd(HostSystem.AUTH_FAIL_STATUS);
+		} else if (msg.contains("unknownhostexception")){
+			hostSystem.setErrorMsg("DNS Lookup Failed");
+			hostSystem.setStatusCd(HostSystem.HOST_FAIL_STATUS);
+		} else {
+			hostSystem.setStatusCd(HostSystem.GENERIC_FAIL_STATUS);
+		}
+	}
+
+
 	/**
 	 * open new ssh session on host system
 	 *
@@ -510,7 +605,6 @@ public class SSHUtil {
 	 * @return status of systems
 	 */
 	public static HostSystem openSSHTermOnSystem(String passphrase, String password, Long userId, Long sessionId, HostSystem hostSystem, Map<Long, UserSchSessions> userSessionMap) {
-		JSch jsch = new JSch();
 		int instanceId = getNextInstanceId(sessionId,userSessionMap);
 		hostSystem.setStatusCd(HostSystem.SUCCESS_STATUS);
 		hostSystem.setInstanceId(instanceId);
@@ -526,27 +620,7 @@ public class SSHUtil {
 				return hostSystem;
 			}
 
-			//check to see if passphrase has been provided
-			if (passphrase == null || passphrase.trim().equals("")) {
-				passphrase = appKey.getPassphrase();
-				//check for null inorder to use key without passphrase
-				if (passphrase == null) {
-					passphrase = "";
-				}
-			}
-			//add private key
-			jsch.addIdentity(appKey.getId().toString(), appKey.getPrivateKey().trim().getBytes(), appKey.getPublicKey().getBytes(), passphrase.getBytes());
-
-			//create session
-			Session session = jsch.getSession(hostSystem.getUser(), hostSystem.getHost(), hostSystem.getPort());
-
-			//set password if it exists
-			if (password != null && !password.trim().equals("")) {
-				session.setPassword(password);
-			}
-			session.setConfig("StrictHostKeyChecking", "no");
-			session.setServerAliveInterval(SERVER_ALIVE_INTERVAL);
-			session.connect(SESSION_TIMEOUT);
+			Session session = connect(hostSystem, passphrase, password);
 			Channel channel = session.openChannel("shell");
 			if ("true".equals(AppConfig.getProperty("agentForwarding"))) {
 				((ChannelShell) channel).setAgentForwarding(true);
@@ -563,7 +637,7 @@ public class SSHUtil {
 			thread.start();
 
 			OutputStream inputToChannel = channel.getOutputStream();
-			PrintStream commander = new PrintStream(inputToChannel, true);
+			PrintStream commander = new PrintStream(inputToChannel, true, "UTF-8");
 
 			channel.connect();
 
@@ -588,17 +662,7 @@ public class SSHUtil {
 
 		} catch (Exception e) {
 			log.info(e.toString(), e);
-			hostSystem.setErrorMsg(e.getMessage());
-			if (e.getMessage().toLowerCase().contains("userauth fail")) {
-				hostSystem.setStatusCd(HostSystem.PUBLIC_KEY_FAIL_STATUS);
-			} else if (e.getMessage().toLowerCase().contains("auth fail") || e.getMessage().toLowerCase().contains("auth cancel")) {
-				hostSystem.setStatusCd(HostSystem.AUTH_FAIL_STATUS);
-			} else if (e.getMessage().toLowerCase().contains("unknownhostexception")){
-				hostSystem.setErrorMsg("DNS Lookup Failed");
-				hostSystem.setStatusCd(HostSystem.HOST_FAIL_STATUS);	
-			} else {
-				hostSystem.setStatusCd(HostSystem.GENERIC_FAIL_STATUS);
-			}
+			setFailStatus(hostSystem, e);
 		}
 
 		//add session to map
@@ -632,10 +696,14 @@ public class SSHUtil {
 
 		if (keyManagementEnabled) {
 			List<HostSystem> hostSystemList = SystemDB.getAllSystems();
+			DistributionRun run = DistributionRecorder.startRun(DistributionRun.RUN_ALL_SYSTEMS);
 			for (HostSystem hostSystem : hostSystemList) {
+				DistributionRecorder.startHost(hostSystem);
 				hostSystem = SSHUtil.authAndAddPubKey(hostSystem, null, null, false);
+				DistributionRecorder.endHost(run, hostSystem);
 				SystemDB.updateSystem(hostSystem);
 			}
+			DistributionRecorder.endRun(run);
 		}
 	}
 
@@ -649,10 +717,14 @@ public class SSHUtil {
 
 		if (keyManagementEnabled) {
 			List<HostSystem> hostSystemList = ProfileSystemsDB.getSystemsByProfile(profileId);
+			DistributionRun run = DistributionRecorder.startRun(DistributionRun.RUN_PROFILE);
 			for (HostSystem hostSystem : hostSystemList) {
+				DistributionRecorder.startHost(hostSystem);
 				hostSystem = SSHUtil.authAndAddPubKey(hostSystem, null, null, false);
+				DistributionRecorder.endHost(run, hostSystem);
 				SystemDB.updateSystem(hostSystem);
 			}
+			DistributionRecorder.endRun(run);
 		}
 	}
 
@@ -664,13 +736,17 @@ public class SSHUtil {
 	public static void distributePubKeysToUser(Long userId) {
 
 		if (keyManagementEnabled) {
+			DistributionRun run = DistributionRecorder.startRun(DistributionRun.RUN_USER);
 			for (Profile profile : UserProfileDB.getProfilesByUser(userId)) {
 				List<HostSystem> hostSystemList = ProfileSystemsDB.getSystemsByProfile(profile.getId());
 				for (HostSystem hostSystem : hostSystemList) {
+					DistributionRecorder.startHost(hostSystem);
 					hostSystem = SSHUtil.authAndAddPubKey(hostSystem, null, null, false);
+					DistributionRecorder.endHost(run, hostSystem);
 					SystemDB.updateSystem(hostSystem);
 				}
 			}
+			DistributionRecorder.endRun(run);
 		}
 	}
 
@@ -682,18 +758,8 @@ public class SSHUtil {
 	 * @return fingerprint of public key                     
 	 */
 	public static String getFingerprint(String publicKey){
-		String fingerprint=null;
-		if(StringUtils.isNotEmpty(publicKey)){
-			try {
- 				KeyPair keyPair = KeyPair.load(new JSch(), null, publicKey.getBytes());
-				if(keyPair != null){
-					fingerprint=keyPair.getFingerPrint();
-				}
-			} catch (JSchException ex){
-				log.error(ex.toString(), ex);
-			}
-		}
-		return fingerprint;
+		KeyInfo keyInfo = getKeyInfo(publicKey);
+		return keyInfo != null ? keyInfo.fingerprint : null;
 	}
 
 	/**
@@ -703,31 +769,139 @@ public class SSHUtil {
 	 * @return fingerprint of public key                     
 	 */
 	public static String getKeyType(String publicKey){
-		String keyType=null;
-		if(StringUtils.isNotEmpty(publicKey)){
+		KeyInfo keyInfo = getKeyInfo(publicKey);
+		return keyInfo != null ? keyInfo.keyType : null;
+	}
+
+	/**
+	 * returns public key length in bits
+	 *
+	 * @param publicKey public key
+	 * @return bit length of the key or null if it can't be read
+	 */
+	public static Integer getKeyLength(String publicKey){
+		KeyInfo keyInfo = getKeyInfo(publicKey);
+		return keyInfo != null ? keyInfo.keyLength : null;
+	}
+
+	/**
+	 * returns the parsed metadata of a public key, each key is parsed once and kept in
+	 * the key info cache
+	 *
+	 * @param publicKey public key
+	 * @return key info or null for an empty key
+	 */
+	private static KeyInfo getKeyInfo(String publicKey){
+		if(StringUtils.isEmpty(publicKey)){
+			return null;
+		}
+		String cacheKey = publicKey.trim();
+		KeyInfo keyInfo = keyInfoCache.get(cacheKey);
+		if(keyInfo == null){
+			String keyType = null;
+			String fingerprint = null;
+			Integer keyLength = null;
 			try {
 				KeyPair keyPair = KeyPair.load(new JSch(), null, publicKey.getBytes());
-				if(keyPair != null) {
-					int type =keyPair.getKeyType();
-					if(KeyPair.DSA == type){
-						keyType="DSA";
-					} else if (KeyPair.RSA == type){
-						keyType="RSA";
-					} else if (KeyPair.ECDSA == type){
-						keyType="ECDSA";
-					} else if(KeyPair.UNKNOWN ==type){
-						keyType="UNKNOWN";
-					} else if(KeyPair.ERROR == type){
-						keyType="ERROR";
-					}
+				if(keyPair != null){
+					keyType = getKeyType(keyPair.getKeyType());
+					fingerprint = keyPair.getFingerPrint();
+					keyLength = parseKeyLength(cacheKey);
 				}
 			} catch (JSchException ex){
 				log.error(ex.toString(), ex);
 			}
+			//invalid keys are cached as well so they are only parsed and logged once
+			keyInfo = new KeyInfo(keyType, fingerprint, keyLength);
+			keyInfoCache.put(cacheKey, keyInfo);
+		}
+		return keyInfo;
+	}
+
+	/**
+	 * returns the name of a JSch key type
+	 *
+	 * @param type JSch key type
+	 * @return key type name
+	 */
+	private static String getKeyType(int type){
+		String keyType=null;
+		if(KeyPair.DSA == type){
+			keyType="DSA";
+		} else if (KeyPair.RSA == type){
+			keyType="RSA";
+		} else if (KeyPair.ECDSA == type){
+			keyType="ECDSA";
+		} else if(KeyPair.UNKNOWN ==type){
+			keyType="UNKNOWN";
+		} else if(KeyPair.ERROR == type){
+			keyType="ERROR";
 		}
 		return keyType;
 	}
 
+	/**
+	 * reads the bit length from the key blob of an OpenSSH public key, the modulus for
+	 * RSA, the prime p for DSA and the curve size for ECDSA
+	 *
+	 * @param publicKey public key in 'type base64 comment' format
+	 * @return bit length or null if the key type is not known
+	 */
+	private static Integer parseKeyLength(String publicKey){
+		String[] tokens = publicKey.split("\\s+");
+		if(tokens.length < 2){
+			return null;
+		}
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(Base64.decodeBase64(tokens[1])));
+			String type = new String(readBlobField(in), "US-ASCII");
+			if("ssh-rsa".equals(type)){
+				//skip the exponent
+				readBlobField(in);
+				return new BigInteger(readBlobField(in)).bitLength();
+			} else if("ssh-dss".equals(type)){
+				return new BigInteger(readBlobField(in)).bitLength();
+			} else if(type.startsWith("ecdsa-sha2-nistp") && StringUtils.isNumeric(type.substring("ecdsa-sha2-nistp".length()))){
+				return Integer.parseInt(type.substring("ecdsa-sha2-nistp".length()));
+			}
+		} catch (IOException ex){
+			log.error(ex.toString(), ex);
+		}
+		return null;
+	}
+
+	/**
+	 * reads a length prefixed field of a key blob
+	 *
+	 * @param in key blob
+	 * @return field bytes
+	 * @throws IOException
+	 */
+	private static byte[] readBlobField(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if(length < 0 || length > in.available()){
+			throw new IOException("Invalid public key blob");
+		}
+		byte[] field = new byte[length];
+		in.readFully(field);
+		return field;
+	}
+
+	/**
+	 * parsed public key metadata
+	 */
+	private static class KeyInfo {
+		final String keyType;
+		final String fingerprint;
+		final Integer keyLength;
+
+		KeyInfo(String keyType, String fingerprint, Integer keyLength) {
+			this.keyType = keyType;
+			this.fingerprint = fingerprint;
+			this.keyLength = keyLength;
+		}
+	}
+
 	/**
 	 * Generate ApplicationKey for dynamic Keys
 	 * 
@@ -761,6 +935,8 @@ public class SSHUtil {
 			String publicKey = out.toString();
 			applicationKey.setPublicKey(publicKey);
 			
+			//the generated key pair is known, seed the key info cache instead of parsing the key again
+			keyInfoCache.put(publicKey.trim(), new KeyInfo(getKeyType(keyPair.getKeyType()), keyPair.getFingerPrint(), KEY_LENGTH));
 			applicationKey.setType(SSHUtil.getKeyType(publicKey));
 			applicationKey.setUserId(null);
 			applicationKey.setEnabled(true);
@@ -781,11 +957,15 @@ public class SSHUtil {
 	public static void refreshApplicationKey(Integer days) {
 		List<HostSystem> systemList = SystemDB.getAllSystemsWhereApplicationKeyOlderThan(days);
 		
+		DistributionRun run = DistributionRecorder.startRun(DistributionRun.RUN_REFRESH_APP_KEY);
 		for (HostSystem hostSystem : systemList) {
 			if(hostSystem.getInstance().equals("---")){
+				DistributionRecorder.startHost(hostSystem);
 				hostSystem = SSHUtil.authAndAddPubKey(hostSystem, null, null, true);
+				DistributionRecorder.endHost(run, hostSystem);
 				SystemDB.updateSystem(hostSystem);
 			}
 		}
+		DistributionRecorder.endRun(run);
 	}
 }
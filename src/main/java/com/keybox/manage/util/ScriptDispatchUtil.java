@@ -0,0 +1,210 @@
+/**
+ * Copyright 2013 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.util;
+
+import com.keybox.common.util.AppConfig;
+import com.keybox.manage.model.SchSession;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Utility to send a script to all terminals of a composite session in parallel.
+ * Each terminal has its own queue so scripts reach a host in the order they
+ * were run, while a slow host does not hold up the others.
+ */
+public class ScriptDispatchUtil {
+
+    private static Logger log = LoggerFactory.getLogger(ScriptDispatchUtil.class);
+
+    public static final String STATUS_QUEUED = "queued";
+    public static final String STATUS_SENT = "sent";
+    public static final String STATUS_FAILED = "failed";
+
+    //number of terminals written to at the same time
+    public static final int DISPATCH_THREADS = StringUtils.isNumeric(AppConfig.getProperty("scriptDispatchThreads")) ? Integer.parseInt(AppConfig.getProperty("scriptDispatchThreads")) : 8;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    //channel queues by session id and instance id
+    private static ConcurrentMap<Long, Map<Integer, ChannelQueue>> channelQueueMap = new ConcurrentHashMap<Long, Map<Integer, ChannelQueue>>();
+    //dispatch status of the last script by session id and instance id
+    private static ConcurrentMap<Long, Map<Integer, String>> statusMap = new ConcurrentHashMap<Long, Map<Integer, String>>();
+
+    private static ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, DISPATCH_THREADS), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "script-dispatch");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private ScriptDispatchUtil() {
+    }
+
+    /**
+     * queues a script to be written to every terminal of the session and
+     * returns without waiting for the writes
+     *
+     * @param sessionId     session id
+     * @param script        script to run
+     * @param schSessionMap terminals of the session by instance id
+     */
+    public static void dispatch(Long sessionId, String script, Map<Integer, SchSession> schSessionMap) {
+
+        if (sessionId == null || script == null || schSessionMap == null || schSessionMap.isEmpty()) {
+            return;
+        }
+
+        //write lines the same way as the commander would with println
+        StringBuilder sb = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new StringReader(script));
+        String line;
+        try {
+            while ((line = reader.readLine()) != null) {
+                sb.append(line).append(System.lineSeparator());
+            }
+        } catch (IOException e) {
+            log.error(e.toString(), e);
+        }
+        byte[] bytes = sb.toString().getBytes(UTF8);
+
+        Map<Integer, ChannelQueue> queueMap = channelQueueMap.get(sessionId);
+        if (queueMap == null) {
+            queueMap = new ConcurrentHashMap<Integer, ChannelQueue>();
+            Map<Integer, ChannelQueue> existing = channelQueueMap.putIfAbsent(sessionId, queueMap);
+            if (existing != null) {
+                queueMap = existing;
+            }
+        }
+        Map<Integer, String> sessionStatusMap = new ConcurrentHashMap<Integer, String>();
+        statusMap.put(sessionId, sessionStatusMap);
+
+        for (Map.Entry<Integer, SchSession> entry : schSessionMap.entrySet()) {
+            Integer instanceId = entry.getKey();
+            SchSession schSession = entry.getValue();
+
+            ChannelQueue channelQueue = queueMap.get(instanceId);
+            //terminal was reconnected, start a new queue for the new channel
+            if (channelQueue == null || channelQueue.schSession != schSession) {
+                channelQueue = new ChannelQueue(schSession);
+                queueMap.put(instanceId, channelQueue);
+            }
+            sessionStatusMap.put(instanceId, STATUS_QUEUED);
+            channelQueue.offer(new Dispatch(bytes, instanceId, sessionStatusMap));
+        }
+    }
+
+    /**
+     * returns the dispatch status of the last script run for the session
+     *
+     * @param sessionId session id
+     * @return status by instance id
+     */
+    public static Map<Integer, String> getStatus(Long sessionId) {
+        Map<Integer, String> sessionStatusMap = statusMap.get(sessionId);
+        return sessionStatusMap != null ? sessionStatusMap : new ConcurrentHashMap<Integer, String>();
+    }
+
+    /**
+     * removes the queues and status for a closed session
+     *
+     * @param sessionId session id
+     */
+    public static void removeUserSession(Long sessionId) {
+        channelQueueMap.remove(sessionId);
+        statusMap.remove(sessionId);
+    }
+
+    /**
+     * script bytes to write to one terminal and where to record the result
+     */
+    private static class Dispatch {
+        final byte[] bytes;
+        final Integer instanceId;
+        final Map<Integer, String> sessionStatusMap;
+
+        Dispatch(byte[] bytes, Integer instanceId, Map<Integer, String> sessionStatusMap) {
+            this.bytes = bytes;
+            this.instanceId = instanceId;
+            this.sessionStatusMap = sessionStatusMap;
+        }
+    }
+
+    /**
+     * queue of scripts for one terminal, drained by at most one pool thread at a time
+     */
+    private static class ChannelQueue implements Runnable {
+        final SchSession schSession;
+        final Queue<Dispatch> queue = new ConcurrentLinkedQueue<Dispatch>();
+        final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        ChannelQueue(SchSession schSession) {
+            this.schSession = schSession;
+        }
+
+        void offer(Dispatch dispatch) {
+            queue.offer(dispatch);
+            schedule();
+        }
+
+        void schedule() {
+            if (!queue.isEmpty() && scheduled.compareAndSet(false, true)) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            Dispatch dispatch;
+            while ((dispatch = queue.poll()) != null) {
+                String status = STATUS_FAILED;
+                try {
+                    PrintStream commander = schSession.getCommander();
+                    if (commander != null) {
+                        commander.write(dispatch.bytes, 0, dispatch.bytes.length);
+                        commander.flush();
+                        if (!commander.checkError()) {
+                            status = STATUS_SENT;
+                        }
+                    }
+                } catch (Exception e) {
+                    log.error(e.toString(), e);
+                }
+                dispatch.sessionStatusMap.put(dispatch.instanceId, status);
+            }
+            scheduled.set(false);
+            //pick up a script queued after the last poll
+            schedule();
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/**
+ * Copyright 2013 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.util;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded ring buffer for the output of a terminal instance. The SSH reader writes
+ * the raw bytes from the channel to the buffer and the websocket sender drains it,
+ * the buffer is allocated once for the instance and reused for every flush.
+ * <br><br>
+ * The bytes are decoded as UTF-8 once when they are drained. A char that is split
+ * across reads stays in the buffer until the rest of its bytes arrive.
+ * <br><br>
+ * The handoff is lock-free. Only the reader thread writes and advances the tail,
+ * the sender decodes the bytes between head and tail and then moves the head with a
+ * compare-and-set. When the writer drops output it moves the head as well, a drain
+ * that raced with the drop fails its compare-and-set and copies again, so output is
+ * never lost or sent twice.
+ * <br><br>
+ * When the buffer is full and the sender has not drained it, the overflow policy
+ * either drops the oldest output and adds a marker on the next drain, or pauses the
+ * reader until there is space so the SSH channel stops reading from the host
+ */
+public class SessionOutputBuffer {
+
+    public static final String OVERFLOW_DROP = "drop";
+    public static final String OVERFLOW_PAUSE = "pause";
+
+    //max wait before a paused writer checks if the buffer was closed
+    private static final long PAUSE_WAIT = TimeUnit.MILLISECONDS.toNanos(1000);
+
+    //max bytes of one UTF-8 char
+    private static final int MAX_CHAR_BYTES = 4;
+
+    private final byte[] buffer;
+    private final boolean pause;
+    //position of the next char to drain, moved by the sender and by the writer when dropping
+    private final AtomicLong head = new AtomicLong();
+    //position of the next char to write, only moved by the writer
+    private volatile long tail = 0;
+    //bytes dropped since the last drain
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile Thread pausedWriter;
+    private volatile boolean closed = false;
+
+    //decoder state, only used by the sender while holding the drain lock
+    private final Object drainLock = new Object();
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final CharBuffer chars = CharBuffer.allocate(4096);
+    private final byte[] carry = new byte[2 * (MAX_CHAR_BYTES - 1)];
+
+    /**
+     * @param capacity       max bytes held until the next drain
+     * @param overflowPolicy {@link #OVERFLOW_DROP} or {@link #OVERFLOW_PAUSE}
+     */
+    public SessionOutputBuffer(int capacity, String overflowPolicy) {
+        this.buffer = new byte[Math.max(capacity, MAX_CHAR_BYTES)];
+        this.pause = OVERFLOW_PAUSE.equals(overflowPolicy);
+    }
+
+    /**
+     * appends output to the buffer, dropping the oldest output or waiting for the
+     * next drain if the buffer is full. Must only be called from the writer thread
+     *
+     * @param value  array that is the source of bytes
+     * @param offset the initial offset
+     * @param count  the length
+     * @return number of bytes dropped to make room
+     * @throws InterruptedException if interrupted while paused
+     */
+    public int write(byte[] value, int offset, int count) throws InterruptedException {
+        int droppedCount = 0;
+        long t = tail;
+        while (count > 0 && !closed) {
+            long h = head.get();
+            int free = buffer.length - (int) (t - h);
+            if (free == 0) {
+                if (pause) {
+                    pausedWriter = Thread.currentThread();
+                    //check again after setting the writer so a drain in between is not missed
+                    if (head.get() == h && !closed) {
+                        LockSupport.parkNanos(this, PAUSE_WAIT);
+                    }
+                    pausedWriter = null;
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                } else {
+                    //drop oldest to make room for the rest of the output
+                    int drop = Math.min(count, buffer.length);
+                    if (head.compareAndSet(h, h + drop)) {
+                        droppedCount += drop;
+                        dropped.addAndGet(drop);
+                    }
+                }
+                continue;
+            }
+            int pos = (int) (t % buffer.length);
+            int len = Math.min(count, Math.min(free, buffer.length - pos));
+            System.arraycopy(value, offset, buffer, pos, len);
+            t += len;
+            //publish the bytes to the sender
+            tail = t;
+            offset += len;
+            count -= len;
+        }
+        return droppedCount;
+    }
+
+    /**
+     * decodes the buffered output to a string builder, a marker is added in front of
+     * the output if output was dropped since the last drain
+     *
+     * @param output builder to append to
+     * @return true if output was appended
+     */
+    public boolean drainTo(StringBuilder output) {
+        synchronized (drainLock) {
+            int mark = output.length();
+            while (true) {
+                long h = head.get();
+                long t = tail;
+                int size = (int) (t - h);
+                if (size > buffer.length) {
+                    //the writer dropped and wrote past the head read above
+                    continue;
+                }
+                int consumed = 0;
+                if (size > 0) {
+                    if (dropped.get() > 0) {
+                        //a drop can cut a char, skip the rest of its bytes
+                        while (consumed < size && (buffer[(int) ((h + consumed) % buffer.length)] & 0xC0) == 0x80) {
+                            consumed++;
+                        }
+                    }
+                    consumed += decode(h + consumed, size - consumed, output);
+                    if (!head.compareAndSet(h, h + consumed)) {
+                        //the writer dropped output while it was decoded
+                        output.setLength(mark);
+                        continue;
+                    }
+                    Thread writer = pausedWriter;
+                    if (writer != null && consumed > 0) {
+                        LockSupport.unpark(writer);
+                    }
+                }
+                long droppedCount = dropped.getAndSet(0);
+                if (droppedCount > 0) {
+                    output.insert(mark, "\r\n[output truncated, " + droppedCount + " bytes dropped]\r\n");
+                }
+                return output.length() > mark;
+            }
+        }
+    }
+
+    /**
+     * decodes the complete UTF-8 chars in a range of the ring, the bytes of a char
+     * that is not complete are left in the ring
+     *
+     * @param start  position of the first byte
+     * @param length number of bytes
+     * @param output builder to append to
+     * @return number of bytes decoded
+     */
+    private int decode(long start, int length, StringBuilder output) {
+        decoder.reset();
+        int pos = (int) (start % buffer.length);
+        int first = Math.min(length, buffer.length - pos);
+        ByteBuffer in = ByteBuffer.wrap(buffer, pos, first);
+        decode(in, output);
+        int consumed = first - in.remaining();
+        int second = length - first;
+        if (second == 0) {
+            return consumed;
+        }
+        int offset = 0;
+        if (in.hasRemaining()) {
+            //a char is split by the end of the ring, decode it from a copy of its bytes
+            int left = in.remaining();
+            int take = Math.min(second, MAX_CHAR_BYTES - 1);
+            in.get(carry, 0, left);
+            System.arraycopy(buffer, 0, carry, left, take);
+            ByteBuffer carryIn = ByteBuffer.wrap(carry, 0, left + take);
+            decode(carryIn, output);
+            offset = take - carryIn.remaining();
+            if (offset < 0) {
+                //the char is still not complete
+                return consumed;
+            }
+            consumed = first;
+        }
+        in = ByteBuffer.wrap(buffer, offset, second - offset);
+        decode(in, output);
+        return consumed + second - in.remaining();
+    }
+
+    /**
+     * decodes bytes to the builder, stops at a char that is not complete
+     *
+     * @param in     bytes to decode
+     * @param output builder to append to
+     */
+    private void decode(ByteBuffer in, StringBuilder output) {
+        while (true) {
+            CoderResult result = decoder.decode(in, chars, false);
+            output.append(chars.array(), 0, chars.position());
+            chars.clear();
+            if (result.isUnderflow()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * returns the number of buffered bytes
+     *
+     * @return buffered bytes
+     */
+    public int size() {
+        return Math.max(0, Math.min(buffer.length, (int) (tail - head.get())));
+    }
+
+    /**
+     * releases a paused writer, further output is discarded
+     */
+    public void close() {
+        closed = true;
+        Thread writer = pausedWriter;
+        if (writer != null) {
+            LockSupport.unpark(writer);
+        }
+    }
+}
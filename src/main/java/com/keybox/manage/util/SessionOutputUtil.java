@@ -27,9 +27,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.commons.lang3.StringUtils;
 
-import java.sql.Connection;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * Utility to is used to store the output for a session until the ajax call that brings it to the screen
@@ -38,11 +41,18 @@ public class SessionOutputUtil {
 
     private static Logger log = LoggerFactory.getLogger(SessionOutputUtil.class);
 
-    private static Map<Long, UserSessionsOutput> userSessionsOutputMap = new ConcurrentHashMap<Long, UserSessionsOutput>();
+    private static ConcurrentMap<Long, UserSessionsOutput> userSessionsOutputMap = new ConcurrentHashMap<Long, UserSessionsOutput>();
     public static boolean enableInternalAudit = "true".equals(AppConfig.getProperty("enableInternalAudit"));
     private static Gson gson = new GsonBuilder().registerTypeAdapter(AuditWrapper.class, new SessionOutputSerializer()).create();
     private static Logger systemAuditLogger = LoggerFactory.getLogger("com.keybox.manage.util.SystemAudit");
 
+    //max bytes buffered per terminal instance until the next flush to the client
+    public static final int OUTPUT_BUFFER_SIZE = StringUtils.isNumeric(AppConfig.getProperty("sessionOutputBufferSize")) ? Integer.parseInt(AppConfig.getProperty("sessionOutputBufferSize")) : 262144;
+    public static final String OUTPUT_OVERFLOW = StringUtils.isNotEmpty(AppConfig.getProperty("sessionOutputOverflow")) ? AppConfig.getProperty("sessionOutputOverflow") : SessionOutputBuffer.OVERFLOW_DROP;
+
+    private static final AtomicLong droppedCount = new AtomicLong();
+    private static final AtomicLong overflowCount = new AtomicLong();
+
     /**
      * removes session for user session
      *
@@ -51,9 +61,13 @@ public class SessionOutputUtil {
     public static void removeUserSession(Long sessionId) {
         UserSessionsOutput userSessionsOutput = userSessionsOutputMap.get(sessionId);
         if (userSessionsOutput != null) {
+            for (SessionOutput sessionOutput : userSessionsOutput.getSessionOutputMap().values()) {
+                sessionOutput.getBuffer().close();
+            }
             userSessionsOutput.getSessionOutputMap().clear();
         }
         userSessionsOutputMap.remove(sessionId);
+        TerminalMetrics.removeSession(sessionId);
     }
 
     /**
@@ -66,72 +80,127 @@ public class SessionOutputUtil {
 
         UserSessionsOutput userSessionsOutput = userSessionsOutputMap.get(sessionId);
         if (userSessionsOutput != null) {
-            userSessionsOutput.getSessionOutputMap().remove(instanceId);
+            SessionOutput sessionOutput = userSessionsOutput.getSessionOutputMap().remove(instanceId);
+            if (sessionOutput != null) {
+                sessionOutput.getBuffer().close();
+            }
         }
+        TerminalMetrics.removeInstance(sessionId, instanceId);
     }
 
     /**
-     * adds a new output
+     * adds a new output with an output buffer for the instance
      *
      * @param sessionOutput session output object
      */
     public static void addOutput(SessionOutput sessionOutput) {
 
+        sessionOutput.setBuffer(new SessionOutputBuffer(OUTPUT_BUFFER_SIZE, OUTPUT_OVERFLOW));
+
+        //instances of a session can start at the same time, only one output map is kept
         UserSessionsOutput userSessionsOutput = userSessionsOutputMap.get(sessionOutput.getSessionId());
         if (userSessionsOutput == null) {
-            userSessionsOutputMap.put(sessionOutput.getSessionId(), new UserSessionsOutput());
+            userSessionsOutputMap.putIfAbsent(sessionOutput.getSessionId(), new UserSessionsOutput());
             userSessionsOutput = userSessionsOutputMap.get(sessionOutput.getSessionId());
         }
         userSessionsOutput.getSessionOutputMap().put(sessionOutput.getInstanceId(), sessionOutput);
+        TerminalMetrics.addInstance(sessionOutput);
     }
 
 
     /**
-     * adds a new output
+     * sets the pattern counted in the output of a session, the count starts with the
+     * next output of each instance
+     *
+     * @param sessionId session id
+     * @param regex     regular expression, empty or invalid turns matching off
+     */
+    public static void setMatchPattern(Long sessionId, String regex) {
+
+        UserSessionsOutput userSessionsOutput = userSessionsOutputMap.get(sessionId);
+        if (userSessionsOutput != null) {
+            Pattern matchPattern = null;
+            if (StringUtils.isNotEmpty(regex)) {
+                try {
+                    matchPattern = Pattern.compile(regex);
+                } catch (PatternSyntaxException ex) {
+                    log.debug(ex.toString());
+                }
+            }
+            userSessionsOutput.setMatchPattern(matchPattern);
+        }
+    }
+
+    /**
+     * adds a new output, when the instance buffer is full the oldest output is dropped
+     * or the caller waits for the next flush depending on sessionOutputOverflow
      *
      * @param sessionId    session id
      * @param instanceId id of host system instance
-     * @param value        Array that is the source of characters
+     * @param value        Array that is the source of bytes
      * @param offset       The initial offset
      * @param count        The length
+     * @throws InterruptedException if interrupted while waiting for the buffer
      */
-    public static void addToOutput(Long sessionId, Integer instanceId, char value[], int offset, int count) {
+    public static void addToOutput(Long sessionId, Integer instanceId, byte value[], int offset, int count) throws InterruptedException {
 
         UserSessionsOutput userSessionsOutput = userSessionsOutputMap.get(sessionId);
         if (userSessionsOutput != null) {
-            userSessionsOutput.getSessionOutputMap().get(instanceId).getOutput().append(value, offset, count);
+            SessionOutput sessionOutput = userSessionsOutput.getSessionOutputMap().get(instanceId);
+            if (sessionOutput != null) {
+                TerminalMetrics.channelRead(sessionId, instanceId, count);
+                int dropped = sessionOutput.getBuffer().write(value, offset, count);
+                if (dropped > 0) {
+                    droppedCount.addAndGet(dropped);
+                    overflowCount.incrementAndGet();
+                }
+            }
         }
     }
 
 
     /**
-     * returns list of output lines
+     * returns list of output lines. When internal audit is enabled the output is
+     * written with one batch on a connection that is returned right away.
+     * <br><br>
+     * The returned outputs are reused for the instance, their output is replaced on
+     * the next call for the session. If a match pattern is set the new output is
+     * scanned and the number of new matches is set on the output
      *
      * @param sessionId session id object
      * @param user user auth object
      * @return session output list
      */
-    public static List<SessionOutput> getOutput(Connection con, Long sessionId, User user) {
+    public static List<SessionOutput> getOutput(Long sessionId, User user) {
         List<SessionOutput> outputList = new ArrayList<SessionOutput>();
 
         UserSessionsOutput userSessionsOutput = userSessionsOutputMap.get(sessionId);
         if (userSessionsOutput != null) {
+            Pattern matchPattern = userSessionsOutput.getMatchPattern();
             for (Integer key : userSessionsOutput.getSessionOutputMap().keySet()) {
 
                 //get output chars and set to output
                 try {
                     SessionOutput sessionOutput = userSessionsOutput.getSessionOutputMap().get(key);
-                    if (sessionOutput!=null && sessionOutput.getOutput() != null) {
-                        if (StringUtils.isNotEmpty(sessionOutput.getOutput())) {
+                    if (sessionOutput != null) {
+                        sessionOutput.getOutput().setLength(0);
+                        if (sessionOutput.getBuffer().drainTo(sessionOutput.getOutput())) {
+                            sessionOutput.setMatchCount(null);
+                            if (matchPattern != null) {
+                                if (sessionOutput.getMatcher() == null || sessionOutput.getMatcher().getPattern() != matchPattern) {
+                                    sessionOutput.setMatcher(new OutputMatcher(matchPattern));
+                                }
+                                int matchCount = sessionOutput.getMatcher().match(sessionOutput.getOutput());
+                                if (matchCount > 0) {
+                                    sessionOutput.setMatchCount(matchCount);
+                                }
+                            } else {
+                                sessionOutput.setMatcher(null);
+                            }
                             outputList.add(sessionOutput);
 
                             //send to audit logger
                             systemAuditLogger.info(gson.toJson(new AuditWrapper(user, sessionOutput)));
-
-                            if(enableInternalAudit) {
-                                SessionAuditDB.insertTerminalLog(con, sessionOutput);
-                            }
-                            userSessionsOutput.getSessionOutputMap().put(key, new SessionOutput(sessionId, sessionOutput));
                         }
                     }
                 } catch (Exception ex) {
@@ -139,6 +208,34 @@ public class SessionOutputUtil {
                 }
             }
         }
+        if (enableInternalAudit && !outputList.isEmpty()) {
+            long start = System.nanoTime();
+            SessionAuditDB.insertTerminalLogs(outputList);
+            TerminalMetrics.auditWriteTime.observe((System.nanoTime() - start) / 1000000);
+        }
         return outputList;
     }
+
+    /**
+     * returns terminal output buffer metrics
+     *
+     * @return map of metric name / value
+     */
+    public static Map<String, Long> getOutputStats() {
+        Map<String, Long> statMap = new LinkedHashMap<String, Long>();
+        long instances = 0;
+        long buffered = 0;
+        for (UserSessionsOutput userSessionsOutput : userSessionsOutputMap.values()) {
+            for (SessionOutput sessionOutput : userSessionsOutput.getSessionOutputMap().values()) {
+                instances++;
+                buffered += sessionOutput.getBuffer().size();
+            }
+        }
+        statMap.put("instances", instances);
+        statMap.put("buffered_bytes", buffered);
+        statMap.put("buffer_size", (long) OUTPUT_BUFFER_SIZE);
+        statMap.put("dropped_bytes", droppedCount.get());
+        statMap.put("overflow_count", overflowCount.get());
+        return statMap;
+    }
 }
@@ -0,0 +1,214 @@
+/**
+ * Copyright 2013 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory index of which systems a user can reach through the profiles in
+ * system_map and user_map. Each user has a bitmap of system ids, so permission
+ * checks are a bit lookup instead of a join.
+ * <br><br>
+ * The index is rebuilt on the next lookup after the profile mappings change, it is
+ * tied to the generations of the profile regions in {@link DBCache} which the DAOs
+ * invalidate on every membership write. It also expires with the cache TTL, and if
+ * the cache is disabled the lookups go to the DB
+ */
+public class SystemAccessIndex {
+
+    private static volatile Snapshot snapshot;
+
+    private SystemAccessIndex() {
+    }
+
+    /**
+     * returns the system ids a user can reach through the user's profiles
+     *
+     * @param con    DB connection
+     * @param userId user id
+     * @return system ids in ascending order
+     * @throws SQLException
+     */
+    public static List<Long> getSystemIds(Connection con, Long userId) throws SQLException {
+        List<Long> systemIdList = new ArrayList<Long>();
+        if (DBCache.CACHE_TTL <= 0) {
+            PreparedStatement stmt = con.prepareStatement("select distinct system_id from  system_map m, user_map um where m.profile_id=um.profile_id and um.user_id=? order by system_id");
+            stmt.setLong(1, userId);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                systemIdList.add(rs.getLong("system_id"));
+            }
+            DBUtils.closeRs(rs);
+            DBUtils.closeStmt(stmt);
+            return systemIdList;
+        }
+        BitSet systemBits = getSnapshot(con).userSystemMap.get(userId);
+        if (systemBits != null) {
+            for (int i = systemBits.nextSetBit(0); i >= 0; i = systemBits.nextSetBit(i + 1)) {
+                systemIdList.add((long) i);
+            }
+        }
+        return systemIdList;
+    }
+
+    /**
+     * checks if a user can reach a system through the user's profiles
+     *
+     * @param con      DB connection
+     * @param userId   user id
+     * @param systemId system id
+     * @return true if the system is in one of the user's profiles
+     * @throws SQLException
+     */
+    public static boolean hasAccess(Connection con, Long userId, Long systemId) throws SQLException {
+        if (userId == null || systemId == null) {
+            return false;
+        }
+        if (DBCache.CACHE_TTL <= 0) {
+            PreparedStatement stmt = con.prepareStatement("select 1 from system_map m, user_map um where m.profile_id=um.profile_id and um.user_id=? and m.system_id=? limit 1");
+            stmt.setLong(1, userId);
+            stmt.setLong(2, systemId);
+            ResultSet rs = stmt.executeQuery();
+            boolean access = rs.next();
+            DBUtils.closeRs(rs);
+            DBUtils.closeStmt(stmt);
+            return access;
+        }
+        BitSet systemBits = getSnapshot(con).userSystemMap.get(userId);
+        return systemBits != null && systemId >= 0 && systemId <= Integer.MAX_VALUE && systemBits.get(systemId.intValue());
+    }
+
+    /**
+     * returns the profiles a system is assigned to
+     *
+     * @param con      DB connection
+     * @param systemId system id
+     * @return profile ids
+     * @throws SQLException
+     */
+    public static Set<Long> getProfileIds(Connection con, Long systemId) throws SQLException {
+        if (DBCache.CACHE_TTL <= 0) {
+            Set<Long> profileIdSet = new LinkedHashSet<Long>();
+            PreparedStatement stmt = con.prepareStatement("select profile_id from system_map where system_id=?");
+            stmt.setLong(1, systemId);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                profileIdSet.add(rs.getLong("profile_id"));
+            }
+            DBUtils.closeRs(rs);
+            DBUtils.closeStmt(stmt);
+            return profileIdSet;
+        }
+        Set<Long> profileIdSet = getSnapshot(con).systemProfileMap.get(systemId);
+        return profileIdSet != null ? Collections.unmodifiableSet(profileIdSet) : Collections.<Long>emptySet();
+    }
+
+    /**
+     * returns the current index, rebuilding it if the profile mappings changed or it expired
+     *
+     * @param con DB connection
+     * @return index snapshot
+     * @throws SQLException
+     */
+    private static Snapshot getSnapshot(Connection con) throws SQLException {
+        Snapshot current = snapshot;
+        if (current == null || !current.isValid()) {
+            synchronized (SystemAccessIndex.class) {
+                current = snapshot;
+                if (current == null || !current.isValid()) {
+                    current = new Snapshot(con);
+                    snapshot = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * immutable index built from one read of system_map and user_map
+     */
+    private static class Snapshot {
+
+        //generations of the mapping regions the index was built from
+        final long profileSystemGeneration = DBCache.PROFILE_SYSTEMS.getGeneration();
+        final long userProfileGeneration = DBCache.USER_PROFILES.getGeneration();
+        final long expireTm = System.currentTimeMillis() + DBCache.CACHE_TTL * 1000;
+
+        final Map<Long, Set<Long>> systemProfileMap = new HashMap<Long, Set<Long>>();
+        final Map<Long, BitSet> userSystemMap = new HashMap<Long, BitSet>();
+
+        Snapshot(Connection con) throws SQLException {
+
+            Map<Long, BitSet> profileSystemMap = new HashMap<Long, BitSet>();
+            PreparedStatement stmt = con.prepareStatement("select profile_id, system_id from system_map");
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                Long profileId = rs.getLong("profile_id");
+                Long systemId = rs.getLong("system_id");
+                BitSet systemBits = profileSystemMap.get(profileId);
+                if (systemBits == null) {
+                    systemBits = new BitSet();
+                    profileSystemMap.put(profileId, systemBits);
+                }
+                systemBits.set(systemId.intValue());
+
+                Set<Long> profileIdSet = systemProfileMap.get(systemId);
+                if (profileIdSet == null) {
+                    profileIdSet = new LinkedHashSet<Long>();
+                    systemProfileMap.put(systemId, profileIdSet);
+                }
+                profileIdSet.add(profileId);
+            }
+            DBUtils.closeRs(rs);
+            DBUtils.closeStmt(stmt);
+
+            stmt = con.prepareStatement("select user_id, profile_id from user_map");
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                BitSet profileSystemBits = profileSystemMap.get(rs.getLong("profile_id"));
+                if (profileSystemBits == null) {
+                    continue;
+                }
+                Long userId = rs.getLong("user_id");
+                BitSet systemBits = userSystemMap.get(userId);
+                if (systemBits == null) {
+                    systemBits = new BitSet();
+                    userSystemMap.put(userId, systemBits);
+                }
+                systemBits.or(profileSystemBits);
+            }
+            DBUtils.closeRs(rs);
+            DBUtils.closeStmt(stmt);
+        }
+
+        boolean isValid() {
+            return profileSystemGeneration == DBCache.PROFILE_SYSTEMS.getGeneration()
+                    && userProfileGeneration == DBCache.USER_PROFILES.getGeneration()
+                    && System.currentTimeMillis() < expireTm;
+        }
+    }
+}
@@ -0,0 +1,302 @@
+/**
+ * Copyright 2013 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.util;
+
+import com.keybox.manage.model.SessionOutput;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Metrics for terminal sessions, from the ssh channel through the output buffer to
+ * the web socket and the audit. Counters are kept for each instance while it is
+ * open and in totals for the application.
+ */
+public class TerminalMetrics {
+
+    //latency buckets in milliseconds
+    private static final long[] LATENCY_BUCKETS = {1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+    //flush size buckets in bytes
+    private static final long[] SIZE_BUCKETS = {64, 256, 1024, 4096, 16384, 65536, 262144, 1048576};
+
+    //keystroke until the echo is read from the channel
+    public static final Histogram channelEchoLatency = new Histogram(LATENCY_BUCKETS);
+    //keystroke until the echo is sent on the web socket
+    public static final Histogram echoLatency = new Histogram(LATENCY_BUCKETS);
+    //time to serialize a flush
+    public static final Histogram serializeTime = new Histogram(LATENCY_BUCKETS);
+    //time to send a flush on the web socket
+    public static final Histogram sendTime = new Histogram(LATENCY_BUCKETS);
+    //time to write the output of a flush to the audit
+    public static final Histogram auditWriteTime = new Histogram(LATENCY_BUCKETS);
+    //bytes sent to the web socket per flush
+    public static final Histogram flushSize = new Histogram(SIZE_BUCKETS);
+
+    private static final AtomicLong bytesIn = new AtomicLong();
+    private static final AtomicLong bytesOut = new AtomicLong();
+
+    //instance metrics by session id and instance id
+    private static ConcurrentMap<Long, ConcurrentMap<Integer, InstanceMetrics>> instanceMap = new ConcurrentHashMap<Long, ConcurrentMap<Integer, InstanceMetrics>>();
+
+    private TerminalMetrics() {
+    }
+
+    /**
+     * starts metrics for a new terminal instance
+     *
+     * @param sessionOutput output of the instance
+     */
+    public static void addInstance(SessionOutput sessionOutput) {
+        ConcurrentMap<Integer, InstanceMetrics> sessionMap = instanceMap.get(sessionOutput.getSessionId());
+        if (sessionMap == null) {
+            instanceMap.putIfAbsent(sessionOutput.getSessionId(), new ConcurrentHashMap<Integer, InstanceMetrics>());
+            sessionMap = instanceMap.get(sessionOutput.getSessionId());
+        }
+        sessionMap.put(sessionOutput.getInstanceId(), new InstanceMetrics(sessionOutput));
+    }
+
+    /**
+     * removes metrics for a closed instance, totals are kept
+     *
+     * @param sessionId  session id
+     * @param instanceId instance id
+     */
+    public static void removeInstance(Long sessionId, Integer instanceId) {
+        Map<Integer, InstanceMetrics> sessionMap = instanceMap.get(sessionId);
+        if (sessionMap != null) {
+            sessionMap.remove(instanceId);
+        }
+    }
+
+    /**
+     * removes metrics for all instances of a closed session
+     *
+     * @param sessionId session id
+     */
+    public static void removeSession(Long sessionId) {
+        instanceMap.remove(sessionId);
+    }
+
+    private static InstanceMetrics getInstance(Long sessionId, Integer instanceId) {
+        Map<Integer, InstanceMetrics> sessionMap = instanceMap.get(sessionId);
+        return sessionMap != null ? sessionMap.get(instanceId) : null;
+    }
+
+    /**
+     * records input typed to the instance, the first keystroke without an echo
+     * starts the echo latency
+     *
+     * @param sessionId  session id
+     * @param instanceId instance id
+     * @param count      bytes written to the channel
+     */
+    public static void keySent(Long sessionId, Integer instanceId, int count) {
+        bytesOut.addAndGet(count);
+        InstanceMetrics instance = getInstance(sessionId, instanceId);
+        if (instance != null) {
+            instance.bytesOut.addAndGet(count);
+            instance.keyTime.compareAndSet(0, System.nanoTime());
+        }
+    }
+
+    /**
+     * records output read from the channel of the instance
+     *
+     * @param sessionId  session id
+     * @param instanceId instance id
+     * @param count      bytes read from the channel
+     */
+    public static void channelRead(Long sessionId, Integer instanceId, int count) {
+        bytesIn.addAndGet(count);
+        InstanceMetrics instance = getInstance(sessionId, instanceId);
+        if (instance != null) {
+            instance.bytesIn.addAndGet(count);
+            long keyTime = instance.keyTime.getAndSet(0);
+            if (keyTime != 0) {
+                channelEchoLatency.observe((System.nanoTime() - keyTime) / 1000000);
+                instance.echoTime.compareAndSet(0, keyTime);
+            }
+        }
+    }
+
+    /**
+     * records output of the instance sent on the web socket
+     *
+     * @param sessionId  session id
+     * @param instanceId instance id
+     */
+    public static void outputSent(Long sessionId, Integer instanceId) {
+        InstanceMetrics instance = getInstance(sessionId, instanceId);
+        if (instance != null) {
+            long echoTime = instance.echoTime.getAndSet(0);
+            if (echoTime != 0) {
+                echoLatency.observe((System.nanoTime() - echoTime) / 1000000);
+            }
+        }
+    }
+
+    /**
+     * returns terminal totals
+     *
+     * @return map of metric name / value
+     */
+    public static Map<String, Long> getTerminalStats() {
+        Map<String, Long> statMap = new LinkedHashMap<String, Long>();
+        statMap.put("bytes_in", bytesIn.get());
+        statMap.put("bytes_out", bytesOut.get());
+        statMap.put("flush_count", flushSize.getCount());
+        statMap.put("flush_bytes", flushSize.getSum());
+        statMap.put("echo_p50_ms", echoLatency.quantile(0.5));
+        statMap.put("echo_p95_ms", echoLatency.quantile(0.95));
+        statMap.put("channel_echo_p50_ms", channelEchoLatency.quantile(0.5));
+        statMap.put("channel_echo_p95_ms", channelEchoLatency.quantile(0.95));
+        statMap.put("serialize_p95_ms", serializeTime.quantile(0.95));
+        statMap.put("send_p95_ms", sendTime.quantile(0.95));
+        statMap.put("audit_write_p95_ms", auditWriteTime.quantile(0.95));
+        return statMap;
+    }
+
+    /**
+     * returns metrics of the open instances
+     *
+     * @return instance metrics
+     */
+    public static List<InstanceMetrics> getInstanceMetrics() {
+        List<InstanceMetrics> instanceList = new ArrayList<InstanceMetrics>();
+        for (Map<Integer, InstanceMetrics> sessionMap : instanceMap.values()) {
+            instanceList.addAll(sessionMap.values());
+        }
+        return instanceList;
+    }
+
+    /**
+     * metrics of an open terminal instance
+     */
+    public static class InstanceMetrics {
+        final SessionOutput sessionOutput;
+        final AtomicLong bytesIn = new AtomicLong();
+        final AtomicLong bytesOut = new AtomicLong();
+        //time of the first keystroke not yet echoed by the channel
+        final AtomicLong keyTime = new AtomicLong();
+        //time of the keystroke echoed by the channel and not yet sent
+        final AtomicLong echoTime = new AtomicLong();
+
+        InstanceMetrics(SessionOutput sessionOutput) {
+            this.sessionOutput = sessionOutput;
+        }
+
+        public Long getSessionId() {
+            return sessionOutput.getSessionId();
+        }
+
+        public Integer getInstanceId() {
+            return sessionOutput.getInstanceId();
+        }
+
+        public String getHost() {
+            return sessionOutput.getHost();
+        }
+
+        public long getBytesIn() {
+            return bytesIn.get();
+        }
+
+        public long getBytesOut() {
+            return bytesOut.get();
+        }
+
+        public long getBufferedBytes() {
+            return sessionOutput.getBuffer() != null ? sessionOutput.getBuffer().size() : 0;
+        }
+    }
+
+    /**
+     * histogram with fixed bucket bounds, buckets are cumulative when read
+     */
+    public static class Histogram {
+        final long[] bounds;
+        //last count is for values over the largest bound
+        final AtomicLongArray counts;
+        final AtomicLong sum = new AtomicLong();
+
+        Histogram(long[] bounds) {
+            this.bounds = bounds;
+            this.counts = new AtomicLongArray(bounds.length + 1);
+        }
+
+        public void observe(long value) {
+            int i = 0;
+            while (i < bounds.length && value > bounds[i]) {
+                i++;
+            }
+            counts.incrementAndGet(i);
+            sum.addAndGet(value);
+        }
+
+        public long[] getBounds() {
+            return bounds;
+        }
+
+        /**
+         * @return count of values up to each bound, the last entry is the total count
+         */
+        public long[] getCumulativeCounts() {
+            long[] cumulative = new long[counts.length()];
+            long total = 0;
+            for (int i = 0; i < cumulative.length; i++) {
+                total += counts.get(i);
+                cumulative[i] = total;
+            }
+            return cumulative;
+        }
+
+        public long getCount() {
+            long[] cumulative = getCumulativeCounts();
+            return cumulative[cumulative.length - 1];
+        }
+
+        public long getSum() {
+            return sum.get();
+        }
+
+        /**
+         * returns the upper bound of the bucket that holds the quantile
+         *
+         * @param q quantile between 0 and 1
+         * @return bucket bound, 0 if empty
+         */
+        public long quantile(double q) {
+            long[] cumulative = getCumulativeCounts();
+            long total = cumulative[cumulative.length - 1];
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(q * total);
+            for (int i = 0; i < bounds.length; i++) {
+                if (cumulative[i] >= rank) {
+                    return bounds[i];
+                }
+            }
+            return bounds[bounds.length - 1];
+        }
+    }
+}
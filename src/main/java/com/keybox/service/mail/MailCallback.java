@@ -0,0 +1,32 @@
+/**
+ * Copyright 2015 Robert Vorkoeper - robert-vor@gmx.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.service.mail;
+
+/**
+ * Notified by the MailDispatcher once a message was sent or finally failed
+ */
+public interface MailCallback {
+
+	/**
+	 * Called after the message was accepted by the SMTP server
+	 */
+	void sent();
+
+	/**
+	 * Called after the message was rejected or all send attempts failed
+	 */
+	void failed();
+}
@@ -15,13 +15,34 @@
  */
 package com.keybox.service.mail;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.PropertiesConfiguration;
 
 public class MailConfigLoader {
 	
-	private static PropertiesConfiguration mailprop;
-	private static PropertiesConfiguration default_mailprop;
+	//loaded mail configs by filename, the files are read once
+	private static final ConcurrentMap<String, MailConfigLoader> loaderMap = new ConcurrentHashMap<String, MailConfigLoader>();
+	
+	private PropertiesConfiguration mailprop;
+	private PropertiesConfiguration default_mailprop;
+	
+	/**
+	 * Returns the cached MailConfigLoader for the mail file
+	 * 
+	 * @param mailfile Filename from the Mail-Properties in resources
+	 * @return MailConfigLoader
+	 */
+	public static MailConfigLoader getInstance(String mailfile) {
+		MailConfigLoader mcl = loaderMap.get(mailfile);
+		if (mcl == null) {
+			loaderMap.putIfAbsent(mailfile, new MailConfigLoader(mailfile));
+			mcl = loaderMap.get(mailfile);
+		}
+		return mcl;
+	}
 	
 	/**
 	 * Constructor for MailConfigLoader
@@ -0,0 +1,270 @@
+/**
+ * Copyright 2015 Robert Vorkoeper - robert-vor@gmx.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.service.mail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends mail in the background. Messages are queued and sent by one thread that
+ * keeps the SMTP connection open between messages, queued messages are sent
+ * together on the same connection. Messages that fail are queued again with a
+ * growing delay.
+ */
+public class MailDispatcher {
+
+	private static Logger log = LoggerFactory.getLogger(MailDispatcher.class);
+
+	private static final MailConfigLoader mcl = MailConfigLoader.getInstance("mail.properties");
+	//attempts to send a message before it is dropped
+	public static final int MAX_ATTEMPTS = getIntProperty("mail.dispatch.attempts", 5);
+	//delay before the first retry in seconds, doubled for each further retry
+	public static final int RETRY_DELAY = getIntProperty("mail.dispatch.retryDelay", 30);
+	//max messages sent on one connection before the queue is checked again
+	public static final int BATCH_SIZE = getIntProperty("mail.dispatch.batchSize", 50);
+	//seconds an idle SMTP connection is kept open
+	public static final int IDLE_TIMEOUT = getIntProperty("mail.dispatch.idleTimeout", 60);
+
+	private static final BlockingQueue<MailItem> queue = new LinkedBlockingQueue<MailItem>();
+	private static final ScheduledExecutorService retryExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "mail-retry");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private static final AtomicLong sentCount = new AtomicLong();
+	private static final AtomicLong failedCount = new AtomicLong();
+
+	private static Thread worker;
+	//only used by the worker thread
+	private static Transport transport;
+	private static Session transportSession;
+
+	private MailDispatcher() {
+	}
+
+	private static int getIntProperty(String name, int defaultValue) {
+		String value = mcl.getProperty(name);
+		return StringUtils.isNumeric(value) ? Integer.parseInt(value) : defaultValue;
+	}
+
+	/**
+	 * Queues a message to be sent
+	 * 
+	 * @param session Mail session of the message
+	 * @param message Message with recipients set
+	 */
+	public static void send(Session session, Message message) {
+		send(session, message, null);
+	}
+
+	/**
+	 * Queues a message to be sent
+	 * 
+	 * @param session Mail session of the message
+	 * @param message Message with recipients set
+	 * @param callback Notified when the message was sent or finally failed, may be null
+	 */
+	public static void send(Session session, Message message, MailCallback callback) {
+		queue.offer(new MailItem(session, message, callback));
+		startWorker();
+	}
+
+	/**
+	 * Returns the number of messages waiting to be sent, retries are not counted until they are due
+	 * 
+	 * @return queue size
+	 */
+	public static int getQueueSize() {
+		return queue.size();
+	}
+
+	public static long getSentCount() {
+		return sentCount.get();
+	}
+
+	public static long getFailedCount() {
+		return failedCount.get();
+	}
+
+	private static synchronized void startWorker() {
+		if (worker == null || !worker.isAlive()) {
+			worker = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					dispatch();
+				}
+			}, "mail-dispatch");
+			worker.setDaemon(true);
+			worker.start();
+		}
+	}
+
+	/**
+	 * Sends queued messages until interrupted, the connection is closed when the queue stays empty
+	 */
+	private static void dispatch() {
+		List<MailItem> batch = new ArrayList<MailItem>();
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				MailItem item = queue.poll(IDLE_TIMEOUT, TimeUnit.SECONDS);
+				if (item == null) {
+					closeTransport();
+					continue;
+				}
+				batch.clear();
+				batch.add(item);
+				queue.drainTo(batch, BATCH_SIZE - 1);
+				for (MailItem mailItem : batch) {
+					deliver(mailItem);
+				}
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		closeTransport();
+	}
+
+	private static void deliver(MailItem item) {
+		try {
+			Transport t = getTransport(item.session);
+			t.sendMessage(item.message, item.message.getAllRecipients());
+			sentCount.incrementAndGet();
+			notifySent(item);
+		} catch (SendFailedException ex) {
+			//rejected addresses will not be accepted on a retry
+			if (ex.getInvalidAddresses() != null && ex.getInvalidAddresses().length > 0) {
+				log.error(ex.toString(), ex);
+				failedCount.incrementAndGet();
+				notifyFailed(item);
+			} else {
+				log.warn(ex.toString(), ex);
+				closeTransport();
+				retry(item);
+			}
+		} catch (MessagingException ex) {
+			log.warn(ex.toString(), ex);
+			closeTransport();
+			retry(item);
+		} catch (RuntimeException ex) {
+			//keep the dispatch thread alive, the message is retried until it runs out of attempts
+			log.error(ex.toString(), ex);
+			closeTransport();
+			retry(item);
+		}
+	}
+
+	private static void retry(final MailItem item) {
+		item.attempts++;
+		if (item.attempts >= MAX_ATTEMPTS) {
+			log.error("Mail not sent after " + item.attempts + " attempts");
+			failedCount.incrementAndGet();
+			notifyFailed(item);
+			return;
+		}
+		long delay = (long) RETRY_DELAY << (item.attempts - 1);
+		retryExecutor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				queue.offer(item);
+			}
+		}, delay, TimeUnit.SECONDS);
+	}
+
+	private static void notifySent(MailItem item) {
+		if (item.callback != null) {
+			try {
+				item.callback.sent();
+			} catch (Exception ex) {
+				log.error(ex.toString(), ex);
+			}
+		}
+	}
+
+	private static void notifyFailed(MailItem item) {
+		if (item.callback != null) {
+			try {
+				item.callback.failed();
+			} catch (Exception ex) {
+				log.error(ex.toString(), ex);
+			}
+		}
+	}
+
+	/**
+	 * Returns an open transport for the session, the open connection is reused
+	 */
+	private static Transport getTransport(Session session) throws MessagingException {
+		if (transport != null && (transportSession != session || !transport.isConnected())) {
+			closeTransport();
+		}
+		if (transport == null) {
+			Transport t = session.getTransport();
+			t.connect();
+			transport = t;
+			transportSession = session;
+		}
+		return transport;
+	}
+
+	private static void closeTransport() {
+		if (transport != null) {
+			try {
+				transport.close();
+			} catch (Exception ex) {
+				log.debug(ex.toString());
+			}
+			transport = null;
+			transportSession = null;
+		}
+	}
+
+	/**
+	 * Queued message with its send attempts
+	 */
+	private static class MailItem {
+		final Session session;
+		final Message message;
+		final MailCallback callback;
+		int attempts = 0;
+
+		MailItem(Session session, Message message, MailCallback callback) {
+			this.session = session;
+			this.message = message;
+			this.callback = callback;
+		}
+	}
+}
@@ -18,40 +18,77 @@ package com.keybox.service.mail;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.mail.Message;
 import javax.mail.MessagingException;
 import javax.mail.Session;
-import javax.mail.Transport;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeMessage;
 
 public class MailSend {
 
+	//mail sessions by mail file, built once from the cached config
+	private static final ConcurrentMap<String, Session> sessionMap = new ConcurrentHashMap<String, Session>();
+
+	/**
+	 * Returns the mail session for the mail file
+	 * 
+	 * @param mailart Filename from the Mail-Properties in resources
+	 * @return mail session
+	 */
+	private static Session getSession(String mailart) {
+		Session session = sessionMap.get(mailart);
+		if (session == null) {
+			MailConfigLoader mcl = MailConfigLoader.getInstance(mailart);
+
+			//Set Configuration when sending mail
+			final Properties props = new Properties();
+			props.put("mail.smtp.host", mcl.getProperty("mail.smtp.host"));
+			props.put("mail.smtp.port", mcl.getProperty("mail.smtp.port"));
+			props.put("mail.transport.protocol",mcl.getProperty("mail.transport.protocol"));
+			props.put("mail.smtp.auth", mcl.getProperty("mail.smtp.auth"));
+			props.put("mail.smtp.starttls.enable", mcl.getProperty("mail.smtp.starttls.enable"));
+			props.put("mail.smtp.tls", mcl.getProperty("mail.smtp.tls"));
+			props.put("mail.smtp.ssl.checkserveridentity", mcl.getProperty("mail.smtp.ssl.checkserveridentity"));
+			MailAuthenticator mailauth = new MailAuthenticator(mcl.getProperty("mail.auth.user"), mcl.getProperty("mail.auth.pw"));
+			sessionMap.putIfAbsent(mailart, Session.getInstance(props, mailauth));
+			session = sessionMap.get(mailart);
+		}
+		return session;
+	}
+
 	/**
-	 * Method to send Mail
+	 * Method to send Mail. The message is built right away and sent in the background
+	 * by the MailDispatcher, failed sends are retried.
 	 * 
 	 * @param mailart Filename from the Mail-Properties in resources
 	 * @param recipientMail Recipient Mail Address
 	 * @param recipientName Recipient Name
 	 * @param massageParameter Parameter List for message and subject
-	 * @throws MessagingException Mail send fail
+	 * @throws MessagingException Mail could not be built
 	 * @throws UnsupportedEncodingException EMail address not supported
 	 */
 	public static void sendMail(String mailart, String recipientMail, String recipientName, ArrayList<MassageParamter> massageParameter) throws UnsupportedEncodingException, MessagingException {
-		MailConfigLoader mcl = new MailConfigLoader(mailart);
-		
-		//Set Configuration when sending mail
-		final Properties props = new Properties();
-		props.put("mail.smtp.host", mcl.getProperty("mail.smtp.host"));
-		props.put("mail.smtp.port", mcl.getProperty("mail.smtp.port"));
-		props.put("mail.transport.protocol",mcl.getProperty("mail.transport.protocol"));
-		props.put("mail.smtp.auth", mcl.getProperty("mail.smtp.auth"));
-		props.put("mail.smtp.starttls.enable", mcl.getProperty("mail.smtp.starttls.enable"));
-		props.put("mail.smtp.tls", mcl.getProperty("mail.smtp.tls"));
-		props.put("mail.smtp.ssl.checkserveridentity", mcl.getProperty("mail.smtp.ssl.checkserveridentity"));
-		MailAuthenticator mailauth = new MailAuthenticator(mcl.getProperty("mail.auth.user"), mcl.getProperty("mail.auth.pw"));
-		Session session = Session.getDefaultInstance(props, mailauth);
+		sendMail(mailart, recipientMail, recipientName, massageParameter, null);
+	}
+
+	/**
+	 * Method to send Mail. The message is built right away and sent in the background
+	 * by the MailDispatcher, the callback is notified once it was sent or finally failed.
+	 * 
+	 * @param mailart Filename from the Mail-Properties in resources
+	 * @param recipientMail Recipient Mail Address
+	 * @param recipientName Recipient Name
+	 * @param massageParameter Parameter List for message and subject
+	 * @param callback Notified when the mail was sent or finally failed, may be null
+	 * @throws MessagingException Mail could not be built
+	 * @throws UnsupportedEncodingException EMail address not supported
+	 */
+	public static void sendMail(String mailart, String recipientMail, String recipientName, ArrayList<MassageParamter> massageParameter, MailCallback callback) throws UnsupportedEncodingException, MessagingException {
+		MailConfigLoader mcl = MailConfigLoader.getInstance(mailart);
+		Session session = getSession(mailart);
 
 		//Change message and subject text 
 		String subjectText = mcl.getProperty("mail.subject");
@@ -63,7 +100,7 @@ public class MailSend {
 			messageText = messageText.replace(mp.getPattern(), mp.getValue());
 		}
 
-		// Build and send a message
+		// Build and queue a message
 		Message msg = new MimeMessage(session);
 		
 		msg.setFrom(new InternetAddress(mcl.getProperty("mail.address"), mcl.getProperty("mail.person")));
@@ -71,6 +108,6 @@ public class MailSend {
 		msg.setSubject(subjectText);
 		msg.setText(messageText);
 		msg.saveChanges();
-		Transport.send(msg);
+		MailDispatcher.send(session, msg, callback);
 	}
 }
@@ -0,0 +1,67 @@
+<%
+    /**
+     * Copyright 2013 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+     *
+     * Licensed under the Apache License, Version 2.0 (the "License");
+     * you may not use this file except in compliance with the License.
+     * You may obtain a copy of the License at
+     *
+     * http://www.apache.org/licenses/LICENSE-2.0
+     *
+     * Unless required by applicable law or agreed to in writing, software
+     * distributed under the License is distributed on an "AS IS" BASIS,
+     * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+     * See the License for the specific language governing permissions and
+     * limitations under the License.
+     */
+%>
+<%@ taglib prefix="s" uri="/struts-tags" %>
+<%-- page navigation for a paged sortedSet, the 'form' param is the id of the form that reloads the list --%>
+<s:if test="sortedSet.totalCount != null && (sortedSet.cursor != null || sortedSet.nextCursor != null)">
+    <ul class="pager">
+        <s:if test="sortedSet.cursor != null">
+            <li><a href="#" class="page_first">First</a></li>
+            <li><a href="#" class="page_prev">Previous</a></li>
+        </s:if>
+        <li><s:property value="sortedSet.itemList.size"/> of <s:property value="sortedSet.totalCount"/></li>
+        <s:if test="sortedSet.nextCursor != null">
+            <li><a href="#" class="page_next">Next</a></li>
+        </s:if>
+    </ul>
+    <script type="text/javascript">
+        $(document).ready(function () {
+            var form = $('#<%= request.getParameter("form").replaceAll("[^A-Za-z0-9_]", "") %>');
+            var cursor = '<s:property value="sortedSet.cursor"/>';
+            var cursorHistory = '<s:property value="sortedSet.cursorHistory"/>';
+
+            //reloads the list at the cursor, sorting the list without these fields starts at the first page
+            function loadPage(pageCursor, pageCursorHistory) {
+                form.find('input.pager_field').remove();
+                if (pageCursor) {
+                    form.append($('<input type="hidden" class="pager_field" name="sortedSet.cursor"/>').val(pageCursor));
+                }
+                if (pageCursorHistory) {
+                    form.append($('<input type="hidden" class="pager_field" name="sortedSet.cursorHistory"/>').val(pageCursorHistory));
+                }
+                form.submit();
+            }
+
+            $('.page_first').click(function () {
+                loadPage(null, null);
+                return false;
+            });
+            $('.page_prev').click(function () {
+                var historyList = cursorHistory ? cursorHistory.split(',') : [];
+                var prevCursor = historyList.pop();
+                loadPage(prevCursor != '0' ? prevCursor : null, historyList.join(','));
+                return false;
+            });
+            $('.page_next').click(function () {
+                //0 marks the first page in the history
+                var current = cursor ? cursor : '0';
+                loadPage('<s:property value="sortedSet.nextCursor"/>', cursorHistory ? cursorHistory + ',' + current : current);
+                return false;
+            });
+        });
+    </script>
+</s:if>
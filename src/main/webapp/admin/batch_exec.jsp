@@ -0,0 +1,106 @@
+<%
+/**
+ * Copyright 2013 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+%>
+<%@ taglib prefix="s" uri="/struts-tags" %>
+<!DOCTYPE html>
+<html>
+<head>
+
+    <jsp:include page="../_res/inc/header.jsp"/>
+
+    <s:if test="batchRun!=null">
+    <script type="text/javascript">
+        $(document).ready(function() {
+
+            var offset = 0;
+
+            function statusText(result) {
+                if (result.statusCd != 'SUCCESS') {
+                    return $('<div class="error"/>').text(result.errorMsg ? result.errorMsg : 'Failed');
+                } else if (result.exitCode == 0) {
+                    return $('<div class="success"/>').text('Exit Code 0');
+                } else if (result.exitCode != null) {
+                    return $('<div class="warning"/>').text('Exit Code ' + result.exitCode);
+                }
+                return $('<div class="warning"/>').text('Unknown Exit Code');
+            }
+
+            //fetch results finished since the last poll and add them to the table
+            function loadResults() {
+                $.getJSON('getBatchResults.action', {'runId': <s:property value="batchRun.id"/>, 'offset': offset}, function(data) {
+                    if (data.error) {
+                        $('#batch_progress').text(data.error);
+                        return;
+                    }
+                    $.each(data.resultList, function(i, result) {
+                        var output = $('<pre class="batch_output"/>').text((result.stdout ? result.stdout : '') + (result.stderr ? result.stderr : '') + (result.truncated ? '\n[output truncated]' : ''));
+                        var row = $('<tr/>')
+                                .append($('<td/>').text(result.displayNm))
+                                .append($('<td/>').text(result.user + '@' + result.host + ':' + result.port))
+                                .append($('<td/>').append(statusText(result)))
+                                .append($('<td/>').append(output));
+                        $('#batch_results tbody').append(row);
+                    });
+                    offset = data.completed;
+                    $('#batch_progress').text(data.completed + ' of ' + data.total + ' systems finished');
+                    if (data.completed < data.total) {
+                        setTimeout(loadResults, 1000);
+                    }
+                });
+            }
+            loadResults();
+        });
+    </script>
+    </s:if>
+    <style>
+        .batch_output {
+            max-height: 200px;
+            overflow: auto;
+            margin: 0;
+        }
+    </style>
+
+    <title>KeyBox - Batch Results</title>
+</head>
+<body>
+
+    <jsp:include page="../_res/inc/navigation.jsp"/>
+
+    <div class="container">
+        <h3>Batch Results</h3>
+        <s:actionerror/>
+        <s:if test="batchRun!=null">
+            <pre><s:property value="batchRun.command"/></pre>
+            <p id="batch_progress">0 of <s:property value="batchRun.total"/> systems finished</p>
+            <table id="batch_results" class="table-striped scrollableTable">
+                <thead>
+                <tr>
+                    <th>Display Name</th>
+                    <th>Host</th>
+                    <th>Status</th>
+                    <th>Output</th>
+                </tr>
+                </thead>
+                <tbody>
+                </tbody>
+            </table>
+        </s:if>
+        <div class="spacer spacer-top"><a href="viewSystems.action">Back to Systems</a></div>
+    </div>
+
+</body>
+</html>
@@ -45,7 +45,11 @@
                 connectWith: ".run_cmd",
                 handle: ".term-header",
                 zIndex: 10000,
-                helper: 'clone'
+                helper: 'clone',
+                stop: function () {
+                    //terminals moved into view write their queued output
+                    scheduleRender();
+                }
             });
 
             //submit
@@ -70,6 +74,8 @@
                     $('#run_cmd_'+id).remove();
                     termMap[id].destroy();
                     delete termMap[id];
+                    delete pendingOutput[id];
+                    delete matchCounts[id];
                 }
                 
             });
@@ -265,18 +271,61 @@
             connection.onmessage = function (e) {
                 var json = jQuery.parseJSON(e.data);
                 $.each(json, function (key, val) {
+                    if (val.matchCount) {
+                        addMatches(val.instanceId, val.matchCount);
+                    }
                     if (val.output != '') {
-                        if(!termMap[val.instanceId]) {
-                            createTermMap(val.instanceId, val.output);
-                        }else {
-                            termMap[val.instanceId].write(val.output);
-                        }
+                        queueOutput(val.instanceId, val.output);
                     }
                         
                 });
 
                 
             };
+
+            //output waiting to be written to each terminal, written once per animation frame
+            var pendingOutput = {};
+            var renderScheduled = false;
+            //max chars held for a terminal that is not visible before it is written anyway
+            var MAX_PENDING_OUTPUT = 1048576;
+
+            function queueOutput(id, output) {
+                pendingOutput[id] = pendingOutput[id] ? pendingOutput[id] + output : output;
+                scheduleRender();
+            }
+
+            function scheduleRender() {
+                if (!renderScheduled) {
+                    renderScheduled = true;
+                    window.requestAnimationFrame(renderOutput);
+                }
+            }
+
+            //write the queued output of visible terminals, the rest waits until scrolled into view
+            function renderOutput() {
+                renderScheduled = false;
+                var viewHeight = window.innerHeight || document.documentElement.clientHeight;
+                for (var id in pendingOutput) {
+                    var output = pendingOutput[id];
+                    var element = document.getElementById('run_cmd_' + id);
+                    //terminal was disconnected and removed
+                    if (!element) {
+                        delete pendingOutput[id];
+                    } else if (!termMap[id]) {
+                        createTermMap(id, output);
+                        delete pendingOutput[id];
+                    } else {
+                        var rect = element.getBoundingClientRect();
+                        var visible = element.offsetParent != null && rect.bottom >= 0 && rect.top <= viewHeight;
+                        if (visible || output.length > MAX_PENDING_OUTPUT) {
+                            termMap[id].write(output);
+                            delete pendingOutput[id];
+                        }
+                    }
+                }
+            }
+
+            $(window).on('scroll resize', scheduleRender);
             
             function  createTermMap(id, output){
 
@@ -320,8 +369,10 @@
             });
 
 
-            var matchFunction = null;
+            var matchCounts = {};
+            var matchSortTimer = null;
 
+            //matching runs on the server, it pushes the number of new matches with the output
             function runRegExMatch() {
 
                 if ($('#match_btn').hasClass('btn-success')) {
@@ -329,53 +380,49 @@
                     $('#match_btn').removeClass('btn-success');
                     $('#match_btn').text("Stop");
 
-                    matchFunction = setInterval(function () {
-
-                        var termMap = [];
-                        var existingTerms = [];
-                        $(".run_cmd").each(function () {
-                            var matchRegEx = null;
-                            try {
-                                matchRegEx = new RegExp($('#match').val(), 'g');
-                            } catch (ex) {
-                            }
-                            if (matchRegEx != null) {
-                                var attrId = $(this).attr("id");
-                                if (attrId && attrId != '') {
-                                    var id = attrId.replace("run_cmd_", "");
-
-                                    var match = $('#output_' + id + ' > .terminal').text().match(matchRegEx);
-
-                                    if (match != null) {
-                                        termMap.push({id: id, no_matches: match.length});
-                                    }
-                                    existingTerms.push({id: id});
-                                }
-                            }
-                        });
-
-
-                        var sorted = termMap.slice(0).sort(function (a, b) {
-                            return a.no_matches - b.no_matches;
-                        });
-
-
-                        for (var i = 0; i < sorted.length; ++i) {
-                            var termId = sorted[i].id;
-                            $('#run_cmd_' + termId).prependTo('.termwrapper');
-                            if (sorted[sorted.length - i - 1].id != existingTerms[i].id) {
-                                $('#run_cmd_' + termId).fadeTo(100, .5).fadeTo(100, 1);
-                            }
-                        }
-
-
-                    }, 5000);
+                    matchCounts = {};
+                    connection.send(JSON.stringify({match: $('#match').val()}));
                 } else {
                     $('#match_btn').addClass('btn-success');
                     $('#match_btn').removeClass('btn-danger');
                     $('#match_btn').text("Start");
-                    clearInterval(matchFunction)
+
+                    connection.send(JSON.stringify({match: ''}));
+                    clearTimeout(matchSortTimer);
+                    matchSortTimer = null;
+                }
+            }
+
+            //add matches for a terminal and sort at most once a second
+            function addMatches(id, count) {
+                matchCounts[id] = (matchCounts[id] || 0) + count;
+                if (matchSortTimer == null) {
+                    matchSortTimer = setTimeout(sortByMatches, 1000);
+                }
+            }
+
+            //bring terminals with the most matches to the top
+            function sortByMatches() {
+                matchSortTimer = null;
+
+                var existingTerms = $(".run_cmd").map(function () {
+                    return $(this).attr("id");
+                }).get();
+
+                var sorted = Object.keys(matchCounts).sort(function (a, b) {
+                    return matchCounts[a] - matchCounts[b];
+                });
+
+                for (var i = 0; i < sorted.length; ++i) {
+                    $('#run_cmd_' + sorted[i]).prependTo('.termwrapper');
+                }
+                for (var i = 0; i < sorted.length; ++i) {
+                    var termId = 'run_cmd_' + sorted[sorted.length - i - 1];
+                    if (existingTerms[i] != termId) {
+                        $('#' + termId).fadeTo(100, .5).fadeTo(100, 1);
+                    }
                 }
+                scheduleRender();
             }
 
 
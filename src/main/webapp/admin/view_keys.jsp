@@ -35,6 +35,33 @@
                 $(this).parents('.modal').find('form').submit();
             });
 
+            //import keys and list the result for each key
+            $(".import_btn").button().click(function () {
+                $.ajax({
+                    url: 'importPublicKeys.action',
+                    type: 'POST',
+                    data: new FormData($("#import_keys_form")[0]),
+                    processData: false,
+                    contentType: false,
+                    dataType: 'json',
+                    success: function (result) {
+                        var list = $('<ul class="list-unstyled"></ul>');
+                        if (result.error) {
+                            list.append($('<li class="error"></li>').text(result.error));
+                        }
+                        $.each(result.keys, function (i, key) {
+                            list.append($('<li></li>').text(key.keyNm + ': ' + key.status));
+                        });
+                        $("#import_result").empty().append($('<p></p>').text(result.imported + ' key(s) imported')).append(list);
+                        if (result.imported > 0) {
+                            $("#import_dialog").on('hidden.bs.modal', function () {
+                                $("#viewKeys").submit();
+                            });
+                        }
+                    }
+                });
+            });
+
             //regenerate auth keys btn
             $(".gen_auth_keys_btn").button().click(function () {
                 $("#gen_auth_keys").submit();
@@ -204,9 +231,47 @@
             </table>
             </div>
         </s:if>
+        <jsp:include page="../_res/inc/pager.jsp">
+            <jsp:param name="form" value="viewKeys"/>
+        </jsp:include>
 
 
         <button class="btn btn-default add_btn spacer spacer-bottom" data-toggle="modal" data-target="#add_dialog">Add SSH Key</button>
+        <s:if test="!forceUserKeyGenEnabled">
+            <button class="btn btn-default spacer spacer-left spacer-bottom" data-toggle="modal" data-target="#import_dialog">Import SSH Keys</button>
+            <div id="import_dialog" class="modal fade">
+                <div class="modal-dialog">
+                    <div class="modal-content">
+                        <div class="modal-header">
+                            <button type="button" class="close" data-dismiss="modal" aria-hidden="true">x</button>
+                            <h4 class="modal-title">Import Public SSH Keys</h4>
+                        </div>
+                        <div class="modal-body">
+                            <div class="row">
+                                <div id="import_result"></div>
+                                <s:form action="importPublicKeys" id="import_keys_form" method="post" enctype="multipart/form-data" autocomplete="off">
+                                    <s:if test="%{#session.userType==\"M\"}">
+                                        <s:select name="publicKey.profile.id" list="profileList" headerKey=""
+                                                  headerValue="All Systems"
+                                                  listKey="id" listValue="%{nm}" label="Profile"/>
+                                    </s:if>
+                                    <s:else>
+                                        <s:select name="publicKey.profile.id" list="profileList"
+                                                  listKey="id" listValue="%{nm}" label="Profile"/>
+                                    </s:else>
+                                    <s:file name="upload" label="authorized_keys File"/>
+                                    <s:textarea name="importKeys" label="Public Keys" rows="8" cols="55"/>
+                                </s:form>
+                            </div>
+                        </div>
+                        <div class="modal-footer">
+                            <button type="button" class="btn btn-default cancel_btn" data-dismiss="modal">Cancel</button>
+                            <button type="button" class="btn btn-default import_btn">Import</button>
+                        </div>
+                    </div>
+                </div>
+            </div>
+        </s:if>
         <div id="add_dialog" class="modal fade">
             <div class="modal-dialog">
                 <div class="modal-content">
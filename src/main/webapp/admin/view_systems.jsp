@@ -29,6 +29,13 @@
             $(".select_frm_btn").button().click(function() {
                 $("#select_frm").submit();
             });
+            //run on the selected systems over exec channels instead of terminals
+            $(".batch_frm_btn").button().click(function() {
+                if ($("#batch_command").length) {
+                    $("<input type='hidden' name='command'/>").val($("#batch_command").val()).appendTo("#select_frm");
+                }
+                $("#select_frm").attr("action", "runBatch.action").submit();
+            });
             //select all check boxes
             $("#select_frm_systemSelectAll").click(function() {
                 if ($(this).is(':checked')) {
@@ -208,11 +215,17 @@
                 </div>
             </s:form>
         </s:if>
+        <jsp:include page="../_res/inc/pager.jsp">
+            <jsp:param name="form" value="viewSystems"/>
+        </jsp:include>
         <s:if test="script!=null && sortedSet.itemList!= null && !sortedSet.itemList.isEmpty()">
             <div class="btn btn-default select_frm_btn spacer spacer-bottom">Execute Script</div>
+            <div class="btn btn-default batch_frm_btn spacer spacer-bottom">Execute Script in Batch</div>
         </s:if>
         <s:elseif test="sortedSet.itemList!= null && !sortedSet.itemList.isEmpty()">
             <div class="btn btn-default select_frm_btn spacer spacer-bottom">Create SSH Terminals</div>
+            <input type="text" id="batch_command" class="spacer spacer-bottom" placeholder="Command" size="40"/>
+            <div class="btn btn-default batch_frm_btn spacer spacer-bottom">Run Command in Batch</div>
         </s:elseif>
         <s:else>
             <div class="actionMessage">
@@ -200,6 +200,9 @@
             </table>
             </div>
         </s:if>
+        <jsp:include page="../_res/inc/pager.jsp">
+            <jsp:param name="form" value="viewKeys"/>
+        </jsp:include>
 
 </div>
 
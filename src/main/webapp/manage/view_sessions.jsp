@@ -160,6 +160,9 @@
         <s:else>
             <p class="error">No session audits available</p>
         </s:else>
+        <jsp:include page="../_res/inc/pager.jsp">
+            <jsp:param name="form" value="viewSessions"/>
+        </jsp:include>
 
 
 </div>
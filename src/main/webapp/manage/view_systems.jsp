@@ -228,6 +228,9 @@
             </div>
 
         </s:if>
+        <jsp:include page="../_res/inc/pager.jsp">
+            <jsp:param name="form" value="viewSystems"/>
+        </jsp:include>
 
         <button class="btn btn-default add_btn spacer spacer-bottom" data-toggle="modal" data-target="#add_dialog">Add System</button>
         <div id="add_dialog" class="modal fade">
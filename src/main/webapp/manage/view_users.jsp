@@ -177,6 +177,9 @@
                 </table>
                 </div>
         </s:if>
+        <jsp:include page="../_res/inc/pager.jsp">
+            <jsp:param name="form" value="viewUsers"/>
+        </jsp:include>
 
         <button class="btn btn-default add_btn spacer spacer-bottom" data-toggle="modal" data-target="#add_dialog">Add User</button>
         <div id="add_dialog" class="modal fade">